@@ -15,6 +15,13 @@ import javax.servlet.ServletContextListener;
 
 public class ObjectifyBootstrapper implements ServletContextListener {
     public void contextInitialized(ServletContextEvent event) {
+        init();
+    }
+
+    /**
+     * Connects Objectify to the datastore and registers the entities, for programs running outside the servlet container.
+     */
+    public static void init() {
         Datastore datastore = DatastoreOptions.newBuilder()
                 .setProjectId("bookworm-221210")
                 .build()
@@ -19,4 +19,22 @@ public enum Availability {
     Availability(String type) {
         this.type = type.trim().toLowerCase();
     }
+
+    /**
+     * @param value The name of an ItemAvailability, such as "InStock", or its url, such as "http://schema.org/InStock".
+     * @return The availability, or null if the value names none.
+     */
+    public static Availability fromSchemaOrg(String value) {
+        if (value == null) {
+            return null;
+        }
+
+        String name = value.substring(value.lastIndexOf('/') + 1).trim();
+        for (Availability availability : values()) {
+            if (availability.type.equalsIgnoreCase(name)) {
+                return availability;
+            }
+        }
+        return null;
+    }
 }
\ No newline at end of file
@@ -8,6 +8,7 @@ import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Index;
 import com.googlecode.objectify.annotation.Load;
 import me.mircea.licenta.core.parser.utils.EntityNormalizer;
+import me.mircea.licenta.products.utils.Isbns;
 
 import java.time.Instant;
 import java.util.*;
@@ -140,7 +141,8 @@ public class Book implements Product {
 	}
 
 	public void setIsbn(String isbn) {
-		this.isbn = (isbn != null) ? isbn.replaceAll("[-\\ ]", "") : null;
+		String isbn13 = Isbns.toIsbn13(isbn);
+		this.isbn = (isbn13 != null) ? isbn13 : Isbns.compact(isbn);
 	}
 
 	public String getDescription() {
@@ -5,15 +5,12 @@ import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Index;
 import me.mircea.licenta.core.parser.utils.HtmlUtil;
+import me.mircea.licenta.products.utils.Prices;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 
 import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.net.MalformedURLException;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
-import java.text.NumberFormat;
 import java.text.ParseException;
 import java.time.Instant;
 import java.util.Currency;
@@ -72,36 +69,21 @@ public class PricePoint {
      */
     public static PricePoint valueOf(String price, final Locale locale, Instant retrievedTime, String url)
             throws ParseException, MalformedURLException {
-        price = normalizeStringWithLocale(price, locale);
-
-        final NumberFormat noFormat = NumberFormat.getNumberInstance(locale);
-        if (noFormat instanceof DecimalFormat) {
-            ((DecimalFormat) noFormat).setParseBigDecimal(true);
-        }
-
-        BigDecimal nominalValue = (BigDecimal) noFormat.parse(price);
-        if (!price.matches(".*[.,].*") && nominalValue.stripTrailingZeros().scale() <= 0
-                && nominalValue.compareTo(BigDecimal.valueOf(100)) >= 1)
-            nominalValue = nominalValue.divide(BigDecimal.valueOf(100));
-
+        BigDecimal nominalValue = Prices.parse(price, locale);
         return new PricePoint(null, nominalValue, Currency.getInstance(locale), retrievedTime, url);
     }
 
     // TODO: refactor remove duplication
     public static PricePoint valueOf(String price, Locale locale, Element htmlElement)
             throws ParseException, MalformedURLException {
-        price = normalizeStringWithLocale(price, locale);
-
-        final NumberFormat noFormat = NumberFormat.getNumberInstance(locale);
-        if (noFormat instanceof DecimalFormat) {
-            ((DecimalFormat) noFormat).setParseBigDecimal(true);
-        }
-
-        BigDecimal nominalValue = (BigDecimal) noFormat.parse(price);
-        if (!price.matches(".*[.,].*") && nominalValue.stripTrailingZeros().scale() <= 0
-                && nominalValue.compareTo(BigDecimal.valueOf(100)) >= 1)
-            nominalValue = nominalValue.divide(BigDecimal.valueOf(100), RoundingMode.CEILING);
+        return valueOf(Prices.parse(price, locale), locale, htmlElement);
+    }
 
+    /**
+     * @param nominalValue The price already parsed, such as one from the structured data of the page.
+     */
+    public static PricePoint valueOf(BigDecimal nominalValue, Locale locale, Element htmlElement)
+            throws MalformedURLException {
         String url = HtmlUtil.getCanonicalUrl(htmlElement).orElse(htmlElement.baseUri());
         PricePoint pricePoint = new PricePoint(null, nominalValue, Currency.getInstance(locale), Instant.now(), url);
 
@@ -111,47 +93,6 @@ public class PricePoint {
         return pricePoint;
     }
 
-    /**
-     * @brief Does the actual fixing of the price tag.
-     */
-    private static String normalizeStringWithLocale(String price, Locale locale) {
-        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
-        String normalDecimalSeparator = String.valueOf(symbols.getDecimalSeparator());
-        String normalGroupingSeparator = String.valueOf(symbols.getGroupingSeparator());
-
-        // If a mismatch between locale and website, try and fix it
-        final int decimalFirst = price.indexOf(normalDecimalSeparator);
-        final int groupingFirst = price.indexOf(normalGroupingSeparator);
-
-        final boolean hasNormalDecimalSeparator = (decimalFirst != -1);
-        final boolean hasNormalGroupingSeparator = (groupingFirst != -1);
-        final boolean hasBothButReversed = hasNormalDecimalSeparator && hasNormalGroupingSeparator
-                && groupingFirst > decimalFirst;
-        if (!hasNormalDecimalSeparator) {
-            price = price.replaceAll("[.,]", normalDecimalSeparator);
-        } else if (!hasNormalGroupingSeparator) { // has decimal but no grouping
-            String substring = price.substring(decimalFirst + 1);
-            if (substring.matches("^\\d{3,}.*"))
-                price = price.replaceAll(normalDecimalSeparator, normalGroupingSeparator);
-        } else if (hasBothButReversed) {
-            price = swapCharactersInString(price, normalDecimalSeparator.charAt(0), normalGroupingSeparator.charAt(0));
-        }
-
-        return price;
-    }
-
-    private static String swapCharactersInString(final String str, final char first, final char second) {
-        char[] chars = str.toCharArray();
-        for (int i = 0; i < chars.length; ++i) {
-            if (chars[i] == first)
-                chars[i] = second;
-            else if (chars[i] == second)
-                chars[i] = first;
-
-        }
-        return String.valueOf(chars);
-    }
-
     public Long getId() {
         return id;
     }
@@ -0,0 +1,188 @@
+package me.mircea.licenta.products.utils;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses isbns by scanning their characters, without regular expressions. An isbn-10 or isbn-13 may be
+ * written with hyphens or spaces between its digits and be preceded by a label or a prefix of the shop, such as
+ * "ISBN: 978-973-50-5918-7" or "ISBN-13 978-973-50-5918-7", whose own digits are skipped. Only isbns whose check
+ * digit is right are accepted, and they are always given back as isbn-13.
+ */
+public final class Isbns {
+    private static final int ISBN_10_LENGTH = 10;
+    private static final int ISBN_13_LENGTH = 13;
+    private static final String ISBN_10_PREFIX = "978";
+
+    private Isbns() {
+    }
+
+    /**
+     * Numbers are tried from the start of each run of digits in turn, so that the digits of a label, as in
+     * "ISBN 13 9789735059187", do not hide the isbn after them.
+     * @return The isbn-13 of the first valid isbn in the value, or null if it has none.
+     */
+    public static String toIsbn13(CharSequence value) {
+        if (value == null) {
+            return null;
+        }
+
+        char[] digits = new char[ISBN_13_LENGTH];
+        for (int start = 0; start < value.length(); ++start) {
+            boolean startsRun = isDigit(value.charAt(start)) && (start == 0 || !isDigit(value.charAt(start - 1)));
+            if (!startsRun) {
+                continue;
+            }
+
+            int length = scanDigits(value, start, digits);
+            if (length == ISBN_13_LENGTH && hasValidIsbn13CheckDigit(digits)) {
+                return new String(digits);
+            } else if (length == ISBN_10_LENGTH && hasValidIsbn10CheckDigit(digits)) {
+                return isbn10ToIsbn13(digits);
+            }
+        }
+        return null;
+    }
+
+    public static boolean isValid(CharSequence value) {
+        return toIsbn13(value) != null;
+    }
+
+    /**
+     * @return The isbn-10 of an isbn-13 starting with 978, or null if it has none. Books saved before their
+     * isbns were made isbn-13 may be stored under it.
+     */
+    public static String toIsbn10(String isbn13) {
+        if (isbn13 == null || isbn13.length() != ISBN_13_LENGTH || !isbn13.startsWith(ISBN_10_PREFIX)) {
+            return null;
+        }
+
+        char[] digits = new char[ISBN_10_LENGTH];
+        int sum = 0;
+        for (int i = 0; i < ISBN_10_LENGTH - 1; ++i) {
+            digits[i] = isbn13.charAt(ISBN_10_PREFIX.length() + i);
+            sum += (ISBN_10_LENGTH - i) * (digits[i] - '0');
+        }
+        int checkDigit = (11 - sum % 11) % 11;
+        digits[ISBN_10_LENGTH - 1] = (checkDigit == 10) ? 'X' : (char) ('0' + checkDigit);
+        return new String(digits);
+    }
+
+    /**
+     * @return The forms a book with the isbn-13 may have been stored under: the isbn itself, the isbn without
+     * its check digit and, if it has one, its isbn-10.
+     */
+    public static List<String> storedForms(String isbn13) {
+        Preconditions.checkNotNull(isbn13);
+
+        List<String> forms = new ArrayList<>(3);
+        forms.add(isbn13);
+        if (isbn13.length() > 1) {
+            forms.add(isbn13.substring(0, isbn13.length() - 1));
+        }
+        String isbn10 = toIsbn10(isbn13);
+        if (isbn10 != null) {
+            forms.add(isbn10);
+        }
+        return forms;
+    }
+
+    /**
+     * @return The value without the hyphens and spaces between its characters, whether or not it is a valid isbn.
+     */
+    public static String compact(CharSequence value) {
+        if (value == null) {
+            return null;
+        }
+
+        StringBuilder compacted = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (!isSeparator(c)) {
+                compacted.append(c);
+            }
+        }
+        return compacted.toString();
+    }
+
+    /**
+     * Copies the digits of the number starting at the position, skipping the separators between them. An X may
+     * only end the number, as the check digit of an isbn-10. A space after as many digits as an isbn may end the
+     * number, so that the digits after it, as in "ISBN 9789735059187 2019", are only read as part of an isbn-13.
+     * @return The number of digits of the number, or -1 if it has more than an isbn-13.
+     */
+    private static int scanDigits(CharSequence value, int start, char[] digits) {
+        int i = start;
+        int length = 0;
+        boolean mayEndAsIsbn10 = false;
+        for (; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (isDigit(c)) {
+                if (length == digits.length) {
+                    return mayEndAsIsbn10 ? ISBN_10_LENGTH : -1;
+                }
+                digits[length++] = c;
+            } else if ((c == 'X' || c == 'x') && length == ISBN_10_LENGTH - 1) {
+                digits[length++] = 'X';
+                break;
+            } else if (c == ' ' && length == ISBN_13_LENGTH) {
+                break;
+            } else if (c == ' ' && length == ISBN_10_LENGTH) {
+                mayEndAsIsbn10 = true;
+            } else if (!isSeparator(c)) {
+                break;
+            }
+        }
+
+        if (mayEndAsIsbn10 && length != ISBN_13_LENGTH) {
+            return ISBN_10_LENGTH;
+        }
+
+        // The number must not go on right after its check digit
+        if (i + 1 < value.length() && length == ISBN_10_LENGTH && digits[length - 1] == 'X'
+                && isDigit(value.charAt(i + 1))) {
+            return -1;
+        }
+        return length;
+    }
+
+    private static boolean hasValidIsbn13CheckDigit(char[] digits) {
+        int sum = 0;
+        for (int i = 0; i < ISBN_13_LENGTH; ++i) {
+            sum += (i % 2 == 0 ? 1 : 3) * (digits[i] - '0');
+        }
+        return sum % 10 == 0;
+    }
+
+    private static boolean hasValidIsbn10CheckDigit(char[] digits) {
+        int sum = 0;
+        for (int i = 0; i < ISBN_10_LENGTH; ++i) {
+            int digit = (digits[i] == 'X') ? 10 : digits[i] - '0';
+            sum += (ISBN_10_LENGTH - i) * digit;
+        }
+        return sum % 11 == 0;
+    }
+
+    private static String isbn10ToIsbn13(char[] isbn10) {
+        char[] isbn13 = new char[ISBN_13_LENGTH];
+        ISBN_10_PREFIX.getChars(0, ISBN_10_PREFIX.length(), isbn13, 0);
+        System.arraycopy(isbn10, 0, isbn13, ISBN_10_PREFIX.length(), ISBN_10_LENGTH - 1);
+
+        int sum = 0;
+        for (int i = 0; i < ISBN_13_LENGTH - 1; ++i) {
+            sum += (i % 2 == 0 ? 1 : 3) * (isbn13[i] - '0');
+        }
+        isbn13[ISBN_13_LENGTH - 1] = (char) ('0' + (10 - sum % 10) % 10);
+        return new String(isbn13);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '-' || c == ' ';
+    }
+}
@@ -0,0 +1,209 @@
+package me.mircea.licenta.products.utils;
+
+import com.google.common.base.Preconditions;
+
+import java.math.BigDecimal;
+import java.text.DecimalFormatSymbols;
+import java.text.ParseException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Parses the nominal value of price tags by scanning their characters, instead of going through a
+ * {@link java.text.NumberFormat} and regular expressions. The separators of each locale are looked up once.
+ * <p>
+ * A price tag whose separators do not match those of the locale is read the way the shop most likely meant it:
+ * <ul>
+ * <li>without the decimal separator of the locale, every dot or comma is taken as the decimal separator;</li>
+ * <li>with a decimal separator followed by three or more digits and no grouping separator, it is taken as
+ * a grouping separator;</li>
+ * <li>with both separators but the grouping one after the decimal one, their roles are swapped.</li>
+ * </ul>
+ * A price tag without any dot or comma which reads more than 100 is taken to end in its cents, as in "1699 lei".
+ * The number ends at the first character which cannot belong to it, so any currency after it is ignored.
+ */
+public final class Prices {
+    private static final int MAX_DIGITS = 18;
+    private static final BigDecimal CENTS_THRESHOLD = BigDecimal.valueOf(100);
+    private static final Map<Locale, Separators> SEPARATORS = new ConcurrentHashMap<>();
+    private static final Pattern MACHINE_READABLE_PRICE = Pattern.compile("\\d+(\\.\\d+|,\\d{1,2})?");
+
+    private Prices() {
+    }
+
+    /**
+     * Parses a price written for machines, such as the price of a schema.org offer: digits with an optional decimal
+     * point, which may also be a comma followed by the cents. Unlike on a price tag, a price without decimals is a whole amount, never
+     * cents. Anything else is parsed as a price tag.
+     * @throws ParseException if the price is neither written for machines nor starts with a number.
+     */
+    public static BigDecimal parseStructured(String price, Locale locale) throws ParseException {
+        Preconditions.checkNotNull(price);
+
+        String trimmedPrice = price.trim();
+        if (MACHINE_READABLE_PRICE.matcher(trimmedPrice).matches()) {
+            return new BigDecimal(trimmedPrice.replace(',', '.'));
+        }
+        return parse(trimmedPrice, locale);
+    }
+
+    /**
+     * @throws ParseException if the price tag does not start with a number.
+     */
+    public static BigDecimal parse(CharSequence price, Locale locale) throws ParseException {
+        Preconditions.checkNotNull(price);
+        Preconditions.checkNotNull(locale);
+
+        Separators separators = SEPARATORS.computeIfAbsent(locale, Separators::new);
+        SeparatorRoles roles = SeparatorRoles.of(price, separators);
+
+        int i = 0;
+        boolean negative = false;
+        if (i < price.length() && price.charAt(i) == separators.minus) {
+            negative = true;
+            ++i;
+        }
+
+        long unscaledValue = 0;
+        int noDigits = 0;
+        int noFractionDigits = 0;
+        boolean sawDigit = false;
+        boolean sawDecimal = false;
+        for (; i < price.length(); ++i) {
+            char c = price.charAt(i);
+            if (c >= '0' && c <= '9') {
+                sawDigit = true;
+                // Leading zeros do not count towards the digits the value can hold
+                if (c != '0' || noDigits > 0) {
+                    unscaledValue = appendDigit(price, unscaledValue, c - '0', ++noDigits);
+                } else {
+                    unscaledValue *= 10;
+                }
+                if (sawDecimal) {
+                    ++noFractionDigits;
+                }
+            } else if (roles.map(c, separators) == separators.decimal) {
+                if (sawDecimal) {
+                    break;
+                }
+                sawDecimal = true;
+            } else if (roles.map(c, separators) == separators.grouping) {
+                // Grouping separators are skipped, but end the number within its fraction
+                if (sawDecimal) {
+                    break;
+                }
+            } else {
+                break;
+            }
+        }
+
+        if (!sawDigit) {
+            throw new ParseException("Unparseable number: \"" + price + "\"", 0);
+        }
+
+        // As with a NumberFormat, the scale of the value is the number of digits written after its decimal separator
+        BigDecimal value = BigDecimal.valueOf(negative ? -unscaledValue : unscaledValue, noFractionDigits);
+
+        if (!roles.hasDotOrComma(price, separators) && value.scale() <= 0 && value.compareTo(CENTS_THRESHOLD) > 0) {
+            value = value.divide(CENTS_THRESHOLD);
+        }
+        return value;
+    }
+
+    private static long appendDigit(CharSequence price, long unscaledValue, int digit, int noDigits)
+            throws ParseException {
+        if (noDigits > MAX_DIGITS) {
+            throw new ParseException("Too many digits in price: \"" + price + "\"", 0);
+        }
+        return unscaledValue * 10 + digit;
+    }
+
+    private static final class Separators {
+        private final char decimal;
+        private final char grouping;
+        private final char minus;
+
+        private Separators(Locale locale) {
+            DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+            this.decimal = symbols.getDecimalSeparator();
+            this.grouping = symbols.getGroupingSeparator();
+            this.minus = symbols.getMinusSign();
+        }
+    }
+
+    /**
+     * How the separators found in a particular price tag are read, which depends on the whole tag.
+     */
+    private enum SeparatorRoles {
+        AS_IN_LOCALE, DOTS_AND_COMMAS_ARE_DECIMAL, DECIMAL_IS_GROUPING, SWAPPED;
+
+        private static SeparatorRoles of(CharSequence price, Separators separators) {
+            int firstDecimal = -1;
+            int firstGrouping = -1;
+            for (int i = 0; i < price.length() && (firstDecimal == -1 || firstGrouping == -1); ++i) {
+                char c = price.charAt(i);
+                if (c == separators.decimal && firstDecimal == -1) {
+                    firstDecimal = i;
+                } else if (c == separators.grouping && firstGrouping == -1) {
+                    firstGrouping = i;
+                }
+            }
+
+            if (firstDecimal == -1) {
+                return DOTS_AND_COMMAS_ARE_DECIMAL;
+            } else if (firstGrouping == -1) {
+                return startsWithThreeDigits(price, firstDecimal + 1) ? DECIMAL_IS_GROUPING : AS_IN_LOCALE;
+            } else if (firstGrouping > firstDecimal) {
+                return SWAPPED;
+            } else {
+                return AS_IN_LOCALE;
+            }
+        }
+
+        private static boolean startsWithThreeDigits(CharSequence price, int start) {
+            if (start + 3 > price.length()) {
+                return false;
+            }
+            for (int i = start; i < start + 3; ++i) {
+                if (price.charAt(i) < '0' || price.charAt(i) > '9') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return The character standing in the place of the given one, once the separators are read as meant.
+         */
+        private char map(char c, Separators separators) {
+            switch (this) {
+                case DOTS_AND_COMMAS_ARE_DECIMAL:
+                    return (c == '.' || c == ',') ? separators.decimal : c;
+                case DECIMAL_IS_GROUPING:
+                    return (c == separators.decimal) ? separators.grouping : c;
+                case SWAPPED:
+                    if (c == separators.decimal) {
+                        return separators.grouping;
+                    } else if (c == separators.grouping) {
+                        return separators.decimal;
+                    } else {
+                        return c;
+                    }
+                default:
+                    return c;
+            }
+        }
+
+        private boolean hasDotOrComma(CharSequence price, Separators separators) {
+            for (int i = 0; i < price.length(); ++i) {
+                char c = map(price.charAt(i), separators);
+                if (c == '.' || c == ',') {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
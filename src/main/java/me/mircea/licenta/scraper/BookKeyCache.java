@@ -0,0 +1,96 @@
+package me.mircea.licenta.scraper;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableSet;
+import com.googlecode.objectify.Key;
+import me.mircea.licenta.products.db.model.Book;
+import me.mircea.licenta.products.utils.Isbns;
+
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the books persisted under an isbn, shared by every job in the JVM, so that the same isbn seen
+ * on several shops is only looked up in the datastore once. The writers of books keep it up to date with
+ * what they save; entries of books changed elsewhere expire after a while. Isbns without books are never
+ * cached, since a book may be saved under any of their forms at any time.
+ */
+class BookKeyCache {
+    private static final long MAXIMUM_SIZE = 200_000;
+    private static final long EXPIRE_AFTER_WRITE_MINUTES = 60;
+
+    static final BookKeyCache instance = new BookKeyCache(MAXIMUM_SIZE, EXPIRE_AFTER_WRITE_MINUTES, TimeUnit.MINUTES);
+
+    private final Cache<String, Set<Key<Book>>> keysByIsbn;
+
+    BookKeyCache(long maximumSize, long expireAfterWrite, TimeUnit unit) {
+        this.keysByIsbn = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite, unit)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @return The keys of the books found under the isbn, or empty if the isbn is not cached.
+     */
+    Optional<Set<Key<Book>>> get(String isbn) {
+        Preconditions.checkNotNull(isbn);
+        return Optional.ofNullable(keysByIsbn.getIfPresent(normalize(isbn)));
+    }
+
+    /**
+     * Caches the books found under the isbn, unless none were.
+     */
+    void put(String isbn, Set<Key<Book>> keys) {
+        Preconditions.checkNotNull(isbn);
+        Preconditions.checkNotNull(keys);
+        if (keys.isEmpty()) {
+            invalidate(isbn);
+        } else {
+            keysByIsbn.put(normalize(isbn), ImmutableSet.copyOf(keys));
+        }
+    }
+
+    /**
+     * Records the book that is now the only one persisted under the isbn, dropping whatever was cached under the
+     * other forms of the isbn, which may still point to books merged into it.
+     * @see Isbns#storedForms(String)
+     */
+    void putPersisted(String isbn, Key<Book> key) {
+        Preconditions.checkNotNull(isbn);
+        Preconditions.checkNotNull(key);
+
+        String normalizedIsbn = normalize(isbn);
+        for (String form : Isbns.storedForms(normalizedIsbn)) {
+            keysByIsbn.invalidate(form);
+        }
+        keysByIsbn.put(normalizedIsbn, ImmutableSet.of(key));
+    }
+
+    void invalidate(String isbn) {
+        Preconditions.checkNotNull(isbn);
+        keysByIsbn.invalidate(normalize(isbn));
+    }
+
+    CacheStats stats() {
+        return keysByIsbn.stats();
+    }
+
+    private static String normalize(String isbn) {
+        StringBuilder normalized = new StringBuilder(isbn.length());
+        for (int i = 0; i < isbn.length(); ++i) {
+            char c = isbn.charAt(i);
+            if (Character.isDigit(c)) {
+                normalized.append(c);
+            } else if (c == 'x' || c == 'X') {
+                normalized.append('X');
+            }
+        }
+        return normalized.toString();
+    }
+}
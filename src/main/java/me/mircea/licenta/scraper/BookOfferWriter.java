@@ -0,0 +1,234 @@
+package me.mircea.licenta.scraper;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Result;
+import me.mircea.licenta.products.db.model.Book;
+import me.mircea.licenta.products.db.model.PricePoint;
+import me.mircea.licenta.products.utils.Isbns;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+/**
+ * Write-behind buffer for the book-offer pairs found by a job. The pairs of a batch are resolved together:
+ * the offers are saved in one call, the books already persisted under the same isbns are loaded in one call,
+ * and the merged books are saved and the redundant ones deleted in one call each.
+ */
+class BookOfferWriter extends WriteBehindBuffer<BookOfferWriter.BookOffer> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BookOfferWriter.class);
+
+    private final ScraperStatistics statistics;
+
+    BookOfferWriter(int batchSize, long flushInterval, ScraperStatistics statistics) {
+        super(batchSize, flushInterval, bookOffer -> bookOffer);
+        Preconditions.checkNotNull(statistics);
+        this.statistics = statistics;
+    }
+
+    /**
+     * @return A writer which drops the pairs it is given, for jobs that must leave the catalog as it is.
+     */
+    static BookOfferWriter discarding(ScraperStatistics statistics) {
+        return new BookOfferWriter(1, 1, statistics) {
+            @Override
+            void add(BookOffer bookOffer) {
+            }
+        };
+    }
+
+    @Override
+    protected void write(List<BookOffer> batch) {
+        Stopwatch flushTimer = Stopwatch.createStarted();
+        try {
+            ObjectifyService.run(() -> {
+                persist(batch);
+                return null;
+            });
+            batch.forEach(bookOffer -> bookOffer.onPersisted.run());
+        } catch (RuntimeException e) {
+            LOGGER.error("Could not persist a batch of {} book offers: {}", batch.size(), e);
+        }
+        statistics.addProductPersistenceDuration(flushTimer.elapsed());
+        statistics.incrementNumberOfProductPersistenceBatches();
+    }
+
+    private void persist(List<BookOffer> batch) {
+        List<PricePoint> offers = batch.stream().map(BookOffer::getOffer).collect(Collectors.toList());
+        Result<Map<Key<PricePoint>, PricePoint>> savedOffers = ofy().save().entities(offers);
+
+        Map<String, List<BookOffer>> bookOffersByIsbn = batch.stream()
+                .collect(Collectors.groupingBy(bookOffer -> bookOffer.getBook().getIsbn(), LinkedHashMap::new, Collectors.toList()));
+
+        Map<String, Set<Key<Book>>> persistedKeysByIsbn = new HashMap<>();
+        Set<String> cachedIsbns = new HashSet<>();
+        for (String isbn : bookOffersByIsbn.keySet()) {
+            Optional<Set<Key<Book>>> cachedKeys = BookKeyCache.instance.get(isbn);
+            if (cachedKeys.isPresent()) {
+                statistics.incrementNumberOfIsbnCacheHits();
+                persistedKeysByIsbn.put(isbn, cachedKeys.get());
+                cachedIsbns.add(isbn);
+            } else {
+                statistics.incrementNumberOfIsbnCacheMisses();
+                persistedKeysByIsbn.put(isbn, findAndCacheBookKeys(isbn));
+            }
+        }
+        Map<Key<Book>, Book> persistedBooks = loadBooks(persistedKeysByIsbn.values());
+
+        // A cached book that is gone was merged into another one since, which the datastore has to be asked for
+        Map<String, Set<Key<Book>>> refreshedKeysByIsbn = new HashMap<>();
+        for (String isbn : cachedIsbns) {
+            if (!persistedBooks.keySet().containsAll(persistedKeysByIsbn.get(isbn))) {
+                refreshedKeysByIsbn.put(isbn, findAndCacheBookKeys(isbn));
+            }
+        }
+        if (!refreshedKeysByIsbn.isEmpty()) {
+            persistedKeysByIsbn.putAll(refreshedKeysByIsbn);
+            persistedBooks = new HashMap<>(persistedBooks);
+            persistedBooks.putAll(loadBooks(refreshedKeysByIsbn.values()));
+        }
+
+        // The offers need their ids before the books can reference them
+        savedOffers.now();
+
+        List<Book> booksToSave = new ArrayList<>();
+        Map<String, Book> savedBookByIsbn = new HashMap<>();
+        List<Key<Book>> keysToDelete = new ArrayList<>();
+        for (Set<String> isbns : groupByPersistedBook(bookOffersByIsbn.keySet(), persistedKeysByIsbn, persistedBooks.keySet())) {
+            Book addition = mergeAdditions(isbns.stream()
+                    .flatMap(isbn -> bookOffersByIsbn.get(isbn).stream())
+                    .collect(Collectors.toList()));
+
+            List<Book> persistedWithIsbn = isbns.stream()
+                    .flatMap(isbn -> persistedKeysByIsbn.get(isbn).stream())
+                    .distinct()
+                    .map(persistedBooks::get)
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList());
+
+            Book bookToPersist;
+            if (persistedWithIsbn.isEmpty()) {
+                bookToPersist = addition;
+                LOGGER.info("Saving new {} to db.", addition);
+            } else {
+                bookToPersist = Book.merge(persistedWithIsbn.stream().reduce(Book::merge).get(), addition);
+
+                persistedWithIsbn.stream()
+                        .filter(persisted -> !persisted.getId().equals(bookToPersist.getId()))
+                        .map(Key::create)
+                        .forEach(keysToDelete::add);
+                LOGGER.info("Updating book to {} in db.", bookToPersist);
+            }
+            booksToSave.add(bookToPersist);
+            isbns.forEach(isbn -> savedBookByIsbn.put(isbn, bookToPersist));
+        }
+
+        Result<Void> deletion = keysToDelete.isEmpty() ? null : ofy().delete().keys(keysToDelete);
+        ofy().save().entities(booksToSave).now();
+        if (deletion != null) {
+            deletion.now();
+        }
+
+        // Every isbn of the batch now has exactly one book, which also drops the deleted ones from the cache
+        savedBookByIsbn.forEach((isbn, book) -> BookKeyCache.instance.putPersisted(isbn, Key.create(book)));
+    }
+
+    /**
+     * Groups the isbns of the batch that resolve to a common persisted book, so that the book is merged and saved
+     * once rather than once per isbn, with the later save undoing the earlier one.
+     * @return The groups, in the order of their first isbn.
+     */
+    private static Collection<Set<String>> groupByPersistedBook(Collection<String> isbns,
+                                                               Map<String, Set<Key<Book>>> persistedKeysByIsbn,
+                                                               Set<Key<Book>> existingKeys) {
+        Map<String, Set<String>> groupByIsbn = new LinkedHashMap<>();
+        Map<Key<Book>, Set<String>> groupByKey = new HashMap<>();
+        for (String isbn : isbns) {
+            Set<String> group = new LinkedHashSet<>();
+            group.add(isbn);
+            for (Key<Book> key : persistedKeysByIsbn.get(isbn)) {
+                Set<String> sharingGroup = groupByKey.get(key);
+                if (sharingGroup != null && existingKeys.contains(key)) {
+                    group.addAll(sharingGroup);
+                }
+            }
+
+            for (String member : group) {
+                groupByIsbn.put(member, group);
+                persistedKeysByIsbn.get(member).forEach(key -> groupByKey.put(key, group));
+            }
+        }
+        return new LinkedHashSet<>(groupByIsbn.values());
+    }
+
+    private Map<Key<Book>, Book> loadBooks(Collection<Set<Key<Book>>> keyGroups) {
+        Set<Key<Book>> keys = new LinkedHashSet<>();
+        keyGroups.forEach(keys::addAll);
+        return keys.isEmpty() ? Collections.emptyMap() : ofy().load().keys(keys);
+    }
+
+    private Set<Key<Book>> findAndCacheBookKeys(String isbn) {
+        Set<Key<Book>> keys = findBookKeysByIsbn(isbn);
+        BookKeyCache.instance.put(isbn, keys);
+        return keys;
+    }
+
+    /**
+     * Folds the books of the batch sharing an isbn into one, each pointing to its own offer.
+     */
+    private Book mergeAdditions(List<BookOffer> bookOffers) {
+        Book addition = null;
+        for (BookOffer bookOffer : bookOffers) {
+            Book book = bookOffer.getBook();
+            book.setBestCurrentOffer(bookOffer.getOffer());
+            book.getPricepoints().add(Key.create(bookOffer.getOffer()));
+
+            addition = (addition == null) ? book : Book.merge(addition, book);
+        }
+        return addition;
+    }
+
+    /**
+     * @return The keys of the books stored under any form of the isbn, found with a single query.
+     * @see Isbns#storedForms(String)
+     */
+    private Set<Key<Book>> findBookKeysByIsbn(String isbn) {
+        return new LinkedHashSet<>(ofy().load().type(Book.class)
+                .filter("isbn in", Isbns.storedForms(isbn))
+                .keys().list());
+    }
+
+    static class BookOffer {
+        private final Book book;
+        private final PricePoint offer;
+        private final Runnable onPersisted;
+
+        /**
+         * @param onPersisted Called once the pair has been written.
+         */
+        BookOffer(Book book, PricePoint offer, Runnable onPersisted) {
+            Preconditions.checkNotNull(book);
+            Preconditions.checkNotNull(book.getIsbn());
+            Preconditions.checkNotNull(offer);
+            Preconditions.checkNotNull(onPersisted);
+
+            this.book = book;
+            this.offer = offer;
+            this.onPersisted = onPersisted;
+        }
+
+        Book getBook() {
+            return book;
+        }
+
+        PricePoint getOffer() {
+            return offer;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package me.mircea.licenta.scraper;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
+import me.mircea.licenta.products.db.ObjectifyBootstrapper;
+import me.mircea.licenta.products.db.model.Book;
+import me.mircea.licenta.products.db.model.PricePoint;
+import me.mircea.licenta.scraper.BookOfferWriter.BookOffer;
+import me.mircea.licenta.scraper.fetch.FetchedPage;
+import me.mircea.licenta.scraper.fetch.ReplayPageFetcher;
+import me.mircea.licenta.scraper.infoextraction.ProductExtractor;
+import org.jsoup.nodes.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Extracts the books of a shop again from pages saved earlier, without downloading anything, so that improvements
+ * to the extractors can be backfilled into the catalog. The pages are read either from an archive recorded by a job
+ * or from a directory of html files, and are extracted in parallel. The book-offer pairs found are persisted in
+ * batches, the same way as those of a job.
+ */
+public class BulkReextractor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BulkReextractor.class);
+    private static final int BOOK_OFFER_BATCH_SIZE = 200;
+    private static final long BOOK_OFFER_FLUSH_INTERVAL = 5_000;
+
+    private final String domain;
+    private final ProductExtractor extractor;
+    private final int parallelism;
+    private final ScraperStatistics statistics;
+    private final AtomicInteger noPagesExtracted;
+    private final AtomicInteger noPagesFailed;
+
+    /**
+     * @param domain      The shop the pages were saved from, which decides how they are extracted.
+     * @param parallelism The number of pages extracted at once.
+     */
+    public BulkReextractor(String domain, int parallelism) {
+        this(domain, Scraper.chooseStrategy(domain), parallelism);
+    }
+
+    /**
+     * @param extractor How the pages are extracted, instead of the strategy chosen for the domain.
+     */
+    public BulkReextractor(String domain, ProductExtractor extractor, int parallelism) {
+        Preconditions.checkNotNull(domain);
+        Preconditions.checkNotNull(extractor);
+        Preconditions.checkArgument(parallelism > 0);
+
+        this.domain = domain;
+        this.extractor = extractor;
+        this.parallelism = parallelism;
+        this.statistics = new ScraperStatistics(domain);
+        this.noPagesExtracted = new AtomicInteger(0);
+        this.noPagesFailed = new AtomicInteger(0);
+    }
+
+    /**
+     * @param directory Either the archive of a job recorded on this domain, or a directory holding html files.
+     */
+    public void reextract(Path directory) throws IOException, InterruptedException {
+        Preconditions.checkNotNull(directory);
+
+        Stopwatch timer = Stopwatch.createStarted();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try (BookOfferWriter bookOfferWriter = new BookOfferWriter(BOOK_OFFER_BATCH_SIZE, BOOK_OFFER_FLUSH_INTERVAL, statistics);
+             ReplayPageFetcher archive = new ReplayPageFetcher(directory)) {
+            if (!archive.getArchivedUrls().isEmpty()) {
+                pool.submit(() -> archive.getArchivedUrls().parallelStream()
+                        .forEach(url -> reextract(archive.read(url), bookOfferWriter)))
+                        .get();
+            } else {
+                List<Path> htmlFiles = findHtmlFiles(directory);
+                LOGGER.info("Re-extracting {} html files from {}", htmlFiles.size(), directory);
+                pool.submit(() -> htmlFiles.parallelStream()
+                        .forEach(htmlFile -> reextract(readHtmlFile(htmlFile), bookOfferWriter)))
+                        .get();
+            }
+        } catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        logThroughput(timer.elapsed());
+        statistics.logStatistics();
+    }
+
+    private void reextract(FetchedPage savedPage, BookOfferWriter bookOfferWriter) {
+        if (savedPage == null || !savedPage.isSuccessful()) {
+            return;
+        }
+
+        try {
+            SimpleImmutableEntry<Book, PricePoint> bookOfferPair = extract(savedPage);
+            if (Scraper.hasValidBookOfferPair(bookOfferPair)) {
+                statistics.incrementNumberOfPagesProductOfferPairsFound();
+                bookOfferWriter.add(new BookOffer(bookOfferPair.getKey(), bookOfferPair.getValue(), () -> {
+                }));
+            }
+            noPagesExtracted.getAndIncrement();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Could not extract saved page {}: {}", savedPage.getUrl(), e);
+            noPagesFailed.getAndIncrement();
+        }
+    }
+
+    /**
+     * The offer found is dated when the page was saved rather than now, so that a page older than the latest offer
+     * of its book does not replace it as the current one.
+     * @return The book-offer pair found on the saved page.
+     */
+    public SimpleImmutableEntry<Book, PricePoint> extract(FetchedPage savedPage) throws IOException {
+        Preconditions.checkNotNull(savedPage);
+
+        Document document = Scraper.parseDocument(savedPage);
+        SimpleImmutableEntry<Book, PricePoint> bookOfferPair = Scraper.extractBookOffer(extractor, document);
+        if (bookOfferPair.getValue() != null) {
+            bookOfferPair.getValue().setRetrievedTime(savedPage.getRetrievedTime());
+        }
+        return bookOfferPair;
+    }
+
+    private static List<Path> findHtmlFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(file -> {
+                        String name = file.getFileName().toString().toLowerCase();
+                        return name.endsWith(".html") || name.endsWith(".htm");
+                    })
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * @return The file as if it had just been downloaded from its own location, with its charset detected from the body.
+     */
+    private static FetchedPage readHtmlFile(Path htmlFile) {
+        try {
+            return new FetchedPage(htmlFile.toUri().toString(),
+                    200,
+                    Collections.emptyMap(),
+                    Files.readAllBytes(htmlFile),
+                    null,
+                    Files.getLastModifiedTime(htmlFile).toInstant());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void logThroughput(Duration duration) {
+        double seconds = Math.max(duration.toMillis(), 1) / 1000.0;
+        double pagesPerSecond = noPagesExtracted.get() / seconds;
+
+        LOGGER.info("Domain {}, number of saved pages re-extracted: {}", domain, noPagesExtracted);
+        LOGGER.info("Domain {}, number of saved pages which could not be re-extracted: {}", domain, noPagesFailed);
+        LOGGER.info("Domain {}, total re-extraction time: {}", domain, duration);
+        LOGGER.info("Domain {}, pages re-extracted per second: {}, per worker: {}", domain,
+                String.format("%.1f", pagesPerSecond), String.format("%.1f", pagesPerSecond / parallelism));
+    }
+
+    /**
+     * Usage: BulkReextractor domain directory [parallelism]
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.err.println("Usage: BulkReextractor <domain> <directory> [parallelism]");
+            System.exit(1);
+        }
+
+        int parallelism = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        ObjectifyBootstrapper.init();
+        ScraperObjectifyBootstrapper.init();
+        LOGGER.info("Re-extracting pages of {} from {} at {}", args[0], args[1], Instant.now());
+        new BulkReextractor(args[0], parallelism).reextract(Paths.get(args[1]));
+    }
+}
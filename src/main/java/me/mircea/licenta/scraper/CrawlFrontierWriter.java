@@ -0,0 +1,54 @@
+package me.mircea.licenta.scraper;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import me.mircea.licenta.core.crawl.db.CrawlDatabaseManager;
+import me.mircea.licenta.core.crawl.db.model.Page;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Write-behind buffer for the pages processed by a job. Pages are grouped and written to the crawl database
+ * in batches, off the extraction workers. A later update of the same url replaces the pending one.
+ * The crawl database is only written a page at a time, so a page that cannot be written does not hold back the
+ * rest of its batch.
+ */
+class CrawlFrontierWriter extends WriteBehindBuffer<Page> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CrawlFrontierWriter.class);
+
+    private final ScraperStatistics statistics;
+
+    CrawlFrontierWriter(int batchSize, long flushInterval, ScraperStatistics statistics) {
+        super(batchSize, flushInterval, Page::getUrl);
+        Preconditions.checkNotNull(statistics);
+        this.statistics = statistics;
+    }
+
+    /**
+     * @return A writer which drops the pages it is given, for jobs that must leave the crawl frontier as it is.
+     */
+    static CrawlFrontierWriter discarding(ScraperStatistics statistics) {
+        return new CrawlFrontierWriter(1, 1, statistics) {
+            @Override
+            void add(Page page) {
+            }
+        };
+    }
+
+    @Override
+    protected void write(List<Page> batch) {
+        Stopwatch flushTimer = Stopwatch.createStarted();
+        for (Page page : batch) {
+            try {
+                CrawlDatabaseManager.instance.upsertOnePage(page);
+            } catch (RuntimeException e) {
+                // The page keeps its earlier state in the frontier, so it is visited again
+                LOGGER.error("Could not write page {} to the crawl frontier: {}", page.getUrl(), e);
+            }
+        }
+        statistics.addCrawlPersistenceDuration(flushTimer.elapsed());
+        statistics.incrementNumberOfCrawlFrontierFlushes();
+    }
+}
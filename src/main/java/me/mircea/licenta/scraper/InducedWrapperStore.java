@@ -0,0 +1,51 @@
+package me.mircea.licenta.scraper;
+
+import com.google.common.base.Preconditions;
+import com.googlecode.objectify.ObjectifyService;
+import me.mircea.licenta.scraper.infoextraction.InducedWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Map;
+
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+/**
+ * Wrappers induced by the jobs, by domain. Failing to read or write them only costs the next job on the domain
+ * an induction, so errors are logged rather than thrown.
+ */
+final class InducedWrapperStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(InducedWrapperStore.class);
+
+    static final InducedWrapperStore instance = new InducedWrapperStore();
+
+    private InducedWrapperStore() {
+    }
+
+    /**
+     * @return The queries of the wrapper last induced for the domain, or no queries if none was.
+     */
+    Map<String, String> load(String domain) {
+        Preconditions.checkNotNull(domain);
+        try {
+            InducedWrapper wrapper = ObjectifyService.run(() -> ofy().load().type(InducedWrapper.class).id(domain).now());
+            return (wrapper != null) ? wrapper.getQueries() : Collections.emptyMap();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Could not load the induced wrapper of domain {}: {}", domain, e);
+            return Collections.emptyMap();
+        }
+    }
+
+    void save(String domain, Map<String, String> queries) {
+        Preconditions.checkNotNull(domain);
+        Preconditions.checkNotNull(queries);
+        try {
+            InducedWrapper wrapper = new InducedWrapper(domain, queries, Instant.now());
+            ObjectifyService.run(() -> ofy().save().entity(wrapper).now());
+        } catch (RuntimeException e) {
+            LOGGER.error("Could not save the induced wrapper of domain {}: {}", domain, e);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package me.mircea.licenta.scraper;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.googlecode.objectify.ObjectifyService;
+import me.mircea.licenta.scraper.fetch.PageFingerprint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+/**
+ * Fingerprints of the pages extracted by a job. They are looked up a batch of pages at a time, ahead of the
+ * downloads, and written behind once the pages they belong to are fully processed.
+ */
+class PageFingerprintStore extends WriteBehindBuffer<PageFingerprint> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PageFingerprintStore.class);
+
+    private final ScraperStatistics statistics;
+
+    PageFingerprintStore(int batchSize, long flushInterval, ScraperStatistics statistics) {
+        super(batchSize, flushInterval, PageFingerprint::getUrl);
+        Preconditions.checkNotNull(statistics);
+        this.statistics = statistics;
+    }
+
+    /**
+     * @return A store which drops the fingerprints it is given, for jobs that must leave the next jobs unaffected.
+     */
+    static PageFingerprintStore discarding(ScraperStatistics statistics) {
+        return new PageFingerprintStore(1, 1, statistics) {
+            @Override
+            void add(PageFingerprint fingerprint) {
+            }
+        };
+    }
+
+    /**
+     * @return The fingerprints found for the urls, by url. Urls without one are missing from the map.
+     */
+    Map<String, PageFingerprint> load(Collection<String> urls) {
+        Preconditions.checkNotNull(urls);
+        if (urls.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        try {
+            return ObjectifyService.run(() -> ofy().load().type(PageFingerprint.class).ids(urls));
+        } catch (RuntimeException e) {
+            LOGGER.error("Could not load the fingerprints of {} pages, downloading them unconditionally: {}", urls.size(), e);
+            return Collections.emptyMap();
+        }
+    }
+
+    @Override
+    protected void write(List<PageFingerprint> batch) {
+        Stopwatch flushTimer = Stopwatch.createStarted();
+        try {
+            ObjectifyService.run(() -> ofy().save().entities(batch).now());
+        } catch (RuntimeException e) {
+            LOGGER.error("Could not save {} page fingerprints: {}", batch.size(), e);
+        }
+        statistics.addCrawlPersistenceDuration(flushTimer.elapsed());
+    }
+}
@@ -0,0 +1,376 @@
+package me.mircea.licenta.scraper;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+import me.mircea.licenta.core.crawl.db.model.Page;
+import me.mircea.licenta.scraper.fetch.FetchedPage;
+import me.mircea.licenta.scraper.fetch.PageFingerprint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Hand-off between the downloads and the extraction workers of a job, bounded in memory.
+ * Once the bodies held in memory go over their budget, further bodies are compressed and appended to segment files
+ * on local disk, and are read back when a worker takes them. Once the spilled bodies go over their own budget as
+ * well, the queue reports itself as full so that the downloads of the job are held back.
+ * A page is queued as its raw body with only the headers read after the download, and its tree is only built by
+ * the worker taking it, so that the memory of the queue scales with the bytes of the pages rather than their trees.
+ */
+class PageQueue implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PageQueue.class);
+    private static final long SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * Marker taken by a worker once there is nothing left to extract.
+     */
+    static final Map.Entry<Page, FetchedPage> END_OF_QUEUE = new SimpleImmutableEntry<>(null, null);
+
+    private final BlockingQueue<QueuedPage> queue;
+    private final long maxBytesInMemory;
+    private final long maxSpilledBytes;
+    private final int maxQueuedPages;
+    private final long segmentSize;
+    private final ScraperStatistics statistics;
+
+    private final AtomicLong bytesInMemory;
+    private final AtomicLong spilledBytes;
+    private final List<Segment> segments;
+    private Path spillDirectory;
+    private Segment currentSegment;
+    private int segmentCount;
+
+    PageQueue(long maxBytesInMemory, long maxSpilledBytes, int maxQueuedPages, ScraperStatistics statistics) {
+        this(maxBytesInMemory, maxSpilledBytes, maxQueuedPages, SEGMENT_SIZE, statistics);
+    }
+
+    /**
+     * @param segmentSize The size after which a segment file is sealed and the next spilled bodies go to a new one.
+     */
+    PageQueue(long maxBytesInMemory, long maxSpilledBytes, int maxQueuedPages, long segmentSize, ScraperStatistics statistics) {
+        Preconditions.checkArgument(maxBytesInMemory > 0);
+        Preconditions.checkArgument(maxSpilledBytes >= 0);
+        Preconditions.checkArgument(maxQueuedPages > 0);
+        Preconditions.checkArgument(segmentSize > 0);
+        Preconditions.checkNotNull(statistics);
+
+        this.queue = new LinkedBlockingQueue<>();
+        this.maxBytesInMemory = maxBytesInMemory;
+        this.maxSpilledBytes = maxSpilledBytes;
+        this.maxQueuedPages = maxQueuedPages;
+        this.segmentSize = segmentSize;
+        this.statistics = statistics;
+        this.bytesInMemory = new AtomicLong(0);
+        this.spilledBytes = new AtomicLong(0);
+        this.segments = new ArrayList<>();
+    }
+
+    /**
+     * @param fetchedPage The downloaded page, or null if the page could not be reached.
+     */
+    void put(Page page, FetchedPage fetchedPage) {
+        Preconditions.checkNotNull(page);
+
+        QueuedPage queuedPage;
+        if (fetchedPage == null) {
+            queuedPage = new QueuedPage(page, null, null);
+        } else if (tryReserveMemory(fetchedPage.getBody().length)) {
+            queuedPage = new QueuedPage(page, compact(fetchedPage), null);
+        } else {
+            queuedPage = spill(page, fetchedPage);
+        }
+
+        queue.add(queuedPage);
+        statistics.recordQueueDepth(queue.size());
+    }
+
+    void putEndOfQueue() {
+        queue.add(QueuedPage.END);
+    }
+
+    /**
+     * Blocks until a page is available, reading it back from disk if it was spilled.
+     * @return The page with its download, or {@link #END_OF_QUEUE}.
+     */
+    Map.Entry<Page, FetchedPage> take() throws InterruptedException {
+        QueuedPage queuedPage = queue.take();
+        if (queuedPage == QueuedPage.END) {
+            return END_OF_QUEUE;
+        }
+
+        FetchedPage fetchedPage = queuedPage.fetchedPage;
+        if (queuedPage.spilledPage != null) {
+            fetchedPage = unspill(queuedPage.page, queuedPage.spilledPage);
+        } else if (fetchedPage != null) {
+            bytesInMemory.addAndGet(-fetchedPage.getBody().length);
+        }
+
+        return new SimpleImmutableEntry<>(queuedPage.page, fetchedPage);
+    }
+
+    /**
+     * Counts the bytes of a body against the memory budget, unless they would go over it. Concurrent downloads
+     * check and count the bytes as one step, so that together they cannot go over the budget either.
+     * @return True if the bytes were counted.
+     */
+    private boolean tryReserveMemory(long length) {
+        long reservedBytes;
+        do {
+            reservedBytes = bytesInMemory.get();
+            if (reservedBytes + length > maxBytesInMemory) {
+                return false;
+            }
+        } while (!bytesInMemory.compareAndSet(reservedBytes, reservedBytes + length));
+        return true;
+    }
+
+    /**
+     * @return True if the downloads feeding this queue should wait for the workers to catch up.
+     */
+    boolean isFull() {
+        return queue.size() >= maxQueuedPages || spilledBytes.get() >= maxSpilledBytes;
+    }
+
+    int size() {
+        return queue.size();
+    }
+
+    /**
+     * @return The bytes of the bodies queued in memory rather than on disk.
+     */
+    long getBytesInMemory() {
+        return bytesInMemory.get();
+    }
+
+    /**
+     * @return The page without the headers that were only needed by the download, sharing the same body.
+     */
+    private static FetchedPage compact(FetchedPage fetchedPage) {
+        return new FetchedPage(fetchedPage.getUrl(), fetchedPage.getStatusCode(),
+                PageFingerprint.retainValidators(fetchedPage.getHeaders()), fetchedPage.getBody(),
+                fetchedPage.getCharset(), fetchedPage.getRetrievedTime());
+    }
+
+    private QueuedPage spill(Page page, FetchedPage fetchedPage) {
+        try {
+            SpilledPage spilledPage = appendToSegment(compress(fetchedPage.getBody()), fetchedPage);
+            statistics.addSpilledPage(spilledPage.length);
+            return new QueuedPage(page, null, spilledPage);
+        } catch (IOException e) {
+            LOGGER.warn("Could not spill {} to disk, keeping it in memory: {}", fetchedPage.getUrl(), e);
+            bytesInMemory.addAndGet(fetchedPage.getBody().length);
+            return new QueuedPage(page, compact(fetchedPage), null);
+        }
+    }
+
+    private synchronized SpilledPage appendToSegment(byte[] compressedBody, FetchedPage fetchedPage) throws IOException {
+        if (currentSegment == null || currentSegment.size >= segmentSize) {
+            if (currentSegment != null) {
+                currentSegment.seal();
+            }
+            if (spillDirectory == null) {
+                spillDirectory = Files.createTempDirectory("scraper-spill-");
+            }
+            currentSegment = new Segment(spillDirectory.resolve("segment-" + segmentCount++ + ".gz"));
+            segments.add(currentSegment);
+        }
+
+        long offset = currentSegment.append(compressedBody);
+        spilledBytes.addAndGet(compressedBody.length);
+        return new SpilledPage(currentSegment, offset, compressedBody.length, fetchedPage);
+    }
+
+    private FetchedPage unspill(Page page, SpilledPage spilledPage) {
+        try {
+            byte[] body = decompress(spilledPage.segment.read(spilledPage.offset, spilledPage.length), spilledPage.bodyLength);
+            return new FetchedPage(spilledPage.url, spilledPage.statusCode, spilledPage.headers, body,
+                    spilledPage.charset, spilledPage.retrievedTime);
+        } catch (IOException e) {
+            LOGGER.warn("Could not read spilled page {} back from disk: {}", page.getUrl(), e);
+            return null;
+        } finally {
+            spilledBytes.addAndGet(-spilledPage.length);
+            spilledPage.segment.release();
+        }
+    }
+
+    private static byte[] compress(byte[] body) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4 + 64);
+        try (OutputStream output = new GZIPOutputStream(compressed)) {
+            output.write(body);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Reads the body straight into an array of its own size, instead of growing buffers to be copied from.
+     */
+    private static byte[] decompress(byte[] compressedBody, int bodyLength) throws IOException {
+        byte[] body = new byte[bodyLength];
+        try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(compressedBody))) {
+            ByteStreams.readFully(input, body);
+        }
+        return body;
+    }
+
+    /**
+     * Closes and deletes every segment spilled to disk, including the sealed ones whose bodies were never read
+     * back. Pages still in the queue are lost.
+     */
+    @Override
+    public synchronized void close() {
+        queue.clear();
+        for (Segment segment : segments) {
+            segment.delete();
+        }
+        segments.clear();
+        currentSegment = null;
+        if (spillDirectory != null) {
+            try (Stream<Path> leftovers = Files.list(spillDirectory)) {
+                leftovers.forEach(PageQueue::deleteQuietly);
+            } catch (IOException e) {
+                LOGGER.warn("Could not list spill directory {}: {}", spillDirectory, e);
+            }
+            deleteQuietly(spillDirectory);
+            spillDirectory = null;
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            LOGGER.warn("Could not delete {}: {}", path, e);
+        }
+    }
+
+    private static final class QueuedPage {
+        private static final QueuedPage END = new QueuedPage(null, null, null);
+
+        private final Page page;
+        private final FetchedPage fetchedPage;
+        private final SpilledPage spilledPage;
+
+        private QueuedPage(Page page, FetchedPage fetchedPage, SpilledPage spilledPage) {
+            this.page = page;
+            this.fetchedPage = fetchedPage;
+            this.spilledPage = spilledPage;
+        }
+    }
+
+    /**
+     * Location of a compressed body on disk. The rest of the response is small and stays in memory.
+     */
+    private static final class SpilledPage {
+        private final Segment segment;
+        private final long offset;
+        private final int length;
+        private final int bodyLength;
+
+        private final String url;
+        private final int statusCode;
+        private final Map<String, String> headers;
+        private final String charset;
+        private final Instant retrievedTime;
+
+        private SpilledPage(Segment segment, long offset, int length, FetchedPage fetchedPage) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.bodyLength = fetchedPage.getBody().length;
+
+            this.url = fetchedPage.getUrl();
+            this.statusCode = fetchedPage.getStatusCode();
+            this.headers = PageFingerprint.retainValidators(fetchedPage.getHeaders());
+            this.charset = fetchedPage.getCharset();
+            this.retrievedTime = fetchedPage.getRetrievedTime();
+        }
+    }
+
+    /**
+     * Append-only file of compressed bodies, deleted once it is sealed and every body in it has been read back.
+     */
+    private static final class Segment {
+        private final Path path;
+        private final FileChannel channel;
+        private long size;
+        private int unreadPages;
+        private boolean sealed;
+        private boolean deleted;
+
+        private Segment(Path path) throws IOException {
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        private synchronized long append(byte[] data) throws IOException {
+            long offset = size;
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, offset + buffer.position());
+            }
+            size += data.length;
+            ++unreadPages;
+            return offset;
+        }
+
+        private byte[] read(long offset, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of segment " + path);
+                }
+            }
+            return buffer.array();
+        }
+
+        private synchronized void release() {
+            --unreadPages;
+            if (sealed && unreadPages == 0) {
+                delete();
+            }
+        }
+
+        private synchronized void seal() {
+            sealed = true;
+            if (unreadPages == 0) {
+                delete();
+            }
+        }
+
+        private synchronized void delete() {
+            if (deleted) {
+                return;
+            }
+            deleted = true;
+
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.warn("Could not close segment {}: {}", path, e);
+            }
+            deleteQuietly(path);
+        }
+    }
+}
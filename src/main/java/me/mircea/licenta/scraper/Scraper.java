@@ -1,271 +1,668 @@
 package me.mircea.licenta.scraper;
 
 import com.google.common.base.Preconditions;
-import com.googlecode.objectify.Key;
-import com.googlecode.objectify.ObjectifyService;
-import com.googlecode.objectify.cmd.LoadType;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.collect.Iterators;
 import me.mircea.licenta.core.crawl.db.CrawlDatabaseManager;
-import me.mircea.licenta.core.crawl.db.RobotDefaults;
 import me.mircea.licenta.core.crawl.db.model.*;
 import me.mircea.licenta.core.parser.utils.HtmlUtil;
 import me.mircea.licenta.products.db.model.Book;
 import me.mircea.licenta.products.db.model.PricePoint;
+import me.mircea.licenta.products.db.model.Product;
+import me.mircea.licenta.scraper.BookOfferWriter.BookOffer;
+import me.mircea.licenta.scraper.fetch.AsyncPageFetcher;
+import me.mircea.licenta.scraper.fetch.FetchScheduler;
+import me.mircea.licenta.scraper.fetch.FetchScheduler.ScheduledFetch;
+import me.mircea.licenta.scraper.fetch.FetchSource;
+import me.mircea.licenta.scraper.fetch.FetchedPage;
+import me.mircea.licenta.scraper.fetch.PageFetcher;
+import me.mircea.licenta.scraper.fetch.PageFingerprint;
+import me.mircea.licenta.scraper.infoextraction.AdaptiveProductExtractor;
+import me.mircea.licenta.scraper.infoextraction.ExtractionBudget;
 import me.mircea.licenta.scraper.infoextraction.HeuristicalBookExtractor;
 import me.mircea.licenta.scraper.infoextraction.ProductExtractor;
+import me.mircea.licenta.scraper.infoextraction.SemanticBookExtractor;
+import me.mircea.licenta.scraper.infoextraction.ShelfExtractor;
 import me.mircea.licenta.scraper.infoextraction.WrapperBookExtractor;
+import me.mircea.licenta.scraper.infoextraction.WrapperInducingExtractor;
+import me.mircea.licenta.scraper.utils.FieldSanitizer;
+import me.mircea.licenta.scraper.utils.LeanHtmlParser;
 import org.bson.types.ObjectId;
-import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.SocketTimeoutException;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import static com.googlecode.objectify.ObjectifyService.ofy;
 import static java.util.AbstractMap.SimpleImmutableEntry;
 
 /**
- * This class is used to extract books from product description pages.
+ * This class is used to extract books from product description pages. Listing pages, such as category grids, also
+ * refresh the offers of the books they show whose isbn is known, so that their product pages need not be
+ * downloaded again in the same job.
  */
 public class Scraper implements Runnable {
     private static final Logger LOGGER = LoggerFactory.getLogger(Scraper.class);
     private static final int MAX_PAGE_DOWNLOAD_TRIES = 2;
+    public static final int DEFAULT_NUMBER_OF_WORKERS = Runtime.getRuntime().availableProcessors();
+    /**
+     * The number of jobs meant to run at once, for which the workers are sized. Further jobs should wait for a
+     * running one to finish.
+     */
+    public static final int MAX_CONCURRENT_JOBS = 4;
+    /**
+     * The workers of every job run on this pool, so that the number of threads stays the same however many jobs
+     * there are. A job whose workers do not all get a thread starts its other ones as the jobs before it finish.
+     */
+    private static final ExecutorService WORKER_POOL = Executors.newFixedThreadPool(
+            MAX_CONCURRENT_JOBS * DEFAULT_NUMBER_OF_WORKERS, new ThreadFactoryBuilder().setNameFormat("scraper-worker-%d").setDaemon(true).build());
+    private static final long MAX_QUEUED_BYTES_IN_MEMORY = 64L * 1024 * 1024;
+    private static final long MAX_SPILLED_BYTES = 1024L * 1024 * 1024;
+    private static final int MAX_QUEUED_PAGES = 50_000;
+    private static final int CRAWL_FRONTIER_BATCH_SIZE = 100;
+    private static final long CRAWL_FRONTIER_FLUSH_INTERVAL = 5_000;
+    private static final int BOOK_OFFER_BATCH_SIZE = 50;
+    private static final long BOOK_OFFER_FLUSH_INTERVAL = 5_000;
+    private static final int FINGERPRINT_BATCH_SIZE = 100;
+    private static final long FINGERPRINT_FLUSH_INTERVAL = 5_000;
+    private static final int MAX_PAGE_ELEMENTS = 100_000;
+    private static final int MAX_PAGE_TEXT_LENGTH = 2_000_000;
+    private static final Duration EXTRACTION_TIME_LIMIT = Duration.ofSeconds(2);
 
     private final Job job;
     private final ProductExtractor extractor;
-    private final ScheduledExecutorService downloader;
-    private final BlockingQueue<Map.Entry<Page, Document>> documentQueue;
+    private final PageFetcher fetcher;
+    private final int numberOfWorkers;
+    private final PageQueue documentQueue;
+    private final CrawlFrontierWriter crawlFrontierWriter;
+    private final BookOfferWriter bookOfferWriter;
+    private final PageFingerprintStore fingerprintStore;
+    private final ShelfOfferResolver shelfOfferResolver;
+    private final ConcurrentMap<String, PageFingerprint> knownFingerprints;
+    private final Set<String> refreshedFromShelves;
+    private final Queue<PendingDownload> retries;
+    private final AtomicInteger downloadsInFlight;
+    private final AtomicBoolean downloadFinished;
+    private volatile boolean frontierExhausted;
     private final ScraperStatistics statistics;
 
     public Scraper(String domain) throws IOException {
+        this(domain, DEFAULT_NUMBER_OF_WORKERS);
+    }
+
+    public Scraper(String domain, int numberOfWorkers) throws IOException {
+        this(domain, numberOfWorkers, AsyncPageFetcher.instance);
+    }
+
+    /**
+     * @param fetcher Where the pages come from, such as an archive of a previous job instead of the network. A job
+     *                replayed from an archive writes nothing back to the datastore.
+     */
+    public Scraper(String domain, int numberOfWorkers, PageFetcher fetcher) throws IOException {
         Preconditions.checkNotNull(domain);
+        Preconditions.checkArgument(numberOfWorkers > 0);
+        Preconditions.checkNotNull(fetcher);
 
         this.job = new Job(domain, JobType.SCRAPE);
-        this.extractor = chooseStrategy();
-
-        this.downloader = Executors.newScheduledThreadPool(1);
-        this.documentQueue = new LinkedBlockingQueue<>();
-        this.statistics = new ScraperStatistics(this.job);
+        this.extractor = chooseStrategy(this.job.getDomain(), !fetcher.isRemote());
+        this.fetcher = fetcher;
+
+        this.numberOfWorkers = numberOfWorkers;
+        this.retries = new ConcurrentLinkedQueue<>();
+        this.downloadsInFlight = new AtomicInteger(0);
+        this.downloadFinished = new AtomicBoolean(false);
+        this.statistics = new ScraperStatistics(this.job.getDomain());
+        this.documentQueue = new PageQueue(MAX_QUEUED_BYTES_IN_MEMORY, MAX_SPILLED_BYTES, MAX_QUEUED_PAGES, this.statistics);
+        if (fetcher.isRemote()) {
+            this.crawlFrontierWriter = new CrawlFrontierWriter(CRAWL_FRONTIER_BATCH_SIZE, CRAWL_FRONTIER_FLUSH_INTERVAL,
+                    this.statistics);
+            this.bookOfferWriter = new BookOfferWriter(BOOK_OFFER_BATCH_SIZE, BOOK_OFFER_FLUSH_INTERVAL, this.statistics);
+            this.fingerprintStore = new PageFingerprintStore(FINGERPRINT_BATCH_SIZE, FINGERPRINT_FLUSH_INTERVAL, this.statistics);
+        } else {
+            // A job replayed from an archive is a test run, which must leave the frontier and the catalog as they are
+            this.crawlFrontierWriter = CrawlFrontierWriter.discarding(this.statistics);
+            this.bookOfferWriter = BookOfferWriter.discarding(this.statistics);
+            this.fingerprintStore = PageFingerprintStore.discarding(this.statistics);
+        }
+        this.knownFingerprints = new ConcurrentHashMap<>();
+        this.refreshedFromShelves = ConcurrentHashMap.newKeySet();
+        this.shelfOfferResolver = new ShelfOfferResolver(FINGERPRINT_BATCH_SIZE, FINGERPRINT_FLUSH_INTERVAL,
+                this.fingerprintStore, this.bookOfferWriter, this.statistics, this.refreshedFromShelves::add);
     }
 
     public Scraper(String domain, ObjectId jobIdToBeContinued) throws IOException {
+        this(domain, jobIdToBeContinued, DEFAULT_NUMBER_OF_WORKERS);
+    }
+
+    public Scraper(String domain, ObjectId jobIdToBeContinued, int numberOfWorkers) throws IOException {
+        this(domain, jobIdToBeContinued, numberOfWorkers, AsyncPageFetcher.instance);
+    }
+
+    /**
+     * @param fetcher Where the pages come from, such as an archive of a previous job instead of the network. A job
+     *                replayed from an archive writes nothing back to the datastore.
+     */
+    public Scraper(String domain, ObjectId jobIdToBeContinued, int numberOfWorkers, PageFetcher fetcher) throws IOException {
         Preconditions.checkNotNull(domain);
         Preconditions.checkNotNull(jobIdToBeContinued);
+        Preconditions.checkArgument(numberOfWorkers > 0);
+        Preconditions.checkNotNull(fetcher);
 
         this.job = new Job(domain, JobType.SCRAPE, jobIdToBeContinued);
-        this.extractor = chooseStrategy();
+        this.extractor = chooseStrategy(this.job.getDomain(), !fetcher.isRemote());
+        this.fetcher = fetcher;
+
+        this.numberOfWorkers = numberOfWorkers;
+        this.retries = new ConcurrentLinkedQueue<>();
+        this.downloadsInFlight = new AtomicInteger(0);
+        this.downloadFinished = new AtomicBoolean(false);
+        this.statistics = new ScraperStatistics(this.job.getDomain());
+        this.documentQueue = new PageQueue(MAX_QUEUED_BYTES_IN_MEMORY, MAX_SPILLED_BYTES, MAX_QUEUED_PAGES, this.statistics);
+        if (fetcher.isRemote()) {
+            this.crawlFrontierWriter = new CrawlFrontierWriter(CRAWL_FRONTIER_BATCH_SIZE, CRAWL_FRONTIER_FLUSH_INTERVAL,
+                    this.statistics);
+            this.bookOfferWriter = new BookOfferWriter(BOOK_OFFER_BATCH_SIZE, BOOK_OFFER_FLUSH_INTERVAL, this.statistics);
+            this.fingerprintStore = new PageFingerprintStore(FINGERPRINT_BATCH_SIZE, FINGERPRINT_FLUSH_INTERVAL, this.statistics);
+        } else {
+            // A job replayed from an archive is a test run, which must leave the frontier and the catalog as they are
+            this.crawlFrontierWriter = CrawlFrontierWriter.discarding(this.statistics);
+            this.bookOfferWriter = BookOfferWriter.discarding(this.statistics);
+            this.fingerprintStore = PageFingerprintStore.discarding(this.statistics);
+        }
+        this.knownFingerprints = new ConcurrentHashMap<>();
+        this.refreshedFromShelves = ConcurrentHashMap.newKeySet();
+        this.shelfOfferResolver = new ShelfOfferResolver(FINGERPRINT_BATCH_SIZE, FINGERPRINT_FLUSH_INTERVAL,
+                this.fingerprintStore, this.bookOfferWriter, this.statistics, this.refreshedFromShelves::add);
+    }
 
-        this.downloader = Executors.newScheduledThreadPool(1);
-        this.documentQueue = new LinkedBlockingQueue<>();
-        this.statistics = new ScraperStatistics(this.job);
+    /**
+     * Pages are extracted from their structured data alone, by the wrapper of the domain or, without one, by
+     * heuristics until a wrapper is induced from them or the one induced by an earlier job is confirmed, whichever is
+     * the cheapest to find about as many offers as the others on the pages of the domain. The wrapper and the
+     * heuristics also read the structured data first, where there is any.
+     */
+    static ProductExtractor chooseStrategy(String domain) {
+        return chooseStrategy(domain, false);
     }
 
-    private ProductExtractor chooseStrategy() {
-        Optional<Wrapper> possibleWrapper = CrawlDatabaseManager.instance.getWrapperForDomain(this.job.getDomain());
+    /**
+     * @param isDryRun True if the wrapper induced by the job is not to be kept for the next jobs on the domain.
+     */
+    static ProductExtractor chooseStrategy(String domain, boolean isDryRun) {
+        Map<String, ProductExtractor> strategies = new LinkedHashMap<>();
+        strategies.put("structured data", SemanticBookExtractor.withoutFallback());
+
+        Optional<Wrapper> possibleWrapper = CrawlDatabaseManager.instance.getWrapperForDomain(domain);
         if (possibleWrapper.isPresent()) {
-            return new WrapperBookExtractor(possibleWrapper.get());
+            strategies.put("wrapper", new SemanticBookExtractor(new WrapperBookExtractor(possibleWrapper.get())));
         } else {
-            return new HeuristicalBookExtractor();
+            WrapperInducingExtractor heuristics = new WrapperInducingExtractor(domain, HeuristicalBookExtractor.instance,
+                    Scraper::isBookOffer, InducedWrapperStore.instance.load(domain),
+                    queries -> {
+                        if (!isDryRun) {
+                            InducedWrapperStore.instance.save(domain, queries);
+                        }
+                    });
+            strategies.put("heuristics", new SemanticBookExtractor(heuristics));
         }
+        return new AdaptiveProductExtractor(domain, strategies, Scraper::isBookOffer);
     }
 
     @Override
     public void run() {
         statistics.startTotalDurationTimer();
         Iterator<Page> pageIterator = startScrapeJob();
+        boolean interrupted = false;
         try {
             scrape(pageIterator);
         } catch (InterruptedException e) {
             LOGGER.warn("Thread with job {} on domain {} interrupted: {}", this.job, this.job.getDomain(), e);
-            Thread.currentThread().interrupt();
+            interrupted = true;
         } catch (RuntimeException e) {
             LOGGER.error("Something has gone seriously wrong on job {} on domain {}: {}", this.job, this.job.getDomain(), e);
         }
+        // The pending frontier writes are flushed before restoring the interrupt, so they are not lost
         finishScrapeJob();
         statistics.stopTotalDurationTimer();
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     private void scrape(Iterator<Page> pageIterator) throws InterruptedException {
-        downloader.scheduleAtFixedRate(() -> downloadOnePage(pageIterator), 0, job.getRobotRules().getCrawlDelay(), TimeUnit.MILLISECONDS);
-
-        while (!downloader.isShutdown() || !documentQueue.isEmpty()) {
-            Map.Entry<Page, Document> documentPair = documentQueue.poll(500, TimeUnit.MILLISECONDS);
+        // Pages which do not come from the shop itself need not be paced
+        FetchScheduler scheduler = fetcher.isRemote() ? FetchScheduler.instance : FetchScheduler.unthrottled();
+        ScheduledFetch scheduledFetch = scheduler.schedule(job.getDomain(),
+                job.getRobotRules().getCrawlDelay(),
+                new FetchSource() {
+                    @Override
+                    public Optional<CompletableFuture<FetchedPage>> fetchNext() {
+                        return downloadOnePage(pageIterator);
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        return !documentQueue.isFull() && (!retries.isEmpty() || !frontierExhausted);
+                    }
+
+                    @Override
+                    public boolean isFinished() {
+                        return downloadFinished.get();
+                    }
+                });
+
+        List<Future<Void>> workerResults = new ArrayList<>();
+        for (int i = 0; i < numberOfWorkers; ++i) {
+            workerResults.add(WORKER_POOL.submit(this::extractFromQueue));
+        }
 
-            if (documentPair != null) {
-                Page page = documentPair.getKey();
-                Document doc = documentPair.getValue();
-                if (doc != null) {
-                    scrapeFromReachablePage(documentPair.getKey(), documentPair.getValue());
-                } else {
-                    page.setType(PageType.UNREACHABLE);
-                }
+        try {
+            for (Future<Void> workerResult : workerResults) {
+                workerResult.get();
+            }
+        } catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            scheduledFetch.cancel();
+            workerResults.forEach(workerResult -> workerResult.cancel(true));
+            documentQueue.close();
+        }
+    }
 
+    /**
+     * Takes downloaded pages off the queue until the end of job marker is reached. The workers count straight into
+     * the statistics of the job, so that its progress shows while it runs.
+     */
+    private Void extractFromQueue() throws InterruptedException {
+        Map.Entry<Page, FetchedPage> documentPair = documentQueue.take();
+        while (documentPair != PageQueue.END_OF_QUEUE) {
+            Page page = documentPair.getKey();
+            FetchedPage fetchedPage = documentPair.getValue();
+            if (fetchedPage != null && fetchedPage.isSuccessful()) {
+                scrapeFromReachablePage(page, fetchedPage);
+            } else {
+                page.setType(PageType.UNREACHABLE);
                 updateCrawlFrontier(page);
+            }
 
-                if (statistics.isBatchReady()) {
-                    statistics.logStatistics();
-                }
+            documentPair = documentQueue.take();
+        }
+        return null;
+    }
+
+    /**
+     * Downloads pages which failed before the next ones of the frontier, so that their retries are paced by the
+     * scheduler like any other request.
+     * @return The pending download, or empty if there is nothing to download for now.
+     */
+    private Optional<CompletableFuture<FetchedPage>> downloadOnePage(Iterator<Page> pageIterator) {
+        try {
+            PendingDownload download = retries.poll();
+            if (download == null) {
+                download = nextDownloadFromFrontier(pageIterator);
             }
+            if (download == null) {
+                finishDownloading();
+                return Optional.empty();
+            }
+
+            if (statistics.isBatchReady()) {
+                statistics.logStatistics();
+            }
+            return Optional.of(downloadDocument(download));
+        } catch (RuntimeException e) {
+            LOGGER.error("Could not advance the frontier of job {} on domain {}: {}", this.job, this.job.getDomain(), e);
+            finishDownloading();
+            return Optional.empty();
         }
     }
 
-    private void downloadOnePage(Iterator<Page> pageIterator) {
-        if (!pageIterator.hasNext()) {
-            downloader.shutdown();
-        } else {
+    /**
+     * Product pages whose offer was already refreshed from a listing page are passed over.
+     * @return The download of the next page of the frontier, or null if there are no more pages to be downloaded for this job.
+     */
+    private PendingDownload nextDownloadFromFrontier(Iterator<Page> pageIterator) {
+        while (!frontierExhausted && pageIterator.hasNext()) {
             Page page = pageIterator.next();
             if (this.job.getId().equals(page.getLastJob())) {
-                downloader.shutdown();
-            } else {
-                Optional<Document> possibleDocument = downloadDocument(page.getUrl());
-                documentQueue.add(new AbstractMap.SimpleImmutableEntry<>(page, possibleDocument.orElse(null)));
+                return null;
+            }
 
-                statistics.incrementNumberOfPagesToBeRequested();
+            PageFingerprint fingerprint = knownFingerprints.remove(page.getUrl());
+            if (refreshedFromShelves.remove(page.getUrl())) {
+                LOGGER.info("Page was refreshed from a listing page {}", page.getUrl());
+                statistics.incrementNumberOfPagesRefreshedFromShelves();
+                page.setLastJob(this.job.getId());
+                updateCrawlFrontier(page);
+                continue;
             }
+
+            statistics.incrementNumberOfPagesToBeRequested();
+            downloadsInFlight.incrementAndGet();
+            return new PendingDownload(page, fingerprint);
         }
+        return null;
+    }
+
+    private void finishDownloading() {
+        frontierExhausted = true;
+        signalEndOfJobIfDone();
     }
 
-    private Optional<Document> downloadDocument(String url) {
-        statistics.startDownloadDurationTimer();
-        Document bookPage = null;
-        for (int i = 0; i < MAX_PAGE_DOWNLOAD_TRIES; ++i) {
-
-            statistics.incrementNumberOfRequests();
-            try {
-                LOGGER.info("Retrieving {} at {}", url, Instant.now());
-                bookPage = HtmlUtil.sanitizeHtml(
-                        Jsoup.connect(url).userAgent(RobotDefaults.getUserAgent()).get());
-                break;
-            } catch (SocketTimeoutException e) {
-                LOGGER.warn("Socket timed out on {}", url);
-            } catch (IOException e) {
-                LOGGER.warn("Could not get page {}", url);
+    /**
+     * Lets every worker know that no more pages will be queued, once the frontier is exhausted and the last
+     * download has been queued.
+     */
+    private void signalEndOfJobIfDone() {
+        if (frontierExhausted && downloadsInFlight.get() == 0 && downloadFinished.compareAndSet(false, true)) {
+            for (int i = 0; i < numberOfWorkers; ++i) {
+                documentQueue.putEndOfQueue();
             }
         }
-        statistics.stopDownloadDurationTimer();
+    }
+
+    private CompletableFuture<FetchedPage> downloadDocument(PendingDownload download) {
+        String url = download.page.getUrl();
+        statistics.incrementNumberOfRequests();
+        LOGGER.info("Retrieving {} at {}", url, Instant.now());
+
+        CompletableFuture<FetchedPage> pendingFetch = fetcher.fetch(url, download.getRequestHeaders());
+        pendingFetch.whenComplete((fetchedPage, throwable) -> {
+            if (throwable != null) {
+                if (Throwables.getRootCause(throwable) instanceof SocketTimeoutException) {
+                    LOGGER.warn("Socket timed out on {}", url);
+                } else {
+                    LOGGER.warn("Could not get page {}", url);
+                }
+            }
+            finishDownload(download, fetchedPage);
+        });
+        return pendingFetch;
+    }
+
+    /**
+     * Queues a failed download for another attempt, or hands the page over to the workers.
+     * @param fetchedPage The response, or null if there was none.
+     */
+    private void finishDownload(PendingDownload download, FetchedPage fetchedPage) {
+        boolean failed = fetchedPage == null || !(fetchedPage.isSuccessful() || fetchedPage.isNotModified());
+        if (failed && download.attempt < MAX_PAGE_DOWNLOAD_TRIES) {
+            ++download.attempt;
+            statistics.incrementNumberOfRetries();
+            retries.add(download);
+            return;
+        }
+
+        statistics.addDownloadDuration(download.timer.elapsed());
         statistics.incrementNumberOfPagesReached();
+        if (!skipIfUnchanged(download.page, fetchedPage, download.fingerprint)) {
+            documentQueue.put(download.page, fetchedPage);
+        }
 
-        return Optional.ofNullable(bookPage);
+        downloadsInFlight.decrementAndGet();
+        signalEndOfJobIfDone();
     }
 
-    private void scrapeFromReachablePage(Page page, Document htmlDocument) {
-        statistics.startProcessingDurationTimer();
+    /**
+     * Pages which did not change since they were last extracted only have their retrieval recorded in the
+     * crawl frontier, without being queued for extraction.
+     * @param fingerprint The fingerprint of the page when it was last extracted, or null if it never was.
+     * @return True if the page was skipped.
+     */
+    private boolean skipIfUnchanged(Page page, FetchedPage fetchedPage, PageFingerprint fingerprint) {
+        if (fingerprint == null || fetchedPage == null) {
+            return false;
+        }
+
+        if (fetchedPage.isNotModified()) {
+            statistics.incrementNumberOfPagesNotModified();
+        } else if (fetchedPage.isSuccessful()) {
+            PageFingerprint newFingerprint = PageFingerprint.of(page.getUrl(), fetchedPage);
+            if (!fingerprint.hasSameContentAs(newFingerprint)) {
+                return false;
+            }
 
-        SimpleImmutableEntry<Book, PricePoint> bookOfferPair = extractBookOffer(htmlDocument);
+            statistics.incrementNumberOfPagesUnchanged();
+            if (!fingerprint.hasSameValidatorsAs(newFingerprint)) {
+                newFingerprint.setIsbn(fingerprint.getIsbn());
+                fingerprintStore.add(newFingerprint);
+            }
+        } else {
+            return false;
+        }
+
+        LOGGER.info("Page did not change since it was last extracted {}", page.getUrl());
+        page.setRetrievedTime(fetchedPage.getRetrievedTime());
+        page.setLastJob(this.job.getId());
+        updateCrawlFrontier(page);
+        return true;
+    }
+
+    /**
+     * Parses the raw page on the worker, so that downloads never wait on the CPU-heavy parsing. The parts of the
+     * page no extractor reads are pruned before the tree is built, and only the extracted fields are sanitised,
+     * instead of a sanitised copy being made of the whole tree.
+     */
+    static Document parseDocument(FetchedPage fetchedPage) throws IOException {
+        return LeanHtmlParser.parse(fetchedPage.getBody(), fetchedPage.getCharset(), fetchedPage.getUrl());
+    }
+
+    /**
+     * Pages too large to be parsed, or to be extracted within {@link #EXTRACTION_TIME_LIMIT}, are given up on, so
+     * that a single pathological page cannot stall its worker. The tree of the page is dropped as soon as its fields
+     * are extracted, rather than held while they are persisted.
+     */
+    private void scrapeFromReachablePage(Page page, FetchedPage fetchedPage) {
+        Stopwatch processingTimer = Stopwatch.createStarted();
+        try {
+            if (fetchedPage.getBody().length > PageFetcher.MAX_PAGE_BYTES) {
+                giveUpOverBudget(page, "Page has more than " + PageFetcher.MAX_PAGE_BYTES + " bytes");
+                return;
+            }
+
+            ExtractedPage extractedPage = extractFromPage(page, fetchedPage);
+            if (extractedPage == null) {
+                return;
+            }
+
+            // Keyed by the canonical url the page now has, which is the one the next job finds in the frontier
+            PageFingerprint fingerprint = PageFingerprint.of(page.getUrl(), fetchedPage);
+            persistExtractedPage(page, fingerprint, extractedPage);
+        } finally {
+            statistics.addProcessingDuration(processingTimer.elapsed());
+        }
+    }
+
+    /**
+     * Parses the page just in time and extracts its fields. The tree of the page does not outlive this call.
+     * @return The fields of the page, or null if the page was given up on.
+     */
+    private ExtractedPage extractFromPage(Page page, FetchedPage fetchedPage) {
+        Document htmlDocument;
+        try {
+            htmlDocument = parseDocument(fetchedPage);
+        } catch (IOException e) {
+            LOGGER.warn("Could not parse page {}: {}", page.getUrl(), e);
+            page.setType(PageType.UNREACHABLE);
+            updateCrawlFrontier(page);
+            return null;
+        }
+        if (htmlDocument.getAllElements().size() > MAX_PAGE_ELEMENTS) {
+            giveUpOverBudget(page, "Page has more than " + MAX_PAGE_ELEMENTS + " elements");
+            return null;
+        }
+
+        ExtractionBudget.start(EXTRACTION_TIME_LIMIT, MAX_PAGE_TEXT_LENGTH);
+        try {
+            return extractFromDocument(page, htmlDocument);
+        } catch (ExtractionBudget.ExceededException e) {
+            giveUpOverBudget(page, e.getMessage());
+            return null;
+        } finally {
+            ExtractionBudget.stop();
+        }
+    }
+
+    private ExtractedPage extractFromDocument(Page page, Document htmlDocument) {
+        SimpleImmutableEntry<Book, PricePoint> bookOfferPair = extractBookOffer(this.extractor, htmlDocument);
         page.setTitle(htmlDocument.title());
         page.setUrl(HtmlUtil.getCanonicalUrl(htmlDocument).orElse(page.getUrl()));
         page.setRetrievedTime(Instant.now());
         page.setLastJob(this.job.getId());
 
+        List<SimpleImmutableEntry<Book, PricePoint>> shelfOffers = Collections.emptyList();
+        if (!hasValidBook(bookOfferPair.getKey())) {
+            shelfOffers = ShelfExtractor.instance.extractShelfOffers(htmlDocument, Locale.forLanguageTag("ro-ro"));
+        }
+        return new ExtractedPage(bookOfferPair, shelfOffers);
+    }
+
+    private void persistExtractedPage(Page page, PageFingerprint fingerprint, ExtractedPage extractedPage) {
+        SimpleImmutableEntry<Book, PricePoint> bookOfferPair = extractedPage.bookOfferPair;
         if (hasValidBookOfferPair(bookOfferPair)) {
             page.setType(PageType.PRODUCT);
-            ObjectifyService.run(() -> {
-                persistBookOfferPair(bookOfferPair);
-                return null;
-            });
-        } else if (!hasValidBook(bookOfferPair.getKey())) {
-            page.setType(PageType.JUNK);
-            LOGGER.info("Page did not have a product {}", page.getUrl());
-        } else if (!hasValidOffer(bookOfferPair.getValue())) {
-            page.setType(PageType.UNAVAILABLE);
-            LOGGER.info("Page did not have an offer {}", page.getUrl());
+            statistics.incrementNumberOfPagesProductOfferPairsFound();
+            fingerprint.setIsbn(bookOfferPair.getKey().getIsbn());
+            // The page reaches the frontier only once its product is persisted, otherwise a continued job would skip it
+            bookOfferWriter.add(new BookOffer(bookOfferPair.getKey(), bookOfferPair.getValue(), () -> updateCrawlFrontier(page, fingerprint)));
+        } else if (extractedPage.isShelf()) {
+            scrapeFromShelf(extractedPage.shelfOffers);
+            page.setType(PageType.SHELF);
+            updateCrawlFrontier(page, fingerprint);
+        } else {
+            if (!hasValidBook(bookOfferPair.getKey())) {
+                page.setType(PageType.JUNK);
+                LOGGER.info("Page did not have a product {}", page.getUrl());
+            } else if (!hasValidOffer(bookOfferPair.getValue())) {
+                page.setType(PageType.UNAVAILABLE);
+                LOGGER.info("Page did not have an offer {}", page.getUrl());
+            }
+            updateCrawlFrontier(page, fingerprint);
+        }
+    }
+
+    /**
+     * Records the page as unreachable, without its fingerprint, so that the next job tries it again.
+     */
+    private void giveUpOverBudget(Page page, String reason) {
+        LOGGER.warn("{}, giving up on extracting {}", reason, page.getUrl());
+        statistics.incrementNumberOfPagesOverBudget();
+        page.setType(PageType.UNREACHABLE);
+        updateCrawlFrontier(page);
+    }
+
+    /**
+     * Keeps the offers of the cards of a listing page whose book has a known isbn, shown on the card itself or
+     * found on the product page it links to by an earlier job. Those product pages are then passed over by this job,
+     * once the offers are persisted; the ones of new books, or of books without an isbn, are downloaded as usual.
+     * The isbns not shown on the cards are looked up in batches by the {@link ShelfOfferResolver}, so that the
+     * worker does not wait on the datastore.
+     * A job replayed from an archive extracts every product page again, so it keeps no offers from listing pages.
+     */
+    private void scrapeFromShelf(List<SimpleImmutableEntry<Book, PricePoint>> shelfOffers) {
+        statistics.incrementNumberOfShelfPages();
+        if (!fetcher.isRemote()) {
+            return;
         }
 
-        statistics.stopProcessingDurationTimer();
+        for (SimpleImmutableEntry<Book, PricePoint> shelfOffer : shelfOffers) {
+            Book book = shelfOffer.getKey();
+            String url = shelfOffer.getValue().getUrl();
+            FieldSanitizer.sanitize(book);
+            if (book.getIsbn() == null) {
+                shelfOfferResolver.add(shelfOffer);
+                continue;
+            }
+
+            statistics.incrementNumberOfShelfOffersFound();
+            bookOfferWriter.add(new BookOffer(book, shelfOffer.getValue(), () -> refreshedFromShelves.add(url)));
+        }
     }
 
-    private boolean hasValidBookOfferPair(SimpleImmutableEntry<Book, PricePoint> bookOfferPair) {
+    static boolean hasValidBookOfferPair(SimpleImmutableEntry<Book, PricePoint> bookOfferPair) {
         return hasValidBook(bookOfferPair.getKey()) && hasValidOffer(bookOfferPair.getValue());
     }
 
-    private boolean hasValidBook(Book book) {
+    private static boolean isBookOffer(SimpleImmutableEntry<Product, PricePoint> productOffer) {
+        Product product = productOffer.getKey();
+        return product instanceof Book && hasValidBook((Book) product) && hasValidOffer(productOffer.getValue());
+    }
+
+    private static boolean hasValidBook(Book book) {
         return book != null && book.getIsbn() != null;
     }
 
-    private boolean hasValidOffer(PricePoint pricePoint) {
+    private static boolean hasValidOffer(PricePoint pricePoint) {
         return pricePoint != null;
     }
 
     private void updateCrawlFrontier(Page page) {
         Preconditions.checkNotNull(page);
+        crawlFrontierWriter.add(page);
+    }
 
-        statistics.startCrawlPersistenceDurationTimer();
-        CrawlDatabaseManager.instance.upsertOnePage(page);
-        statistics.stopCrawlPersistenceDurationTimer();
+    /**
+     * Also records the fingerprint of the extracted page, so that the next job may skip it if it does not change.
+     */
+    private void updateCrawlFrontier(Page page, PageFingerprint fingerprint) {
+        updateCrawlFrontier(page);
+        fingerprintStore.add(fingerprint);
     }
 
-    private SimpleImmutableEntry<Book, PricePoint> extractBookOffer(Document doc) {
+    static SimpleImmutableEntry<Book, PricePoint> extractBookOffer(ProductExtractor extractor, Document doc) {
         Preconditions.checkNotNull(doc);
 
-        Book book = (Book) this.extractor.extract(doc);
-        PricePoint offer = this.extractor.extractPricePoint(doc, Locale.forLanguageTag("ro-ro"));
-        return new SimpleImmutableEntry<>(book, offer);
-    }
-
-    private void persistBookOfferPair(SimpleImmutableEntry<Book, PricePoint> bookOfferPair) {
-        statistics.startProductPersistenceDurationTimer();
-        persistBookOfferPair(bookOfferPair.getKey(), bookOfferPair.getValue());
-        statistics.stopProductPersistenceDurationTimer();
+        SimpleImmutableEntry<Product, PricePoint> productOffer = extractor.extractProductOffer(doc, Locale.forLanguageTag("ro-ro"));
+        Book book = (Book) productOffer.getKey();
+        if (book != null) {
+            FieldSanitizer.sanitize(book);
+        }
+        return new SimpleImmutableEntry<>(book, productOffer.getValue());
     }
 
-    private void persistBookOfferPair(Book book, PricePoint offer) {
-        Preconditions.checkNotNull(book);
-        Preconditions.checkNotNull(offer);
-
-        statistics.incrementNumberOfPagesProductOfferPairsFound();
-
-        List<Book> persistedBooks = findBookByIsbn(book);
-        Key<PricePoint> offerKey = ObjectifyService.ofy().save().entity(offer).now();
-        book.setBestCurrentOffer(offer);
-
-        book.getPricepoints().add(offerKey);
-        if (persistedBooks.isEmpty()) {
-            ofy().save().entity(book);
-            LOGGER.info("Saving new {} to db.", book);
-        } else {
-            Optional<Book> mergedBook = persistedBooks.stream().reduce(Book::merge);
-
-            if (mergedBook.isPresent()) {
-                Book bookToPersist = mergedBook.get();
-                bookToPersist = Book.merge(bookToPersist, book);
-
-                ofy().delete().entities(persistedBooks);
-                ofy().save().entities(bookToPersist);
-                LOGGER.info("Updating book to {} in db.", mergedBook.get());
-            }
-        }
+    private Iterator<Page> startScrapeJob() {
+        CrawlDatabaseManager.instance.upsertJob(this.job);
+        Iterator<Page> frontier = CrawlDatabaseManager.instance.getPossibleProductPages(job.getDomain()).iterator();
+        Iterator<List<Page>> pageBatches = Iterators.partition(frontier, FINGERPRINT_BATCH_SIZE);
+        return Iterators.concat(Iterators.transform(pageBatches, this::lookUpFingerprints));
     }
 
     /**
-     * @return A list of books containing either one with the same isbn, or other
-     * books that have the same name.
+     * Loads the fingerprints of a batch of pages with one request, before any of them is downloaded.
+     * A job replayed from an archive extracts every page again, so it does not need them.
      */
-    private List<Book> findBookByIsbn(Book candidate) {
-        LoadType<Book> bookLoader = ObjectifyService.ofy().load().type(Book.class);
-        String isbn = candidate.getIsbn();
-
-        if (isbn != null) {
-            List<Book> similarBooks = bookLoader.filter("isbn", isbn).list();
-            if (isbn.length() >= 1) {
-                similarBooks.addAll(bookLoader.filter("isbn", isbn.substring(0, isbn.length() - 1)).list());
-            }
-
-            return similarBooks;
-        } else {
-            return Collections.emptyList();
+    private Iterator<Page> lookUpFingerprints(List<Page> pageBatch) {
+        if (!fetcher.isRemote()) {
+            return pageBatch.iterator();
         }
-    }
 
-    private Iterator<Page> startScrapeJob() {
-        CrawlDatabaseManager.instance.upsertJob(this.job);
-        return CrawlDatabaseManager.instance.getPossibleProductPages(job.getDomain()).iterator();
+        List<String> urls = new ArrayList<>(pageBatch.size());
+        for (Page page : pageBatch) {
+            urls.add(page.getUrl());
+        }
+        knownFingerprints.putAll(fingerprintStore.load(urls));
+        return pageBatch.iterator();
     }
 
     private void finishScrapeJob() {
+        // The offers resolved from listing pages are persisted with the others
+        shelfOfferResolver.close();
+        bookOfferWriter.close();
+        fingerprintStore.close();
+        crawlFrontierWriter.close();
+        fetcher.close();
+
         this.job.setEnd(Instant.now());
         this.job.setStatus(JobStatus.FINISHED);
         CrawlDatabaseManager.instance.upsertJob(job);
@@ -277,4 +674,46 @@ public class Scraper implements Runnable {
     public Job getJob() {
         return job;
     }
+
+    /**
+     * What is extracted from a page, kept once its tree is dropped.
+     */
+    private static final class ExtractedPage {
+        private final SimpleImmutableEntry<Book, PricePoint> bookOfferPair;
+        private final List<SimpleImmutableEntry<Book, PricePoint>> shelfOffers;
+
+        private ExtractedPage(SimpleImmutableEntry<Book, PricePoint> bookOfferPair,
+                              List<SimpleImmutableEntry<Book, PricePoint>> shelfOffers) {
+            this.bookOfferPair = bookOfferPair;
+            this.shelfOffers = shelfOffers;
+        }
+
+        private boolean isShelf() {
+            return shelfOffers.size() >= ShelfExtractor.MIN_CARDS;
+        }
+    }
+
+    /**
+     * A page being downloaded, over as many attempts as it takes.
+     */
+    private static final class PendingDownload {
+        private final Page page;
+        private final PageFingerprint fingerprint;
+        private final Stopwatch timer;
+        private int attempt;
+
+        /**
+         * @param fingerprint The fingerprint of the page when it was last extracted, or null if it never was.
+         */
+        private PendingDownload(Page page, PageFingerprint fingerprint) {
+            this.page = page;
+            this.fingerprint = fingerprint;
+            this.timer = Stopwatch.createStarted();
+            this.attempt = 1;
+        }
+
+        private Map<String, String> getRequestHeaders() {
+            return (fingerprint != null) ? fingerprint.getConditionalHeaders() : Collections.emptyMap();
+        }
+    }
 }
@@ -0,0 +1,26 @@
+package me.mircea.licenta.scraper;
+
+import com.googlecode.objectify.ObjectifyService;
+import me.mircea.licenta.scraper.fetch.PageFingerprint;
+import me.mircea.licenta.scraper.infoextraction.InducedWrapper;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Registers the entities the scraper keeps between jobs. It must run after the ObjectifyBootstrapper of the products,
+ * which connects Objectify to the datastore.
+ */
+public class ScraperObjectifyBootstrapper implements ServletContextListener {
+    public void contextInitialized(ServletContextEvent event) {
+        init();
+    }
+
+    /**
+     * Registers the entities of the scraper, for programs running outside the servlet container.
+     */
+    public static void init() {
+        ObjectifyService.register(PageFingerprint.class);
+        ObjectifyService.register(InducedWrapper.class);
+    }
+}
@@ -1,12 +1,12 @@
 package me.mircea.licenta.scraper;
 
 import com.google.common.base.Stopwatch;
-import me.mircea.licenta.core.crawl.db.model.Job;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.Duration;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Simple utility class to log time statistics for the scraper.
@@ -16,11 +16,25 @@ class ScraperStatistics {
     private static final Logger LOGGER = LoggerFactory.getLogger(ScraperStatistics.class);
     private static final int STATISTICS_BATCH_SIZE = 10_000;
 
-    private final Job job;
+    private final String domain;
     private AtomicInteger noPagesToBeRequested;
     private AtomicInteger noRequests;
+    private AtomicInteger noRetries;
     private AtomicInteger noPagesReached;
+    private AtomicInteger noPagesNotModified;
+    private AtomicInteger noPagesUnchanged;
     private AtomicInteger noProductOfferPairsFound;
+    private AtomicInteger noShelfPages;
+    private AtomicInteger noShelfOffersFound;
+    private AtomicInteger noPagesRefreshedFromShelves;
+    private AtomicInteger noPagesOverBudget;
+    private AtomicInteger maxQueueDepth;
+    private AtomicInteger noPagesSpilled;
+    private AtomicLong noBytesSpilled;
+    private AtomicInteger noCrawlFrontierFlushes;
+    private AtomicInteger noProductPersistenceBatches;
+    private AtomicInteger noIsbnCacheHits;
+    private AtomicInteger noIsbnCacheMisses;
 
     private Duration totalDuration;
     private Duration totalDownloadDuration;
@@ -29,17 +43,27 @@ class ScraperStatistics {
     private Duration totalProductPersistenceDuration;
 
     private Stopwatch totalDurationTimer;
-    private Stopwatch downloadDurationTimer;
-    private Stopwatch processingDurationTimer;
-    private Stopwatch crawlPersistenceDurationTimer;
-    private Stopwatch productPersistenceDurationTimer;
 
-    ScraperStatistics(Job job) {
-        this.job = job;
+    ScraperStatistics(String domain) {
+        this.domain = domain;
         this.noPagesToBeRequested = new AtomicInteger(0);
         this.noRequests = new AtomicInteger(0);
+        this.noRetries = new AtomicInteger(0);
         this.noPagesReached = new AtomicInteger(0);
+        this.noPagesNotModified = new AtomicInteger(0);
+        this.noPagesUnchanged = new AtomicInteger(0);
         this.noProductOfferPairsFound = new AtomicInteger(0);
+        this.noShelfPages = new AtomicInteger(0);
+        this.noShelfOffersFound = new AtomicInteger(0);
+        this.noPagesRefreshedFromShelves = new AtomicInteger(0);
+        this.noPagesOverBudget = new AtomicInteger(0);
+        this.maxQueueDepth = new AtomicInteger(0);
+        this.noPagesSpilled = new AtomicInteger(0);
+        this.noBytesSpilled = new AtomicLong(0);
+        this.noCrawlFrontierFlushes = new AtomicInteger(0);
+        this.noProductPersistenceBatches = new AtomicInteger(0);
+        this.noIsbnCacheHits = new AtomicInteger(0);
+        this.noIsbnCacheMisses = new AtomicInteger(0);
 
         this.totalDuration = Duration.ZERO;
         this.totalDownloadDuration = Duration.ZERO;
@@ -57,88 +81,153 @@ class ScraperStatistics {
         noRequests.getAndIncrement();
     }
 
+    void incrementNumberOfRetries() {
+        noRetries.getAndIncrement();
+    }
+
     void incrementNumberOfPagesReached() {
         noPagesReached.getAndIncrement();
     }
 
+    void incrementNumberOfPagesNotModified() {
+        noPagesNotModified.getAndIncrement();
+    }
+
+    void incrementNumberOfPagesUnchanged() {
+        noPagesUnchanged.getAndIncrement();
+    }
+
     void incrementNumberOfPagesProductOfferPairsFound() {
         noProductOfferPairsFound.getAndIncrement();
     }
 
-    boolean isBatchReady() {
-        return noPagesToBeRequested.get() % STATISTICS_BATCH_SIZE == 0;
+    void incrementNumberOfShelfPages() {
+        noShelfPages.getAndIncrement();
     }
 
-    void startTotalDurationTimer() {
-        totalDurationTimer = Stopwatch.createStarted();
+    void incrementNumberOfShelfOffersFound() {
+        noShelfOffersFound.getAndIncrement();
     }
 
-    void stopTotalDurationTimer() {
-        totalDurationTimer.stop();
-        totalDuration = totalDurationTimer.elapsed();
+    void incrementNumberOfPagesRefreshedFromShelves() {
+        noPagesRefreshedFromShelves.getAndIncrement();
     }
 
-    void startDownloadDurationTimer() {
-        downloadDurationTimer = Stopwatch.createStarted();
+    void incrementNumberOfPagesOverBudget() {
+        noPagesOverBudget.getAndIncrement();
     }
 
-    void stopDownloadDurationTimer() {
-        downloadDurationTimer.stop();
-        totalDownloadDuration = totalDownloadDuration.plus(downloadDurationTimer.elapsed());
+    void recordQueueDepth(int queueDepth) {
+        maxQueueDepth.accumulateAndGet(queueDepth, Math::max);
     }
 
-    void startProcessingDurationTimer() {
-        processingDurationTimer = Stopwatch.createStarted();
+    void addSpilledPage(long noCompressedBytes) {
+        noPagesSpilled.getAndIncrement();
+        noBytesSpilled.addAndGet(noCompressedBytes);
     }
 
-    void stopProcessingDurationTimer() {
-        processingDurationTimer.stop();
-        totalProcessingDuration = totalProcessingDuration.plus(processingDurationTimer.elapsed());
+    void incrementNumberOfCrawlFrontierFlushes() {
+        noCrawlFrontierFlushes.getAndIncrement();
     }
 
-    void startCrawlPersistenceDurationTimer() {
-        crawlPersistenceDurationTimer = Stopwatch.createStarted();
+    void incrementNumberOfProductPersistenceBatches() {
+        noProductPersistenceBatches.getAndIncrement();
     }
 
-    void stopCrawlPersistenceDurationTimer() {
-        crawlPersistenceDurationTimer.stop();
-        totalCrawlPersistenceDuration = totalCrawlPersistenceDuration.plus(crawlPersistenceDurationTimer.elapsed());
+    void incrementNumberOfIsbnCacheHits() {
+        noIsbnCacheHits.getAndIncrement();
     }
 
-    void startProductPersistenceDurationTimer() {
-        productPersistenceDurationTimer = Stopwatch.createStarted();
+    void incrementNumberOfIsbnCacheMisses() {
+        noIsbnCacheMisses.getAndIncrement();
     }
 
-    void stopProductPersistenceDurationTimer() {
-        productPersistenceDurationTimer.stop();
-        totalProductPersistenceDuration = totalProcessingDuration.plus(productPersistenceDurationTimer.elapsed());
+    boolean isBatchReady() {
+        return noPagesToBeRequested.get() % STATISTICS_BATCH_SIZE == 0;
     }
 
-    void logStatistics() {
-        LOGGER.info("Domain {}, number of pages to be requested: {}", job.getDomain(), noPagesToBeRequested);
-        LOGGER.info("Domain {}, number of GET requests made: {}", job.getDomain(), noRequests);
-        LOGGER.info("Domain {}, number of pages reached: {}", job.getDomain(), noPagesReached);
-        LOGGER.info("Domain {}, number of product-offer pairs found: {}", job.getDomain(), noProductOfferPairsFound);
+    void startTotalDurationTimer() {
+        totalDurationTimer = Stopwatch.createStarted();
+    }
 
+    void stopTotalDurationTimer() {
+        totalDurationTimer.stop();
+        totalDuration = totalDurationTimer.elapsed();
+    }
 
-        LOGGER.info("Domain {}, total duration: {}", job.getDomain(), totalDuration);
-        LOGGER.info("Domain {}, total download of page time: {}", job.getDomain(), totalDownloadDuration);
-        LOGGER.info("Domain {}, total processing of page time: {}", job.getDomain(), totalProcessingDuration);
-        LOGGER.info("Domain {}, total crawl persistence of product time: {}", job.getDomain(), totalCrawlPersistenceDuration);
-        LOGGER.info("Domain {}, total product persistence of product time: {}", job.getDomain(), totalProductPersistenceDuration);
+    /**
+     * Downloads of the same job may overlap, so each one is timed by its caller.
+     */
+    synchronized void addDownloadDuration(Duration downloadDuration) {
+        totalDownloadDuration = totalDownloadDuration.plus(downloadDuration);
+    }
+
+    /**
+     * Pages of the same job are processed by several workers at once, so each one is timed by its worker.
+     */
+    synchronized void addProcessingDuration(Duration processingDuration) {
+        totalProcessingDuration = totalProcessingDuration.plus(processingDuration);
+    }
+
+    /**
+     * Pages are written to the crawl frontier in batches, so each batch is timed by its writer.
+     */
+    synchronized void addCrawlPersistenceDuration(Duration crawlPersistenceDuration) {
+        totalCrawlPersistenceDuration = totalCrawlPersistenceDuration.plus(crawlPersistenceDuration);
+    }
+
+    /**
+     * Book-offer pairs are persisted in batches, so each batch is timed by its writer.
+     */
+    synchronized void addProductPersistenceDuration(Duration productPersistenceDuration) {
+        totalProductPersistenceDuration = totalProductPersistenceDuration.plus(productPersistenceDuration);
+    }
+
+    synchronized void logStatistics() {
+        LOGGER.info("Domain {}, number of pages to be requested: {}", domain, noPagesToBeRequested);
+        LOGGER.info("Domain {}, number of GET requests made: {}", domain, noRequests);
+        LOGGER.info("Domain {}, number of GET requests retried: {}", domain, noRetries);
+        LOGGER.info("Domain {}, number of pages reached: {}", domain, noPagesReached);
+        LOGGER.info("Domain {}, number of pages not modified since the last job: {}", domain, noPagesNotModified);
+        LOGGER.info("Domain {}, number of pages with unchanged content: {}", domain, noPagesUnchanged);
+        LOGGER.info("Domain {}, number of product-offer pairs found: {}", domain, noProductOfferPairsFound);
+        LOGGER.info("Domain {}, number of listing pages: {}", domain, noShelfPages);
+        LOGGER.info("Domain {}, number of offers found on listing pages: {}", domain, noShelfOffersFound);
+        LOGGER.info("Domain {}, number of product pages refreshed from listing pages: {}", domain, noPagesRefreshedFromShelves);
+        LOGGER.info("Domain {}, number of pages given up on for exceeding the extraction budget: {}", domain, noPagesOverBudget);
+        LOGGER.info("Domain {}, maximum depth of the page queue: {}", domain, maxQueueDepth);
+        LOGGER.info("Domain {}, number of pages spilled to disk: {}", domain, noPagesSpilled);
+        LOGGER.info("Domain {}, number of compressed bytes spilled to disk: {}", domain, noBytesSpilled);
+        LOGGER.info("Domain {}, number of batched writes to the crawl frontier: {}", domain, noCrawlFrontierFlushes);
+        LOGGER.info("Domain {}, number of batched writes of product-offer pairs: {}", domain, noProductPersistenceBatches);
+        LOGGER.info("Domain {}, number of isbn cache hits: {}", domain, noIsbnCacheHits);
+        LOGGER.info("Domain {}, number of isbn cache misses: {}", domain, noIsbnCacheMisses);
+        LOGGER.info("Isbn cache hit rate across all jobs: {}, evictions: {}",
+                BookKeyCache.instance.stats().hitRate(), BookKeyCache.instance.stats().evictionCount());
+
+
+        LOGGER.info("Domain {}, total duration: {}", domain, totalDuration);
+        LOGGER.info("Domain {}, total download of page time: {}", domain, totalDownloadDuration);
+        LOGGER.info("Domain {}, total processing of page time: {}", domain, totalProcessingDuration);
+        LOGGER.info("Domain {}, total crawl persistence of product time: {}", domain, totalCrawlPersistenceDuration);
+        LOGGER.info("Domain {}, total product persistence of product time: {}", domain, totalProductPersistenceDuration);
 
 
         if (noPagesToBeRequested.get() != 0) {
-            LOGGER.info("Domain {}, average download of page time: {}", job.getDomain(), totalDownloadDuration.dividedBy(noPagesToBeRequested.get()));
+            LOGGER.info("Domain {}, average download of page time: {}", domain, totalDownloadDuration.dividedBy(noPagesToBeRequested.get()));
         }
         if (noPagesToBeRequested.get() != 0) {
-            LOGGER.info("Domain {}, average processing of page time: {}", job.getDomain(), totalProcessingDuration.dividedBy(noPagesReached.get()));
+            LOGGER.info("Domain {}, average processing of page time: {}", domain, totalProcessingDuration.dividedBy(noPagesReached.get()));
         }
         if (noPagesReached.get() != 0) {
-            LOGGER.info("Domain {}, average crawl persistence of product time: {}", job.getDomain(), totalCrawlPersistenceDuration.dividedBy((noPagesReached.get())));
+            LOGGER.info("Domain {}, average crawl persistence of product time: {}", domain, totalCrawlPersistenceDuration.dividedBy((noPagesReached.get())));
+        }
+        if (noIsbnCacheHits.get() + noIsbnCacheMisses.get() != 0) {
+            LOGGER.info("Domain {}, isbn cache hit rate: {}", domain,
+                    (double) noIsbnCacheHits.get() / (noIsbnCacheHits.get() + noIsbnCacheMisses.get()));
         }
         if (noProductOfferPairsFound.get() != 0) {
-            LOGGER.info("Domain {}, average product persistence of product time: {}", job.getDomain(), totalProductPersistenceDuration.dividedBy(noProductOfferPairsFound.get()));
+            LOGGER.info("Domain {}, average product persistence of product time: {}", domain, totalProductPersistenceDuration.dividedBy(noProductOfferPairsFound.get()));
         }
     }
 }
@@ -0,0 +1,64 @@
+package me.mircea.licenta.scraper;
+
+import com.google.common.base.Preconditions;
+import me.mircea.licenta.products.db.model.Book;
+import me.mircea.licenta.products.db.model.PricePoint;
+import me.mircea.licenta.scraper.BookOfferWriter.BookOffer;
+import me.mircea.licenta.scraper.fetch.PageFingerprint;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Write-behind buffer for the offers of the cards of listing pages which do not show the isbn of their book.
+ * The isbns are looked up in batches, among the fingerprints of the product pages the cards link to, off the
+ * extraction workers. The offers whose isbn is found are handed to the book-offer writer; the others are dropped,
+ * and their product pages are downloaded as usual.
+ */
+class ShelfOfferResolver extends WriteBehindBuffer<SimpleImmutableEntry<Book, PricePoint>> {
+    private final PageFingerprintStore fingerprintStore;
+    private final BookOfferWriter bookOfferWriter;
+    private final ScraperStatistics statistics;
+    private final Consumer<String> onPersisted;
+
+    /**
+     * @param onPersisted Called with the url of the product page of each offer once it is persisted.
+     */
+    ShelfOfferResolver(int batchSize, long flushInterval, PageFingerprintStore fingerprintStore,
+                       BookOfferWriter bookOfferWriter, ScraperStatistics statistics, Consumer<String> onPersisted) {
+        super(batchSize, flushInterval, shelfOffer -> shelfOffer.getValue().getUrl());
+        Preconditions.checkNotNull(fingerprintStore);
+        Preconditions.checkNotNull(bookOfferWriter);
+        Preconditions.checkNotNull(statistics);
+        Preconditions.checkNotNull(onPersisted);
+
+        this.fingerprintStore = fingerprintStore;
+        this.bookOfferWriter = bookOfferWriter;
+        this.statistics = statistics;
+        this.onPersisted = onPersisted;
+    }
+
+    @Override
+    protected void write(List<SimpleImmutableEntry<Book, PricePoint>> batch) {
+        List<String> urls = new ArrayList<>(batch.size());
+        for (SimpleImmutableEntry<Book, PricePoint> shelfOffer : batch) {
+            urls.add(shelfOffer.getValue().getUrl());
+        }
+        Map<String, PageFingerprint> productFingerprints = fingerprintStore.load(urls);
+
+        for (SimpleImmutableEntry<Book, PricePoint> shelfOffer : batch) {
+            String url = shelfOffer.getValue().getUrl();
+            PageFingerprint productFingerprint = productFingerprints.get(url);
+            if (productFingerprint == null || productFingerprint.getIsbn() == null) {
+                continue;
+            }
+
+            shelfOffer.getKey().setIsbn(productFingerprint.getIsbn());
+            statistics.incrementNumberOfShelfOffersFound();
+            bookOfferWriter.add(new BookOffer(shelfOffer.getKey(), shelfOffer.getValue(), () -> onPersisted.accept(url)));
+        }
+    }
+}
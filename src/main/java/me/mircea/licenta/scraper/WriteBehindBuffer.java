@@ -0,0 +1,167 @@
+package me.mircea.licenta.scraper;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Groups items and writes them in batches, once enough of them have gathered or once the oldest one
+ * has waited long enough. Batches are written on a small pool shared by every buffer, rather than on the
+ * thread that filled them or on the timer; the filling thread only writes itself once several batches are
+ * pending, so that it cannot outrun the writes indefinitely.
+ * @param <T> The type of the buffered items.
+ */
+abstract class WriteBehindBuffer<T> implements AutoCloseable {
+    private static final ScheduledExecutorService FLUSH_TIMER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("write-behind-flush-%d").setDaemon(true).build());
+    private static final int NUMBER_OF_FLUSH_THREADS = 4;
+    private static final ExecutorService FLUSH_POOL = Executors.newFixedThreadPool(NUMBER_OF_FLUSH_THREADS,
+            new ThreadFactoryBuilder().setNameFormat("write-behind-write-%d").setDaemon(true).build());
+    private static final int MAX_PENDING_BATCHES = 4;
+
+    private final int batchSize;
+    private final long flushInterval;
+    private final Function<T, Object> keyFunction;
+    private final Object flushLock;
+    private final AtomicBoolean isFlushRequested;
+    private final AtomicBoolean isFlushScheduled;
+
+    private Map<Object, T> pendingItems;
+    private long oldestPendingTime;
+
+    /**
+     * @param batchSize     The number of items that triggers a write.
+     * @param flushInterval The longest time in milliseconds an item may wait before being written.
+     * @param keyFunction   Items with the same key replace each other while they are pending.
+     */
+    WriteBehindBuffer(int batchSize, long flushInterval, Function<T, Object> keyFunction) {
+        Preconditions.checkArgument(batchSize > 0);
+        Preconditions.checkArgument(flushInterval > 0);
+        Preconditions.checkNotNull(keyFunction);
+
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+        this.keyFunction = keyFunction;
+        this.flushLock = new Object();
+        this.pendingItems = new LinkedHashMap<>();
+        this.isFlushRequested = new AtomicBoolean(false);
+        this.isFlushScheduled = new AtomicBoolean(false);
+    }
+
+    /**
+     * Writes a batch of items. Called with at least one item, and never by two threads at once.
+     */
+    protected abstract void write(List<T> batch);
+
+    void add(T item) {
+        Preconditions.checkNotNull(item);
+
+        int noPendingItems;
+        boolean isFirstPending;
+        synchronized (this) {
+            isFirstPending = pendingItems.isEmpty();
+            if (isFirstPending) {
+                oldestPendingTime = System.currentTimeMillis();
+            }
+            pendingItems.put(keyFunction.apply(item), item);
+            noPendingItems = pendingItems.size();
+        }
+
+        if (noPendingItems >= MAX_PENDING_BATCHES * batchSize) {
+            flush();
+        } else if (noPendingItems >= batchSize) {
+            requestFlush();
+        } else if (isFirstPending) {
+            scheduleFlush(flushInterval);
+        }
+    }
+
+    /**
+     * Checks on the pending items once the delay has passed. At most one such check of the buffer is waiting,
+     * and none is once nothing is pending, so a buffer that is never closed does not stay scheduled.
+     */
+    private void scheduleFlush(long delay) {
+        if (isFlushScheduled.compareAndSet(false, true)) {
+            FLUSH_TIMER.schedule(this::requestFlushIfDue, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void requestFlushIfDue() {
+        isFlushScheduled.set(false);
+
+        long waitedTime;
+        synchronized (this) {
+            if (pendingItems.isEmpty()) {
+                return;
+            }
+            waitedTime = System.currentTimeMillis() - oldestPendingTime;
+        }
+
+        if (waitedTime >= flushInterval) {
+            requestFlush();
+        } else {
+            scheduleFlush(flushInterval - waitedTime);
+        }
+    }
+
+    /**
+     * Has the pending items written on the flush pool. At most one such flush of the buffer is waiting or running.
+     */
+    private void requestFlush() {
+        if (isFlushRequested.compareAndSet(false, true)) {
+            FLUSH_POOL.execute(this::flushRequested);
+        }
+    }
+
+    private void flushRequested() {
+        try {
+            flush();
+        } finally {
+            isFlushRequested.set(false);
+        }
+
+        boolean isBatchFull;
+        synchronized (this) {
+            isBatchFull = pendingItems.size() >= batchSize;
+        }
+        if (isBatchFull) {
+            requestFlush();
+        }
+    }
+
+    /**
+     * Writes every pending item. Flushes never overlap, so items are written in the order they were added.
+     */
+    void flush() {
+        synchronized (flushLock) {
+            List<T> batch;
+            synchronized (this) {
+                if (pendingItems.isEmpty()) {
+                    return;
+                }
+                batch = new ArrayList<>(pendingItems.values());
+                pendingItems = new LinkedHashMap<>();
+            }
+
+            write(batch);
+        }
+    }
+
+    /**
+     * Writes whatever is still pending.
+     */
+    @Override
+    public void close() {
+        flush();
+    }
+}
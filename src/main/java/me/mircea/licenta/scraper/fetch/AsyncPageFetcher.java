@@ -0,0 +1,61 @@
+package me.mircea.licenta.scraper.fetch;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import me.mircea.licenta.core.crawl.db.RobotDefaults;
+import org.jsoup.Connection;
+import org.jsoup.Jsoup;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Fetches pages on its own pool of connection threads, so that a slow server only holds up its own request.
+ * The project still targets Java 8, so the blocking connection of Jsoup is wrapped instead of using an NIO client.
+ */
+public class AsyncPageFetcher implements PageFetcher {
+    private static final int DEFAULT_NUMBER_OF_CONNECTIONS = 64;
+
+    public static final AsyncPageFetcher instance = new AsyncPageFetcher(DEFAULT_NUMBER_OF_CONNECTIONS);
+
+    private final ExecutorService connections;
+
+    public AsyncPageFetcher(int numberOfConnections) {
+        Preconditions.checkArgument(numberOfConnections > 0);
+        this.connections = Executors.newFixedThreadPool(numberOfConnections,
+                new ThreadFactoryBuilder().setNameFormat("connection-%d").setDaemon(true).build());
+    }
+
+    @Override
+    public CompletableFuture<FetchedPage> fetch(String url, Map<String, String> requestHeaders) {
+        Preconditions.checkNotNull(url);
+        Preconditions.checkNotNull(requestHeaders);
+        return CompletableFuture.supplyAsync(() -> download(url, requestHeaders), connections);
+    }
+
+    private FetchedPage download(String url, Map<String, String> requestHeaders) {
+        try {
+            Connection connection = Jsoup.connect(url)
+                    .userAgent(RobotDefaults.getUserAgent())
+                    .ignoreHttpErrors(true)
+                    .maxBodySize(MAX_PAGE_BYTES + 1);
+            requestHeaders.forEach(connection::header);
+
+            Connection.Response response = connection.execute();
+
+            return new FetchedPage(response.url().toString(),
+                    response.statusCode(),
+                    response.headers(),
+                    response.bodyAsBytes(),
+                    response.charset(),
+                    Instant.now());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package me.mircea.licenta.scraper.fetch;
+
+import com.google.common.base.Throwables;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces the requests to a domain, shared by every source that fetches from it.
+ * The time between two requests never goes below the crawl delay of the domain. Above it, the delay shrinks
+ * a step at a time while responses are fast and healthy, and doubles, with jitter, on timeouts, 429 and 5xx
+ * responses, honouring Retry-After. Other failed requests, such as those of pages which are not html, say nothing
+ * about the health of the domain and leave the pace as it is. A domain that keeps failing has its circuit opened: no request is made
+ * to it for a while, after which a single probe decides whether to close the circuit or keep it open for longer.
+ * An unthrottled controller lets every request through as soon as it is asked, for pages that do not come from the
+ * domain itself.
+ */
+class DomainRateController {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DomainRateController.class);
+
+    static final int MAX_FETCHES_IN_FLIGHT = 4;
+    private static final long INITIAL_DELAY = TimeUnit.SECONDS.toNanos(1);
+    private static final long DELAY_DECREASE_STEP = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long MIN_BACKOFF_DELAY = TimeUnit.SECONDS.toNanos(1);
+    private static final long MAX_DELAY = TimeUnit.MINUTES.toNanos(1);
+    private static final long SLOW_RESPONSE_THRESHOLD = TimeUnit.SECONDS.toNanos(5);
+    private static final long MAX_RETRY_AFTER = TimeUnit.MINUTES.toNanos(10);
+    private static final int CIRCUIT_FAILURE_THRESHOLD = 5;
+    private static final long INITIAL_CIRCUIT_OPEN_DURATION = TimeUnit.SECONDS.toNanos(30);
+    private static final long MAX_CIRCUIT_OPEN_DURATION = TimeUnit.MINUTES.toNanos(15);
+
+    private enum CircuitState {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String domain;
+    private final boolean throttled;
+    private long minimumDelay;
+    private long delay;
+    private long nextFetchTime;
+    private long backoffEndTime;
+    private int fetchesInFlight;
+
+    private int consecutiveFailures;
+    private CircuitState circuitState;
+    private long circuitOpenDuration;
+
+    DomainRateController(String domain, long now, boolean throttled) {
+        this.domain = domain;
+        this.throttled = throttled;
+        this.delay = throttled ? INITIAL_DELAY : 0;
+        this.nextFetchTime = now;
+        this.backoffEndTime = now;
+        this.circuitState = CircuitState.CLOSED;
+        this.circuitOpenDuration = INITIAL_CIRCUIT_OPEN_DURATION;
+    }
+
+    /**
+     * @param minimumDelay The crawl delay of a job on this domain, in nanoseconds. The largest one is kept.
+     */
+    synchronized void extendMinimumDelay(long minimumDelay) {
+        if (!throttled) {
+            return;
+        }
+        this.minimumDelay = Math.max(this.minimumDelay, minimumDelay);
+        this.delay = Math.max(this.delay, this.minimumDelay);
+    }
+
+    /**
+     * @return True if a request to the domain may start now, in which case a slot is held until it finishes.
+     */
+    synchronized boolean tryStartFetch(long now) {
+        if (!throttled) {
+            ++fetchesInFlight;
+            return true;
+        }
+        if (nextFetchTime - now > 0) {
+            return false;
+        }
+        if (circuitState == CircuitState.OPEN) {
+            circuitState = CircuitState.HALF_OPEN;
+            LOGGER.info("Probing domain {} before closing its circuit", domain);
+        }
+        if (fetchesInFlight >= getAllowedFetchesInFlight()) {
+            return false;
+        }
+
+        ++fetchesInFlight;
+        nextFetchTime = now + delay;
+        return true;
+    }
+
+    /**
+     * Gives back a slot which was not used for a request after all. The wait it reserved is given back too, unless
+     * another request failed meanwhile and the domain is backing off.
+     */
+    synchronized void abandonFetch(long now) {
+        --fetchesInFlight;
+        nextFetchTime = (backoffEndTime - now > 0) ? backoffEndTime : now;
+    }
+
+    /**
+     * @param latency     The time the request took, in nanoseconds.
+     * @param fetchedPage The response, or null if there was none.
+     * @param failure     Why there was no response, or null if there was one.
+     */
+    synchronized void finishFetch(long now, long latency, FetchedPage fetchedPage, Throwable failure) {
+        --fetchesInFlight;
+        if (!throttled) {
+            return;
+        }
+
+        if (fetchedPage != null) {
+            if (isOverloaded(fetchedPage.getStatusCode())) {
+                recordFailure(now, fetchedPage);
+            } else {
+                recordSuccess(latency);
+            }
+        } else if (failure != null && Throwables.getRootCause(failure) instanceof SocketTimeoutException) {
+            recordFailure(now, null);
+        }
+
+        if (nextFetchTime - now < 0) {
+            nextFetchTime = now;
+        }
+    }
+
+    synchronized long getNextFetchTime(long now, long recheckInterval) {
+        if (!throttled) {
+            return now;
+        }
+        if (fetchesInFlight >= getAllowedFetchesInFlight()) {
+            return Math.max(nextFetchTime, now + Math.max(delay, recheckInterval));
+        }
+        return nextFetchTime;
+    }
+
+    private int getAllowedFetchesInFlight() {
+        return (circuitState == CircuitState.CLOSED) ? MAX_FETCHES_IN_FLIGHT : 1;
+    }
+
+    private void recordSuccess(long latency) {
+        consecutiveFailures = 0;
+        if (circuitState != CircuitState.CLOSED) {
+            LOGGER.info("Closing the circuit of domain {}", domain);
+            circuitState = CircuitState.CLOSED;
+            circuitOpenDuration = INITIAL_CIRCUIT_OPEN_DURATION;
+        }
+
+        // Slow but healthy responses hold the pace, fast ones speed it up
+        if (latency < SLOW_RESPONSE_THRESHOLD) {
+            delay = Math.max(minimumDelay, delay - DELAY_DECREASE_STEP);
+        }
+    }
+
+    private void recordFailure(long now, FetchedPage fetchedPage) {
+        ++consecutiveFailures;
+        delay = Math.min(MAX_DELAY, Math.max(minimumDelay, Math.max(MIN_BACKOFF_DELAY, delay * 2)));
+
+        long backoff = withJitter(delay);
+        if (fetchedPage != null) {
+            backoff = Math.max(backoff, getRetryAfter(fetchedPage.getHeaders()));
+        }
+
+        if (circuitState == CircuitState.HALF_OPEN || consecutiveFailures >= CIRCUIT_FAILURE_THRESHOLD) {
+            if (circuitState == CircuitState.HALF_OPEN) {
+                circuitOpenDuration = Math.min(MAX_CIRCUIT_OPEN_DURATION, circuitOpenDuration * 2);
+            }
+            circuitState = CircuitState.OPEN;
+            backoff = Math.max(backoff, circuitOpenDuration);
+            LOGGER.warn("Opening the circuit of domain {} for {} after {} consecutive failures",
+                    domain, Duration.ofNanos(backoff), consecutiveFailures);
+        }
+
+        backoffEndTime = now + backoff;
+        nextFetchTime = Math.max(nextFetchTime, backoffEndTime);
+    }
+
+    /**
+     * @return A random time between half of the delay and the whole delay, so that domains backing off together do
+     * not all come back at once.
+     */
+    private static long withJitter(long delay) {
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private static boolean isOverloaded(int statusCode) {
+        return statusCode == 429 || statusCode >= 500;
+    }
+
+    /**
+     * @return The time the server asked to wait before the next request, in nanoseconds, or 0 if it did not ask.
+     */
+    static long getRetryAfter(Map<String, String> headers) {
+        String retryAfter = null;
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase("Retry-After")) {
+                retryAfter = header.getValue().trim();
+            }
+        }
+        if (retryAfter == null || retryAfter.isEmpty()) {
+            return 0;
+        }
+
+        long wait;
+        try {
+            wait = TimeUnit.SECONDS.toNanos(Long.parseLong(retryAfter));
+        } catch (NumberFormatException e) {
+            try {
+                Instant retryTime = ZonedDateTime.parse(retryAfter, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+                wait = Duration.between(Instant.now(), retryTime).toNanos();
+            } catch (DateTimeParseException | ArithmeticException ex) {
+                return 0;
+            }
+        }
+        return Math.max(0, Math.min(MAX_RETRY_AFTER, wait));
+    }
+}
@@ -0,0 +1,176 @@
+package me.mircea.licenta.scraper.fetch;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Optional;
+import java.util.concurrent.*;
+
+/**
+ * Process-wide scheduler that hands the next eligible fetch of any active job to a fixed pool of fetchers.
+ * Each domain has its own {@link DomainRateController}, so requests to a domain never start more often than its
+ * crawl delay allows, no matter how many jobs are registered, and slow down when the domain struggles. A few
+ * requests may be in flight to the same domain at once, so that one slow response does not hold up the next one
+ * past its turn.
+ */
+public class FetchScheduler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FetchScheduler.class);
+    private static final int DEFAULT_NUMBER_OF_FETCHERS = 32;
+    private static final long BUSY_DOMAIN_RECHECK_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+    public static final FetchScheduler instance = new FetchScheduler(DEFAULT_NUMBER_OF_FETCHERS, true);
+
+    private final boolean throttled;
+    private final ExecutorService fetchers;
+    private final DelayQueue<ScheduledFetch> eligibleFetches;
+    private final ConcurrentMap<String, DomainRateController> rateControllers;
+
+    /**
+     * @param throttled False if the fetches do not go to the domains themselves, so they need not be paced.
+     */
+    FetchScheduler(int numberOfFetchers, boolean throttled) {
+        Preconditions.checkArgument(numberOfFetchers > 0);
+        this.throttled = throttled;
+
+        this.fetchers = Executors.newFixedThreadPool(numberOfFetchers,
+                new ThreadFactoryBuilder().setNameFormat("fetcher-%d").setDaemon(true).build());
+        this.eligibleFetches = new DelayQueue<>();
+        this.rateControllers = new ConcurrentHashMap<>();
+
+        Thread dispatcher = new ThreadFactoryBuilder().setNameFormat("fetch-dispatcher").setDaemon(true).build()
+                .newThread(this::dispatch);
+        dispatcher.start();
+    }
+
+    /**
+     * @return A scheduler which runs the fetches of every source as fast as they come, for sources that are not
+     * fetched from the network.
+     */
+    public static FetchScheduler unthrottled() {
+        return UnthrottledHolder.instance;
+    }
+
+    /**
+     * @param domain     The domain all the fetches of this source go to.
+     * @param crawlDelay The minimum time between two requests to the domain, in milliseconds.
+     * @param source     The frontier of the job.
+     * @return A handle which can be used to stop the source from being scheduled again.
+     */
+    public ScheduledFetch schedule(String domain, long crawlDelay, FetchSource source) {
+        Preconditions.checkNotNull(domain);
+        Preconditions.checkArgument(crawlDelay >= 0);
+        Preconditions.checkNotNull(source);
+
+        DomainRateController rateController = rateControllers.computeIfAbsent(domain,
+                key -> new DomainRateController(key, System.nanoTime(), throttled));
+        rateController.extendMinimumDelay(TimeUnit.MILLISECONDS.toNanos(crawlDelay));
+
+        ScheduledFetch scheduledFetch = new ScheduledFetch(domain, rateController, source);
+        scheduledFetch.eligibleAt = rateController.getNextFetchTime(System.nanoTime(), BUSY_DOMAIN_RECHECK_INTERVAL);
+        eligibleFetches.put(scheduledFetch);
+        return scheduledFetch;
+    }
+
+    private void dispatch() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                ScheduledFetch scheduledFetch = eligibleFetches.take();
+                if (!scheduledFetch.isCancelled()) {
+                    fetchers.execute(() -> fetch(scheduledFetch));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                LOGGER.error("Could not dispatch a fetch: {}", e);
+            }
+        }
+    }
+
+    private void fetch(ScheduledFetch scheduledFetch) {
+        DomainRateController rateController = scheduledFetch.rateController;
+        FetchSource source = scheduledFetch.source;
+        if (source.isFinished()) {
+            scheduledFetch.cancel();
+            return;
+        }
+        if (!source.isReady()) {
+            long now = System.nanoTime();
+            reschedule(scheduledFetch, Math.max(rateController.getNextFetchTime(now, BUSY_DOMAIN_RECHECK_INTERVAL),
+                    now + BUSY_DOMAIN_RECHECK_INTERVAL));
+            return;
+        }
+
+        long startTime = System.nanoTime();
+        if (!rateController.tryStartFetch(startTime)) {
+            reschedule(scheduledFetch, rateController.getNextFetchTime(startTime, BUSY_DOMAIN_RECHECK_INTERVAL));
+            return;
+        }
+
+        Optional<CompletableFuture<FetchedPage>> pendingFetch;
+        try {
+            pendingFetch = source.fetchNext();
+        } catch (RuntimeException e) {
+            LOGGER.error("Fetch on domain {} failed, removing it from the schedule: {}", scheduledFetch.domain, e);
+            rateController.abandonFetch(System.nanoTime());
+            scheduledFetch.cancel();
+            return;
+        }
+
+        if (pendingFetch.isPresent()) {
+            pendingFetch.get().whenComplete((fetchedPage, throwable) -> {
+                long now = System.nanoTime();
+                rateController.finishFetch(now, now - startTime, fetchedPage, throwable);
+            });
+            reschedule(scheduledFetch, rateController.getNextFetchTime(System.nanoTime(), BUSY_DOMAIN_RECHECK_INTERVAL));
+        } else {
+            long now = System.nanoTime();
+            rateController.abandonFetch(now);
+            reschedule(scheduledFetch, now + BUSY_DOMAIN_RECHECK_INTERVAL);
+        }
+    }
+
+    private void reschedule(ScheduledFetch scheduledFetch, long eligibleAt) {
+        if (!scheduledFetch.isCancelled()) {
+            scheduledFetch.eligibleAt = eligibleAt;
+            eligibleFetches.put(scheduledFetch);
+        }
+    }
+
+    private static final class UnthrottledHolder {
+        private static final FetchScheduler instance = new FetchScheduler(DEFAULT_NUMBER_OF_FETCHERS, false);
+    }
+
+    public static final class ScheduledFetch implements Delayed {
+        private final String domain;
+        private final DomainRateController rateController;
+        private final FetchSource source;
+        private volatile long eligibleAt;
+        private volatile boolean cancelled;
+
+        private ScheduledFetch(String domain, DomainRateController rateController, FetchSource source) {
+            this.domain = domain;
+            this.rateController = rateController;
+            this.source = source;
+        }
+
+        public void cancel() {
+            this.cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(eligibleAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package me.mircea.licenta.scraper.fetch;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The frontier of a job, as seen by the {@link FetchScheduler}.
+ */
+public interface FetchSource {
+    /**
+     * Starts fetching the next page of the source. Each call should make at most one request, so that the
+     * scheduler can pace the requests and learn from their responses.
+     * @return The pending fetch, or empty if the source has nothing to fetch for now.
+     */
+    Optional<CompletableFuture<FetchedPage>> fetchNext();
+
+    /**
+     * @return False if the source is backed up, or waiting on fetches in flight, and should not be fetched from for now.
+     */
+    default boolean isReady() {
+        return true;
+    }
+
+    /**
+     * @return True once the source will never have anything to fetch again.
+     */
+    boolean isFinished();
+}
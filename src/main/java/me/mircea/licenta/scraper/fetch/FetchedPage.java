@@ -0,0 +1,86 @@
+package me.mircea.licenta.scraper.fetch;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Immutable raw HTTP response of a page, as it came over the wire.
+ */
+public class FetchedPage {
+    private final String url;
+    private final int statusCode;
+    private final Map<String, String> headers;
+    private final byte[] body;
+    private final String charset;
+    private final Instant retrievedTime;
+
+    public FetchedPage(String url, int statusCode, Map<String, String> headers, byte[] body, String charset, Instant retrievedTime) {
+        Preconditions.checkNotNull(url);
+        Preconditions.checkNotNull(headers);
+        Preconditions.checkNotNull(body);
+        Preconditions.checkNotNull(retrievedTime);
+
+        this.url = url;
+        this.statusCode = statusCode;
+        this.headers = ImmutableMap.copyOf(headers);
+        this.body = body;
+        this.charset = charset;
+        this.retrievedTime = retrievedTime;
+    }
+
+    public boolean isSuccessful() {
+        return statusCode >= 200 && statusCode < 300;
+    }
+
+    /**
+     * @return True if the server answered a conditional request saying that the page did not change.
+     */
+    public boolean isNotModified() {
+        return statusCode == 304;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * @return The body of the response. The array is shared, so it must not be modified.
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * @return The charset declared by the server, or null if it should be detected from the body.
+     */
+    public String getCharset() {
+        return charset;
+    }
+
+    public Instant getRetrievedTime() {
+        return retrievedTime;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("FetchedPage [url=").append(url);
+        builder.append(", statusCode=").append(statusCode);
+        builder.append(", bodyLength=").append(body.length);
+        builder.append(", charset=").append(charset);
+        builder.append(", retrievedTime=").append(retrievedTime);
+        builder.append("]");
+        return builder.toString();
+    }
+}
@@ -0,0 +1,44 @@
+package me.mircea.licenta.scraper.fetch;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Layout shared by the writer and the reader of page archives.
+ */
+final class PageArchive {
+    static final String CRLF = "\r\n";
+    static final String WARC_VERSION = "WARC/1.0";
+    static final String DATE = "WARC-Date";
+    static final String TARGET_URI = "WARC-Target-URI";
+    static final String REQUESTED_URI = "WARC-Scraper-Requested-URI";
+    static final String CHARSET = "WARC-Scraper-Charset";
+    static final String CONTENT_LENGTH = "Content-Length";
+
+    static final String SEGMENT_PREFIX = "archive-";
+    static final String SEGMENT_EXTENSION = ".warc.gz";
+    static final String INDEX_EXTENSION = ".idx";
+
+    private PageArchive() {
+    }
+
+    static String getSegmentName(int segmentNumber) {
+        return String.format("%s%05d%s", SEGMENT_PREFIX, segmentNumber, SEGMENT_EXTENSION);
+    }
+
+    /**
+     * @return The names of the segments in the directory, in the order they were written.
+     */
+    static List<String> listSegments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_EXTENSION))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package me.mircea.licenta.scraper.fetch;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads back the responses of an archive written by {@link PageArchiveWriter}. The indexes of all the segments are
+ * loaded up front, so each response is then read with a single positioned read. When a url was archived more than
+ * once, its latest response is the one served.
+ */
+class PageArchiveReader implements AutoCloseable {
+    private final Path directory;
+    private final Map<String, RecordLocation> index;
+    private final Map<String, FileChannel> segments;
+
+    PageArchiveReader(Path directory) throws IOException {
+        Preconditions.checkNotNull(directory);
+        this.directory = directory;
+        this.index = new HashMap<>();
+        this.segments = new ConcurrentHashMap<>();
+
+        for (String segmentName : PageArchive.listSegments(directory)) {
+            Path indexFile = directory.resolve(segmentName + PageArchive.INDEX_EXTENSION);
+            if (!Files.exists(indexFile)) {
+                continue;
+            }
+            for (String line : Files.readAllLines(indexFile, StandardCharsets.UTF_8)) {
+                String[] fields = line.split("\t");
+                if (fields.length == 4) {
+                    index.put(fields[0], new RecordLocation(fields[1], Long.parseLong(fields[2]), Integer.parseInt(fields[3])));
+                }
+            }
+        }
+    }
+
+    int size() {
+        return index.size();
+    }
+
+    Set<String> getUrls() {
+        return Collections.unmodifiableSet(index.keySet());
+    }
+
+    /**
+     * @return The archived response of the url, or empty if it was never archived.
+     */
+    Optional<FetchedPage> read(String requestedUrl) throws IOException {
+        RecordLocation location = index.get(requestedUrl);
+        if (location == null) {
+            return Optional.empty();
+        }
+
+        FileChannel segment = getSegment(location.segmentName);
+        ByteBuffer buffer = ByteBuffer.allocate(location.length);
+        while (buffer.hasRemaining()) {
+            if (segment.read(buffer, location.offset + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of segment " + location.segmentName);
+            }
+        }
+
+        try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(buffer.array()))) {
+            return Optional.of(decode(ByteStreams.toByteArray(input)));
+        }
+    }
+
+    private FileChannel getSegment(String segmentName) throws IOException {
+        FileChannel segment = segments.get(segmentName);
+        if (segment == null) {
+            synchronized (segments) {
+                segment = segments.get(segmentName);
+                if (segment == null) {
+                    segment = FileChannel.open(directory.resolve(segmentName), StandardOpenOption.READ);
+                    segments.put(segmentName, segment);
+                }
+            }
+        }
+        return segment;
+    }
+
+    private static FetchedPage decode(byte[] record) throws IOException {
+        int[] position = {0};
+        if (!PageArchive.WARC_VERSION.equals(readLine(record, position))) {
+            throw new IOException("Not a WARC record");
+        }
+        Map<String, String> warcFields = readFields(record, position);
+        int blockStart = position[0];
+        int blockLength = Integer.parseInt(warcFields.get(PageArchive.CONTENT_LENGTH));
+
+        String statusLine = readLine(record, position);
+        String[] status = statusLine.split(" ");
+        if (status.length < 2) {
+            throw new IOException("Malformed status line " + statusLine);
+        }
+        Map<String, String> headers = readFields(record, position);
+        byte[] body = Arrays.copyOfRange(record, position[0], blockStart + blockLength);
+
+        return new FetchedPage(warcFields.get(PageArchive.TARGET_URI),
+                Integer.parseInt(status[1]),
+                headers,
+                body,
+                warcFields.get(PageArchive.CHARSET),
+                Instant.parse(warcFields.get(PageArchive.DATE)));
+    }
+
+    private static Map<String, String> readFields(byte[] record, int[] position) throws IOException {
+        Map<String, String> fields = new LinkedHashMap<>();
+        for (String line = readLine(record, position); !line.isEmpty(); line = readLine(record, position)) {
+            int separator = line.indexOf(':');
+            if (separator < 0) {
+                throw new IOException("Malformed header line " + line);
+            }
+            fields.put(line.substring(0, separator), line.substring(separator + 1).trim());
+        }
+        return fields;
+    }
+
+    private static String readLine(byte[] record, int[] position) throws IOException {
+        int start = position[0];
+        for (int i = start; i + 1 < record.length; ++i) {
+            if (record[i] == '\r' && record[i + 1] == '\n') {
+                position[0] = i + 2;
+                return new String(record, start, i - start, StandardCharsets.UTF_8);
+            }
+        }
+        throw new IOException("Unexpected end of record");
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (FileChannel segment : segments.values()) {
+            segment.close();
+        }
+        segments.clear();
+    }
+
+    private static final class RecordLocation {
+        private final String segmentName;
+        private final long offset;
+        private final int length;
+
+        private RecordLocation(String segmentName, long offset, int length) {
+            this.segmentName = segmentName;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package me.mircea.licenta.scraper.fetch;
+
+import com.google.common.base.Preconditions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Appends responses to an archive on local disk, in the manner of WARC: each response is a WARC/1.0 response
+ * record compressed as a gzip member of its own, so a segment can be read by any WARC tool, and each segment
+ * file has a line-per-record index next to it giving the url it was requested with and where its record starts.
+ * Segments are never rewritten; a new one is started once the current one grows past its size.
+ */
+class PageArchiveWriter implements AutoCloseable {
+    private static final long SEGMENT_SIZE = 128L * 1024 * 1024;
+
+    private final Path directory;
+    private FileChannel segment;
+    private Writer index;
+    private String segmentName;
+    private long segmentSize;
+    private int segmentCount;
+
+    PageArchiveWriter(Path directory) throws IOException {
+        Preconditions.checkNotNull(directory);
+        this.directory = Files.createDirectories(directory);
+        this.segmentCount = PageArchive.listSegments(directory).size();
+    }
+
+    /**
+     * @param requestedUrl The url the page was requested with, which may differ from the one it was served from.
+     */
+    void append(String requestedUrl, FetchedPage fetchedPage) throws IOException {
+        byte[] record = compress(encode(requestedUrl, fetchedPage));
+
+        synchronized (this) {
+            if (segment == null || segmentSize >= SEGMENT_SIZE) {
+                startSegment();
+            }
+
+            long offset = segmentSize;
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            while (buffer.hasRemaining()) {
+                segment.write(buffer);
+            }
+            segmentSize += record.length;
+
+            index.write(requestedUrl + '\t' + segmentName + '\t' + offset + '\t' + record.length + '\n');
+            index.flush();
+        }
+    }
+
+    private void startSegment() throws IOException {
+        closeSegment();
+
+        segmentName = PageArchive.getSegmentName(segmentCount++);
+        segment = FileChannel.open(directory.resolve(segmentName), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        index = Files.newBufferedWriter(directory.resolve(segmentName + PageArchive.INDEX_EXTENSION),
+                StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        segmentSize = 0;
+    }
+
+    private void closeSegment() throws IOException {
+        if (segment != null) {
+            segment.close();
+            index.close();
+            segment = null;
+            index = null;
+        }
+    }
+
+    private static byte[] encode(String requestedUrl, FetchedPage fetchedPage) {
+        StringBuilder httpHeader = new StringBuilder();
+        httpHeader.append("HTTP/1.1 ").append(fetchedPage.getStatusCode()).append(PageArchive.CRLF);
+        for (Map.Entry<String, String> header : fetchedPage.getHeaders().entrySet()) {
+            appendField(httpHeader, header.getKey(), header.getValue());
+        }
+        httpHeader.append(PageArchive.CRLF);
+        byte[] httpHeaderBytes = httpHeader.toString().getBytes(StandardCharsets.UTF_8);
+
+        StringBuilder warcHeader = new StringBuilder();
+        warcHeader.append(PageArchive.WARC_VERSION).append(PageArchive.CRLF);
+        appendField(warcHeader, "WARC-Type", "response");
+        appendField(warcHeader, "WARC-Record-ID", "<urn:uuid:" + UUID.randomUUID() + ">");
+        appendField(warcHeader, PageArchive.DATE, fetchedPage.getRetrievedTime().toString());
+        appendField(warcHeader, PageArchive.TARGET_URI, fetchedPage.getUrl());
+        appendField(warcHeader, PageArchive.REQUESTED_URI, requestedUrl);
+        if (fetchedPage.getCharset() != null) {
+            appendField(warcHeader, PageArchive.CHARSET, fetchedPage.getCharset());
+        }
+        appendField(warcHeader, "Content-Type", "application/http; msgtype=response");
+        appendField(warcHeader, PageArchive.CONTENT_LENGTH,
+                String.valueOf(httpHeaderBytes.length + fetchedPage.getBody().length));
+        warcHeader.append(PageArchive.CRLF);
+        byte[] warcHeaderBytes = warcHeader.toString().getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream(
+                warcHeaderBytes.length + httpHeaderBytes.length + fetchedPage.getBody().length + 4);
+        record.write(warcHeaderBytes, 0, warcHeaderBytes.length);
+        record.write(httpHeaderBytes, 0, httpHeaderBytes.length);
+        record.write(fetchedPage.getBody(), 0, fetchedPage.getBody().length);
+        byte[] trailer = (PageArchive.CRLF + PageArchive.CRLF).getBytes(StandardCharsets.ISO_8859_1);
+        record.write(trailer, 0, trailer.length);
+        return record.toByteArray();
+    }
+
+    private static void appendField(StringBuilder header, String name, String value) {
+        // Line breaks inside a value would end the header early
+        header.append(name).append(": ").append(value.replace('\r', ' ').replace('\n', ' ')).append(PageArchive.CRLF);
+    }
+
+    private static byte[] compress(byte[] record) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(record.length / 4 + 64);
+        try (OutputStream output = new GZIPOutputStream(compressed)) {
+            output.write(record);
+        }
+        return compressed.toByteArray();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeSegment();
+    }
+}
@@ -0,0 +1,43 @@
+package me.mircea.licenta.scraper.fetch;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Retrieves the raw content of a page without blocking the caller.
+ */
+public interface PageFetcher extends AutoCloseable {
+    /**
+     * The largest body of a page that is extracted. Fetchers read one byte past it, so that a larger body is seen
+     * to be over the limit instead of being cut down to it.
+     */
+    int MAX_PAGE_BYTES = 8 * 1024 * 1024;
+
+    /**
+     * @return A future of the response, completed exceptionally if the page could not be retrieved at all.
+     */
+    default CompletableFuture<FetchedPage> fetch(String url) {
+        return fetch(url, Collections.emptyMap());
+    }
+
+    /**
+     * @param requestHeaders Extra headers sent with the request, such as those of a conditional request.
+     * @return A future of the response, completed exceptionally if the page could not be retrieved at all.
+     */
+    CompletableFuture<FetchedPage> fetch(String url, Map<String, String> requestHeaders);
+
+    /**
+     * @return False if the pages do not come from the sites themselves, so there is no need to be polite to them.
+     */
+    default boolean isRemote() {
+        return true;
+    }
+
+    /**
+     * Releases whatever the fetcher holds for the job using it. Fetchers shared between jobs do nothing.
+     */
+    @Override
+    default void close() {
+    }
+}
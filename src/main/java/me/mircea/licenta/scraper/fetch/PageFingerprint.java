@@ -0,0 +1,152 @@
+package me.mircea.licenta.scraper.fetch;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * What is known about the last version of a page that was extracted: the validators sent by its server, a hash of
+ * its content and the isbn of the book found on it. Used to ask the server only for changes, to skip pages whose
+ * content did not change, and to tell which book a card of a listing page links to.
+ */
+@Entity
+public class PageFingerprint {
+    private static final String ETAG = "ETag";
+    private static final String LAST_MODIFIED = "Last-Modified";
+    private static final String IF_NONE_MATCH = "If-None-Match";
+    private static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    @Id
+    private String url;
+    private String etag;
+    private String lastModified;
+    private String contentHash;
+    private Instant retrievedTime;
+    private String isbn;
+
+    public PageFingerprint() {
+    }
+
+    public PageFingerprint(String url, String etag, String lastModified, String contentHash, Instant retrievedTime) {
+        Preconditions.checkNotNull(url);
+        Preconditions.checkNotNull(contentHash);
+        Preconditions.checkNotNull(retrievedTime);
+
+        this.url = url;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.contentHash = contentHash;
+        this.retrievedTime = retrievedTime;
+    }
+
+    /**
+     * @param url The url the page is known by in the crawl frontier, which may differ from the one it was served from.
+     */
+    public static PageFingerprint of(String url, FetchedPage fetchedPage) {
+        Preconditions.checkNotNull(fetchedPage);
+        return new PageFingerprint(url,
+                getHeaderIgnoringCase(fetchedPage.getHeaders(), ETAG),
+                getHeaderIgnoringCase(fetchedPage.getHeaders(), LAST_MODIFIED),
+                Hashing.sha256().hashBytes(fetchedPage.getBody()).toString(),
+                fetchedPage.getRetrievedTime());
+    }
+
+    /**
+     * @return Only the validators among the headers of a response, which are all a fingerprint is made of.
+     */
+    public static Map<String, String> retainValidators(Map<String, String> headers) {
+        Preconditions.checkNotNull(headers);
+
+        ImmutableMap.Builder<String, String> validators = ImmutableMap.builder();
+        String etag = getHeaderIgnoringCase(headers, ETAG);
+        if (etag != null) {
+            validators.put(ETAG, etag);
+        }
+        String lastModified = getHeaderIgnoringCase(headers, LAST_MODIFIED);
+        if (lastModified != null) {
+            validators.put(LAST_MODIFIED, lastModified);
+        }
+        return validators.build();
+    }
+
+    /**
+     * @return The headers that make a request for this page conditional on it having changed.
+     */
+    public Map<String, String> getConditionalHeaders() {
+        ImmutableMap.Builder<String, String> headers = ImmutableMap.builder();
+        if (etag != null) {
+            headers.put(IF_NONE_MATCH, etag);
+        }
+        if (lastModified != null) {
+            headers.put(IF_MODIFIED_SINCE, lastModified);
+        }
+        return headers.build();
+    }
+
+    public boolean hasSameContentAs(PageFingerprint other) {
+        return other != null && contentHash.equals(other.contentHash);
+    }
+
+    public boolean hasSameValidatorsAs(PageFingerprint other) {
+        return other != null && Objects.equals(etag, other.etag) && Objects.equals(lastModified, other.lastModified);
+    }
+
+    private static String getHeaderIgnoringCase(Map<String, String> headers, String name) {
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public Instant getRetrievedTime() {
+        return retrievedTime;
+    }
+
+    /**
+     * @return The isbn of the book found on the page, or null if no book was found on it.
+     */
+    public String getIsbn() {
+        return isbn;
+    }
+
+    public void setIsbn(String isbn) {
+        this.isbn = isbn;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("PageFingerprint [url=").append(url);
+        builder.append(", etag=").append(etag);
+        builder.append(", lastModified=").append(lastModified);
+        builder.append(", contentHash=").append(contentHash);
+        builder.append(", retrievedTime=").append(retrievedTime);
+        builder.append(", isbn=").append(isbn);
+        builder.append("]");
+        return builder.toString();
+    }
+}
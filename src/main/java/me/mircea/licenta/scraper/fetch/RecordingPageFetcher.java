@@ -0,0 +1,57 @@
+package me.mircea.licenta.scraper.fetch;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Fetches pages through another fetcher, archiving every response on its way to the caller, so that the job can
+ * later be replayed with a {@link ReplayPageFetcher}.
+ */
+public class RecordingPageFetcher implements PageFetcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RecordingPageFetcher.class);
+
+    private final PageFetcher fetcher;
+    private final PageArchiveWriter archive;
+
+    /**
+     * @param directory The directory of the archive, created if needed. Responses are appended to whatever it already holds.
+     */
+    public RecordingPageFetcher(PageFetcher fetcher, Path directory) throws IOException {
+        Preconditions.checkNotNull(fetcher);
+        this.fetcher = fetcher;
+        this.archive = new PageArchiveWriter(directory);
+    }
+
+    @Override
+    public CompletableFuture<FetchedPage> fetch(String url, Map<String, String> requestHeaders) {
+        return fetcher.fetch(url, requestHeaders).thenApply(fetchedPage -> {
+            try {
+                archive.append(url, fetchedPage);
+            } catch (IOException e) {
+                LOGGER.warn("Could not archive {}: {}", url, e);
+            }
+            return fetchedPage;
+        });
+    }
+
+    @Override
+    public boolean isRemote() {
+        return fetcher.isRemote();
+    }
+
+    @Override
+    public void close() {
+        try {
+            archive.close();
+        } catch (IOException e) {
+            LOGGER.warn("Could not close the archive: {}", e);
+        }
+        fetcher.close();
+    }
+}
@@ -0,0 +1,90 @@
+package me.mircea.licenta.scraper.fetch;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves pages from an archive written by a {@link RecordingPageFetcher} instead of the network, so that a job can be
+ * run again offline, as fast as it can be processed and with the same responses every time. Pages missing from the
+ * archive fail as if they could not be reached. Request headers are ignored, so conditional requests are answered
+ * with the archived response in full. Responses are read on a small pool of their own, so that a slow disk does not
+ * hold up the thread that scheduled the fetch.
+ */
+public class ReplayPageFetcher implements PageFetcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplayPageFetcher.class);
+    private static final int NUMBER_OF_READERS = 4;
+    private static final ExecutorService READERS = Executors.newFixedThreadPool(NUMBER_OF_READERS,
+            new ThreadFactoryBuilder().setNameFormat("archive-reader-%d").setDaemon(true).build());
+
+    private final PageArchiveReader archive;
+
+    /**
+     * @throws NoSuchFileException If there is no archive in the directory.
+     */
+    public ReplayPageFetcher(Path directory) throws IOException {
+        Preconditions.checkNotNull(directory);
+        if (!Files.isDirectory(directory)) {
+            throw new NoSuchFileException(directory.toString(), null, "No archive to replay");
+        }
+
+        this.archive = new PageArchiveReader(directory);
+        LOGGER.info("Replaying {} archived pages from {}", archive.size(), directory);
+    }
+
+    /**
+     * @return The urls with a response in the archive.
+     */
+    public Set<String> getArchivedUrls() {
+        return archive.getUrls();
+    }
+
+    @Override
+    public CompletableFuture<FetchedPage> fetch(String url, Map<String, String> requestHeaders) {
+        Preconditions.checkNotNull(url);
+
+        return CompletableFuture.supplyAsync(() -> read(url), READERS);
+    }
+
+    /**
+     * Reads the archived response on the calling thread, for callers that already run on their own workers.
+     * @return The archived response for the url.
+     * @throws UncheckedIOException If the url is not in the archive or its response could not be read.
+     */
+    public FetchedPage read(String url) {
+        Preconditions.checkNotNull(url);
+
+        try {
+            return archive.read(url).orElseThrow(() -> new FileNotFoundException("Not in the archive: " + url));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public boolean isRemote() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        try {
+            archive.close();
+        } catch (IOException e) {
+            LOGGER.warn("Could not close the archive: {}", e);
+        }
+    }
+}
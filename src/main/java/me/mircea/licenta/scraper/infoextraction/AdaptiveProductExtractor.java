@@ -0,0 +1,248 @@
+package me.mircea.licenta.scraper.infoextraction;
+
+import com.google.common.base.Preconditions;
+import me.mircea.licenta.products.db.model.PricePoint;
+import me.mircea.licenta.products.db.model.Product;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.function.Predicate;
+
+/**
+ * Chooses, for the pages of a domain, the cheapest of several extraction strategies which finds about as many
+ * offers as the best of them. The first pages are sampled: every strategy extracts each of them, keeping score of
+ * the offers it finds and of the cpu time it takes. The cheapest strategy whose yield is within
+ * {@link #YIELD_TOLERANCE} of the best yield then extracts the next pages on its own, until the strategies are
+ * sampled again, every {@link #RECHECK_INTERVAL} pages, in case the shop changed its pages.
+ * <p>
+ * A sampled page is extracted with the first strategy, in the given order, which finds an offer on it, so
+ * sampling never loses an offer. If no strategy finds any offer in a sample, the last strategy, expected to be the
+ * most thorough, is kept.
+ */
+public class AdaptiveProductExtractor implements ProductExtractor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdaptiveProductExtractor.class);
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    static final int SAMPLE_SIZE = 30;
+    static final int RECHECK_INTERVAL = 1_000;
+    static final double YIELD_TOLERANCE = 0.05;
+
+    private final String domain;
+    private final List<Strategy> strategies;
+    private final Predicate<SimpleImmutableEntry<Product, PricePoint>> isOffer;
+
+    private volatile Strategy chosenStrategy;
+    private int round;
+    private int noPagesSampled;
+    private int noPagesSinceChoice;
+
+    /**
+     * @param strategies The extractors to choose from by their names, from the one expected to be the cheapest to
+     *                   the one expected to be the most thorough.
+     * @param isOffer    Whether a product and price point extracted from a page make up an offer worth keeping.
+     */
+    public AdaptiveProductExtractor(String domain, Map<String, ProductExtractor> strategies,
+                                    Predicate<SimpleImmutableEntry<Product, PricePoint>> isOffer) {
+        Preconditions.checkNotNull(domain);
+        Preconditions.checkArgument(!strategies.isEmpty());
+        Preconditions.checkNotNull(isOffer);
+
+        this.domain = domain;
+        this.strategies = new ArrayList<>(strategies.size());
+        strategies.forEach((name, extractor) -> this.strategies.add(new Strategy(name, extractor)));
+        this.isOffer = isOffer;
+        // A single strategy need not be sampled
+        this.chosenStrategy = (this.strategies.size() == 1) ? this.strategies.get(0) : null;
+    }
+
+    @Override
+    public SimpleImmutableEntry<Product, PricePoint> extractProductOffer(Document productPage, Locale locale) {
+        Preconditions.checkNotNull(productPage);
+
+        Strategy strategy;
+        int sampleRound;
+        synchronized (this) {
+            strategy = getStrategyOfNextPage();
+            sampleRound = round;
+        }
+        if (strategy != null) {
+            return strategy.extractor.extractProductOffer(productPage, locale);
+        }
+
+        SimpleImmutableEntry<Product, PricePoint> chosenOffer = null;
+        long[] cpuTimes = new long[strategies.size()];
+        boolean[] foundOffers = new boolean[strategies.size()];
+        for (int i = 0; i < strategies.size(); ++i) {
+            long start = currentCpuTime();
+            SimpleImmutableEntry<Product, PricePoint> productOffer = strategies.get(i).extractor.extractProductOffer(productPage, locale);
+            cpuTimes[i] = currentCpuTime() - start;
+            foundOffers[i] = isOffer.test(productOffer);
+
+            if (chosenOffer == null && (foundOffers[i] || i == strategies.size() - 1)) {
+                chosenOffer = productOffer;
+            }
+        }
+
+        recordSample(sampleRound, cpuTimes, foundOffers);
+        return chosenOffer;
+    }
+
+    @Override
+    public Product extract(Document productPage) {
+        return getCurrentExtractor().extract(productPage);
+    }
+
+    @Override
+    public PricePoint extractPricePoint(Element productPage, Locale locale) {
+        return getCurrentExtractor().extractPricePoint(productPage, locale);
+    }
+
+    @Override
+    public Map<String, String> extractAttributes(Element productPage) {
+        return getCurrentExtractor().extractAttributes(productPage);
+    }
+
+    @Override
+    public String extractAvailability(Document productPage) {
+        return getCurrentExtractor().extractAvailability(productPage);
+    }
+
+    @Override
+    public String extractDescription(Document productPage) {
+        return getCurrentExtractor().extractDescription(productPage);
+    }
+
+    @Override
+    public String extractImageUrl(Element htmlElement) {
+        return getCurrentExtractor().extractImageUrl(htmlElement);
+    }
+
+    @Override
+    public Set<String> extractKeywords(String... values) {
+        return getCurrentExtractor().extractKeywords(values);
+    }
+
+    /**
+     * @return The name of the strategy extracting the pages of the domain on its own, or empty while sampling.
+     */
+    public Optional<String> getChosenStrategy() {
+        Strategy strategy = chosenStrategy;
+        return (strategy != null) ? Optional.of(strategy.name) : Optional.empty();
+    }
+
+    /**
+     * The extractor of the single fields is the chosen one or, while sampling, the most thorough one.
+     */
+    private ProductExtractor getCurrentExtractor() {
+        Strategy strategy = chosenStrategy;
+        return (strategy != null) ? strategy.extractor : strategies.get(strategies.size() - 1).extractor;
+    }
+
+    /**
+     * @return The strategy extracting the next page on its own, or null if the page is to be sampled.
+     */
+    private Strategy getStrategyOfNextPage() {
+        if (chosenStrategy != null) {
+            if (strategies.size() == 1 || ++noPagesSinceChoice < RECHECK_INTERVAL) {
+                return chosenStrategy;
+            }
+            startSampling();
+        }
+        return null;
+    }
+
+    private void startSampling() {
+        LOGGER.info("Sampling the extraction strategies again on domain {}", domain);
+        chosenStrategy = null;
+        ++round;
+        noPagesSampled = 0;
+        noPagesSinceChoice = 0;
+        strategies.forEach(Strategy::resetScore);
+    }
+
+    /**
+     * Samples of a previous round, which finished while the page was extracted, are dropped.
+     */
+    private synchronized void recordSample(int sampleRound, long[] cpuTimes, boolean[] foundOffers) {
+        if (sampleRound != round || chosenStrategy != null) {
+            return;
+        }
+
+        for (int i = 0; i < strategies.size(); ++i) {
+            strategies.get(i).recordPage(cpuTimes[i], foundOffers[i]);
+        }
+        if (++noPagesSampled >= SAMPLE_SIZE) {
+            chooseStrategy();
+        }
+    }
+
+    private void chooseStrategy() {
+        int bestYield = 0;
+        for (Strategy strategy : strategies) {
+            bestYield = Math.max(bestYield, strategy.noOffersFound);
+        }
+
+        Strategy cheapest = strategies.get(strategies.size() - 1);
+        if (bestYield > 0) {
+            cheapest = null;
+            for (Strategy strategy : strategies) {
+                boolean meetsYield = strategy.noOffersFound >= (1 - YIELD_TOLERANCE) * bestYield;
+                if (meetsYield && (cheapest == null || strategy.cpuTime < cheapest.cpuTime)) {
+                    cheapest = strategy;
+                }
+            }
+        }
+
+        chosenStrategy = cheapest;
+        if (LOGGER.isInfoEnabled()) {
+            StringJoiner scores = new StringJoiner(", ");
+            strategies.forEach(strategy -> scores.add(strategy.toString()));
+            LOGGER.info("Chose extraction strategy {} on domain {} out of {}", cheapest.name, domain, scores);
+        }
+    }
+
+    /**
+     * @return The cpu time of the current thread in nanoseconds, or the wall time if the jvm does not measure it.
+     */
+    private static long currentCpuTime() {
+        return THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported() ? THREAD_MX_BEAN.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    /**
+     * An extractor and its score over the pages sampled in the current round.
+     */
+    private static final class Strategy {
+        private final String name;
+        private final ProductExtractor extractor;
+        private int noOffersFound;
+        private long cpuTime;
+
+        private Strategy(String name, ProductExtractor extractor) {
+            this.name = Preconditions.checkNotNull(name);
+            this.extractor = Preconditions.checkNotNull(extractor);
+        }
+
+        private void recordPage(long cpuTime, boolean foundOffer) {
+            this.cpuTime += cpuTime;
+            if (foundOffer) {
+                ++noOffersFound;
+            }
+        }
+
+        private void resetScore() {
+            noOffersFound = 0;
+            cpuTime = 0;
+        }
+
+        @Override
+        public String toString() {
+            return name + " (" + noOffersFound + " offers in " + cpuTime / 1_000_000 + " ms)";
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package me.mircea.licenta.scraper.infoextraction;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import me.mircea.licenta.core.crawl.db.model.Selector;
+import me.mircea.licenta.core.crawl.db.model.Wrapper;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Collector;
+import org.jsoup.select.Elements;
+import org.jsoup.select.Evaluator;
+import org.jsoup.select.QueryParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Immutable plan of a wrapper, built once per extractor: the selector of every field is looked up once, and its
+ * CSS query is parsed once into an evaluator which is then run directly on each page.
+ */
+final class CompiledWrapper {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CompiledWrapper.class);
+
+    private final ImmutableMap<String, Selector> selectorsByField;
+    private final ImmutableMap<String, Evaluator> evaluatorsByField;
+
+    /**
+     * @param fields The names of the fields extracted with the wrapper.
+     */
+    CompiledWrapper(Wrapper wrapper, Collection<String> fields) {
+        Preconditions.checkNotNull(wrapper);
+        Preconditions.checkNotNull(fields);
+
+        ImmutableMap.Builder<String, Selector> selectors = ImmutableMap.builder();
+        ImmutableMap.Builder<String, Evaluator> evaluators = ImmutableMap.builder();
+        for (String field : fields) {
+            Optional<Selector> possibleSelector = wrapper.getSelectorByName(field);
+            if (!possibleSelector.isPresent()) {
+                continue;
+            }
+
+            Selector selector = possibleSelector.get();
+            selectors.put(field, selector);
+            if (selector.getQuery() != null) {
+                try {
+                    evaluators.put(field, QueryParser.parse(selector.getQuery()));
+                } catch (org.jsoup.select.Selector.SelectorParseException e) {
+                    LOGGER.warn("Could not compile the query of field {}: {}", field, e);
+                }
+            }
+        }
+
+        this.selectorsByField = selectors.build();
+        this.evaluatorsByField = evaluators.build();
+    }
+
+    /**
+     * Builds the plan of a wrapper induced from pages of its domain, which has no selectors, only their queries.
+     * @param queriesByField The CSS query of each field. Fields whose queries do not compile are left out.
+     */
+    CompiledWrapper(Map<String, String> queriesByField) {
+        Preconditions.checkNotNull(queriesByField);
+
+        ImmutableMap.Builder<String, Evaluator> evaluators = ImmutableMap.builder();
+        queriesByField.forEach((field, query) -> {
+            try {
+                evaluators.put(field, QueryParser.parse(query));
+            } catch (org.jsoup.select.Selector.SelectorParseException e) {
+                LOGGER.warn("Could not compile the induced query of field {}: {}", field, e);
+            }
+        });
+
+        this.selectorsByField = ImmutableMap.of();
+        this.evaluatorsByField = evaluators.build();
+    }
+
+    Optional<Selector> getSelector(String field) {
+        return Optional.ofNullable(selectorsByField.get(field));
+    }
+
+    boolean hasField(String field) {
+        return selectorsByField.containsKey(field) || evaluatorsByField.containsKey(field);
+    }
+
+    /**
+     * The element is found with the compiled query, then its value is read by the selector of the field, so that the
+     * rules of the core library for meta tags, images and text still decide it. The selector matches the element
+     * itself first, as it is the root of its own search. The fields of an induced wrapper have no selector, so their
+     * values are the content of meta tags, the absolute source of images and the text of other elements.
+     * @return The value of the first element matching the query of the field, or null if there is none.
+     */
+    String selectFirstValue(String field, Element root) {
+        Selector selector = selectorsByField.get(field);
+        Evaluator evaluator = evaluatorsByField.get(field);
+        if (evaluator == null) {
+            // A query which could not be compiled is left to its selector, which fails on it the same way it did before
+            return (selector != null) ? selector.selectFirstFromElement(root) : null;
+        }
+
+        Element element = Collector.findFirst(evaluator, root);
+        if (element == null) {
+            return null;
+        } else if (selector != null) {
+            return selector.selectFirstFromElement(element);
+        } else if (element.tagName().equals("meta")) {
+            return element.attr("content");
+        } else if (element.tagName().equals("img")) {
+            return element.absUrl("src");
+        } else {
+            return element.text();
+        }
+    }
+
+    /**
+     * @return The first element matching the query of the field, or null if there is none.
+     */
+    Element selectFirst(String field, Element root) {
+        Evaluator evaluator = evaluatorsByField.get(field);
+        if (evaluator != null) {
+            return Collector.findFirst(evaluator, root);
+        }
+        // A query which could not be compiled fails here the same way it did before
+        return root.selectFirst(selectorsByField.get(field).getQuery());
+    }
+
+    /**
+     * @return Every element matching the query of the field.
+     */
+    Elements select(String field, Element root) {
+        Evaluator evaluator = evaluatorsByField.get(field);
+        if (evaluator != null) {
+            return Collector.collect(evaluator, root);
+        }
+        return root.select(selectorsByField.get(field).getQuery());
+    }
+}
@@ -0,0 +1,140 @@
+package me.mircea.licenta.scraper.infoextraction;
+
+import com.google.common.base.Preconditions;
+
+import java.time.Duration;
+
+/**
+ * The time and text length allowed to the extraction of a page by the current thread. The extractors check it
+ * from their own loops over the page, including the regular expressions they match against its text, so that a
+ * pathological page fails fast with an {@link ExceededException} instead of pinning its worker for seconds.
+ * A thread which did not start a budget extracts without limits.
+ */
+public final class ExtractionBudget {
+    private static final ExtractionBudget UNLIMITED = new ExtractionBudget(Long.MAX_VALUE, Integer.MAX_VALUE, false);
+    private static final ThreadLocal<ExtractionBudget> CURRENT = new ThreadLocal<>();
+
+    /**
+     * The number of checkpoints passed between two readings of the clock.
+     */
+    private static final int CHECK_INTERVAL = 1_024;
+
+    private final long deadline;
+    private final int maxTextLength;
+    private final boolean limited;
+    private int noCheckpoints;
+
+    private ExtractionBudget(long deadline, int maxTextLength, boolean limited) {
+        this.deadline = deadline;
+        this.maxTextLength = maxTextLength;
+        this.limited = limited;
+    }
+
+    /**
+     * Starts the budget of the page the current thread is about to extract.
+     * @param maxTextLength The most characters of text the extractors may gather from the page.
+     */
+    public static void start(Duration timeLimit, int maxTextLength) {
+        Preconditions.checkArgument(!timeLimit.isNegative());
+        Preconditions.checkArgument(maxTextLength >= 0);
+        CURRENT.set(new ExtractionBudget(System.nanoTime() + timeLimit.toNanos(), maxTextLength, true));
+    }
+
+    /**
+     * Lifts the budget of the current thread, once its page is extracted or has exceeded the budget.
+     */
+    public static void stop() {
+        CURRENT.remove();
+    }
+
+    /**
+     * @return The budget of the current thread, which is unlimited if none was started.
+     */
+    public static ExtractionBudget current() {
+        ExtractionBudget budget = CURRENT.get();
+        return (budget != null) ? budget : UNLIMITED;
+    }
+
+    /**
+     * Checks the budget every {@link #CHECK_INTERVAL} calls, cheap enough to be called for every node of a page.
+     * @throws ExceededException if the time is up or the thread was interrupted.
+     */
+    public void checkpoint() {
+        if (limited && ++noCheckpoints % CHECK_INTERVAL == 0) {
+            check();
+        }
+    }
+
+    /**
+     * @throws ExceededException if the time is up or the thread was interrupted.
+     */
+    public void check() {
+        if (!limited) {
+            return;
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            throw new ExceededException("The extraction was interrupted");
+        }
+        if (System.nanoTime() - deadline > 0) {
+            throw new ExceededException("The extraction ran out of time");
+        }
+    }
+
+    /**
+     * @throws ExceededException if the text gathered from the page is longer than the budget allows.
+     */
+    public void checkTextLength(int textLength) {
+        if (textLength > maxTextLength) {
+            throw new ExceededException("The text of the page is longer than " + maxTextLength + " characters");
+        }
+    }
+
+    /**
+     * @return The text, checking the budget as it is read, so that a regular expression backtracking over it
+     * stops once the time is up.
+     */
+    public CharSequence interruptible(CharSequence text) {
+        Preconditions.checkNotNull(text);
+        return limited ? new InterruptibleCharSequence(text, this) : text;
+    }
+
+    /**
+     * Thrown by an extraction which exceeded its budget. The page is then given up on, not extracted partially.
+     */
+    public static class ExceededException extends RuntimeException {
+        public ExceededException(String message) {
+            super(message);
+        }
+    }
+
+    private static final class InterruptibleCharSequence implements CharSequence {
+        private final CharSequence text;
+        private final ExtractionBudget budget;
+
+        private InterruptibleCharSequence(CharSequence text, ExtractionBudget budget) {
+            this.text = text;
+            this.budget = budget;
+        }
+
+        @Override
+        public char charAt(int index) {
+            budget.checkpoint();
+            return text.charAt(index);
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new InterruptibleCharSequence(text.subSequence(start, end), budget);
+        }
+
+        @Override
+        public String toString() {
+            return text.toString();
+        }
+    }
+}
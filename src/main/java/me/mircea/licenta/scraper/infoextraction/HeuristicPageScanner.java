@@ -0,0 +1,96 @@
+package me.mircea.licenta.scraper.infoextraction;
+
+import com.google.common.base.Preconditions;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.select.Evaluator;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
+import org.jsoup.select.QueryParser;
+
+import java.util.*;
+
+/**
+ * Finds, in a single traversal of a page, the first element matching each of a set of css queries, instead of
+ * searching the page once per query. The text of the page may be gathered during the same traversal.
+ * The queries are parsed once, when the scanner is built, and a scanner may be shared between threads.
+ * @param <K> The cues the queries look for.
+ */
+final class HeuristicPageScanner<K extends Enum<K>> {
+    private final Class<K> cueType;
+    private final Map<K, Evaluator> evaluators;
+
+    HeuristicPageScanner(Class<K> cueType, Map<K, String> cssQueries) {
+        Preconditions.checkNotNull(cueType);
+        Preconditions.checkNotNull(cssQueries);
+
+        this.cueType = cueType;
+        this.evaluators = new EnumMap<>(cueType);
+        cssQueries.forEach((cue, cssQuery) -> this.evaluators.put(cue, QueryParser.parse(cssQuery)));
+    }
+
+    /**
+     * @param cues     The cues to look for, each of which must have a query.
+     * @param withText Whether to also gather the text of the page.
+     */
+    Scan<K> scan(Element root, Set<K> cues, boolean withText) {
+        Preconditions.checkNotNull(root);
+        Preconditions.checkArgument(evaluators.keySet().containsAll(cues));
+
+        List<K> pendingCues = new ArrayList<>(cues);
+        Map<K, Element> firstMatches = new EnumMap<>(cueType);
+        PageText.Builder textBuilder = withText ? new PageText.Builder() : null;
+        ExtractionBudget budget = ExtractionBudget.current();
+
+        NodeTraversor.traverse(new NodeVisitor() {
+            @Override
+            public void head(Node node, int depth) {
+                budget.checkpoint();
+                if (textBuilder != null) {
+                    textBuilder.head(node, depth);
+                }
+                if (node instanceof Element && !pendingCues.isEmpty()) {
+                    Element element = (Element) node;
+                    for (Iterator<K> it = pendingCues.iterator(); it.hasNext(); ) {
+                        K cue = it.next();
+                        if (evaluators.get(cue).matches(root, element)) {
+                            firstMatches.put(cue, element);
+                            it.remove();
+                        }
+                    }
+                }
+            }
+
+            @Override
+            public void tail(Node node, int depth) {
+                if (textBuilder != null) {
+                    textBuilder.tail(node, depth);
+                }
+            }
+        }, root);
+
+        return new Scan<>(firstMatches, (textBuilder != null) ? textBuilder.build() : null);
+    }
+
+    static final class Scan<K extends Enum<K>> {
+        private final Map<K, Element> firstMatches;
+        private final PageText text;
+
+        private Scan(Map<K, Element> firstMatches, PageText text) {
+            this.firstMatches = firstMatches;
+            this.text = text;
+        }
+
+        /**
+         * @return The first element in document order matching the query of the cue, or null if none does.
+         */
+        Element getFirstMatch(K cue) {
+            return firstMatches.get(cue);
+        }
+
+        PageText getText() {
+            Preconditions.checkState(text != null, "The text of the page was not gathered");
+            return text;
+        }
+    }
+}
@@ -1,11 +1,13 @@
 package me.mircea.licenta.scraper.infoextraction;
 
 import com.google.common.base.Preconditions;
-import me.mircea.licenta.core.crawl.db.model.Wrapper;
-import me.mircea.licenta.core.parser.utils.CssUtil;
 import me.mircea.licenta.core.parser.utils.HtmlUtil;
 import me.mircea.licenta.products.db.model.PricePoint;
+import me.mircea.licenta.products.db.model.Product;
+import me.mircea.licenta.products.utils.Isbns;
 import me.mircea.licenta.scraper.utils.BookAttributesCoercer;
+import me.mircea.licenta.scraper.utils.BookLexicon;
+import me.mircea.licenta.scraper.utils.BookLexicon.WordClass;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
@@ -16,54 +18,72 @@ import java.net.MalformedURLException;
 import java.text.ParseException;
 import java.time.Instant;
 import java.util.*;
+import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
+/**
+ * Extracts books from pages of shops without a wrapper, by looking for the elements whose classes, ids or text
+ * hint at each field. A whole page is searched for the cues of all its fields in a single traversal; extracting
+ * one field on its own only looks for the cues of that field.
+ * The extractor holds no state between pages, so the shared instance may be used by any number of threads.
+ */
 public class HeuristicalBookExtractor implements BookExtractor, WrapperGenerator {
+    public static final HeuristicalBookExtractor instance = new HeuristicalBookExtractor();
+
     private static final Logger LOGGER = LoggerFactory.getLogger(HeuristicalBookExtractor.class);
     private static final String ISBN_PATTERN_STRING = "(?=[-\\d\\ xX]{10,})\\d+[-\\ ]?\\d+[-\\ ]?\\d+[-\\ ]?\\d*[-\\ ]?[\\dxX]";
     private static final Pattern ISBN_PATTERN = Pattern.compile(ISBN_PATTERN_STRING);
 
-    private BookAttributesCoercer coercer;
+    private static final Set<Cue> TITLE_CUES = EnumSet.of(Cue.OG_TITLE, Cue.TITLE, Cue.TITLE_CLASS);
+    private static final Set<Cue> IMAGE_CUES = EnumSet.of(Cue.META_IMAGE, Cue.IMAGE_WITH_ALT);
+
+    private final BookAttributesCoercer coercer;
+    private final BookLexicon lexicon;
+    private final HeuristicPageScanner<Cue> scanner;
 
     public HeuristicalBookExtractor() {
         this.coercer = new BookAttributesCoercer();
+        this.lexicon = this.coercer.getLexicon();
+
+        Map<Cue, String> cssQueries = new EnumMap<>(Cue.class);
+        cssQueries.put(Cue.OG_TITLE, "meta[property='og:title']");
+        cssQueries.put(Cue.TITLE, "title");
+        cssQueries.put(Cue.TITLE_CLASS, lexicon.getClassOrIdSelector(WordClass.TITLE));
+        cssQueries.put(Cue.AUTHOR_CLASS, lexicon.getClassOrIdSelector(WordClass.AUTHOR));
+        // TODO: be locale sensitive
+        cssQueries.put(Cue.PRICE, ":matchesOwn((,|.)[0-9]{2} lei)," + lexicon.getClassOrIdSelector(WordClass.PRICE));
+        cssQueries.put(Cue.AVAILABILITY, "[class*='stoc'],[id*='stoc']");
+        cssQueries.put(Cue.DESCRIPTION, "[class*='descri']");
+        cssQueries.put(Cue.META_IMAGE, "meta[property*='image']");
+        cssQueries.put(Cue.IMAGE_WITH_ALT, "img[alt]:not([alt=''])");
+        this.scanner = new HeuristicPageScanner<>(Cue.class, cssQueries);
     }
 
+    @Override
+    public Product extract(Document productPage) {
+        Preconditions.checkNotNull(productPage);
+        return scanWholePage(productPage).extract(productPage);
+    }
 
     @Override
-    public String extractTitle(Element htmlElement) {
-        Element ogTitle = htmlElement.selectFirst("meta[property='og:title']");
-        if (ogTitle != null)
-            return ogTitle.attr("content");
+    public SimpleImmutableEntry<Product, PricePoint> extractProductOffer(Document productPage, Locale locale) {
+        Preconditions.checkNotNull(productPage);
 
-        Element title = htmlElement.selectFirst("title");
-        if (title != null)
-            return title.text();
+        ScannedPage scannedPage = scanWholePage(productPage);
+        return new SimpleImmutableEntry<>(scannedPage.extract(productPage), scannedPage.extractPricePoint(productPage, locale));
+    }
 
-        String cssSelector = CssUtil.makeClassOrIdContains(this.coercer.titleWordSet);
-        return htmlElement.select(cssSelector).first().text();
+    @Override
+    public String extractTitle(Element htmlElement) {
+        return scan(htmlElement, TITLE_CUES).extractTitle(htmlElement);
     }
 
     @Override
     public String extractAuthors(Element htmlElement, Map<String, String> attributes) {
-        Element authorElement = htmlElement.select(CssUtil.makeClassOrIdContains(this.coercer.authorWordSet)).first();
-        String text = null;
-        if (authorElement != null) {
-            text = authorElement.text();
-        } else {
-            BookAttributesCoercer coercer = new BookAttributesCoercer();
-
-            Optional<String> authorAttribute = attributes.keySet().stream()
-                    .filter(this.coercer.authorWordSet::contains)
-                    .findFirst();
-            if (authorAttribute.isPresent())
-                text = attributes.get(authorAttribute.get());
-        }
-
-        return text;
+        return scan(htmlElement, EnumSet.of(Cue.AUTHOR_CLASS)).extractAuthors(htmlElement, attributes);
     }
 
     @Override
@@ -71,7 +91,7 @@ public class HeuristicalBookExtractor implements BookExtractor, WrapperGenerator
         String isbn = null;
         Optional<String> isbnAttribute = attributes.keySet()
                 .stream()
-                .filter(key -> !Collections.disjoint(this.coercer.codeWordSet, Arrays.asList(key.split("[\\s|,.;:]"))))
+                .filter(key -> Arrays.stream(key.split("[\\s|,.;:]")).anyMatch(word -> lexicon.contains(WordClass.CODE, word)))
                 .findFirst();
         if (isbnAttribute.isPresent())
             isbn = coercer.coerceIsbn(attributes.get(isbnAttribute.get()));
@@ -90,7 +110,7 @@ public class HeuristicalBookExtractor implements BookExtractor, WrapperGenerator
 
         Optional<Map.Entry<String, String>> publisherAttribute = attributes.entrySet()
                 .stream()
-                .filter(entry -> !Collections.disjoint(Arrays.asList(entry.getKey().split(BookAttributesCoercer.SEPARATORS)), this.coercer.publisherWordSet))
+                .filter(entry -> Arrays.stream(entry.getKey().split(BookAttributesCoercer.SEPARATORS)).anyMatch(word -> lexicon.contains(WordClass.PUBLISHER, word)))
                 .findFirst();
 
         if (publisherAttribute.isPresent())
@@ -102,63 +122,24 @@ public class HeuristicalBookExtractor implements BookExtractor, WrapperGenerator
     @Override
     public PricePoint extractPricePoint(Element productPage, Locale locale) {
         Preconditions.checkNotNull(productPage);
-
-        PricePoint pricePoint = null;
-        try {
-            // TODO: be locale sensitive
-            Element priceElement = productPage.selectFirst(":matchesOwn((,|.)[0-9]{2} lei)," + CssUtil.makeClassOrIdContains(this.coercer.priceWordSet));
-            if (priceElement != null) {
-                String priceTag = priceElement.text().replaceAll(".*:", "").trim();
-                String url = HtmlUtil.getCanonicalUrl(productPage).orElse(productPage.baseUri());
-                pricePoint = PricePoint.valueOf(priceTag, locale, Instant.now(), url);
-                if (productPage instanceof Document)
-                    pricePoint.setPageTitle(((Document) productPage).title());
-            }
-        } catch (ParseException e) {
-            LOGGER.warn("Price tag was ill-formated {}, which resulted in {}", e);
-        } catch (MalformedURLException e) {
-            LOGGER.warn("Url was malformed {}", e);
-        }
-
-        return pricePoint;
+        return scan(productPage, EnumSet.of(Cue.PRICE)).extractPricePoint(productPage, locale);
     }
 
     @Override
     public String extractAvailability(Document productPage) {
-        Element stockElement = productPage.selectFirst("[class*='stoc'],[id*='stoc']");
-        if (stockElement == null)
-            return null;
-
-        String text = stockElement.text().toLowerCase();
-        if (text.contains("in stoc") || text.contains("în stoc") || text.contains("limitat")) {
-            return "available";
-        } else if (text.contains("indisponibil") || text.contains("comanda")) {
-            return "unavailable";
-        } else {
-            return null;
-        }
+        Preconditions.checkNotNull(productPage);
+        return scan(productPage, EnumSet.of(Cue.AVAILABILITY)).extractAvailability(productPage);
     }
 
     @Override
     public String extractDescription(Document productPage) {
         Preconditions.checkNotNull(productPage);
-        Element descriptionElement = productPage.select("[class*='descri']").first();
-        return (descriptionElement != null) ? descriptionElement.text() : null;
+        return scan(productPage, EnumSet.of(Cue.DESCRIPTION)).extractDescription(productPage);
     }
 
     @Override
     public String extractImageUrl(Element htmlElement) {
-        Element ogImage = htmlElement.selectFirst("meta[property*='image']");
-        if (ogImage != null)
-            return ogImage.attr("content");
-
-        Elements imagesWithAlt = htmlElement.select("img[alt]");
-        imagesWithAlt.removeAll(htmlElement.select("img[alt='']"));
-
-        if (!imagesWithAlt.isEmpty())
-            return imagesWithAlt.first().absUrl("src");
-
-        return null;
+        return scan(htmlElement, IMAGE_CUES).extractImageUrl(htmlElement);
     }
 
     @Override
@@ -169,105 +150,223 @@ public class HeuristicalBookExtractor implements BookExtractor, WrapperGenerator
     @Override
     public Map<String, String> extractAttributes(Element productPage) {
         Preconditions.checkNotNull(productPage);
+        return attributesOf(PageText.of(productPage));
+    }
+
+    private ScannedPage scanWholePage(Element productPage) {
+        return new ScannedPage(scanner.scan(productPage, EnumSet.allOf(Cue.class), true));
+    }
+
+    private ScannedPage scan(Element htmlElement, Set<Cue> cues) {
+        return new ScannedPage(scanner.scan(htmlElement, cues, false));
+    }
+
+    private Map<String, String> attributesOf(PageText pageText) {
+        Elements keyValuePairs = locateAttributeElements(pageText);
+        return (keyValuePairs != null) ? BookAttributesCoercer.splitAttributes(keyValuePairs) : new TreeMap<>();
+    }
 
-        Map<String, String> bookAttributes = new TreeMap<>();
-        Matcher isbnMatcher = ISBN_PATTERN.matcher(productPage.text());
+    /**
+     * Finds the first isbn in the text of the page and the element holding it, together with its siblings,
+     * without searching the page again.
+     * @return The elements holding the attributes of the book, or null if the page has no isbn.
+     */
+    private Elements locateAttributeElements(PageText pageText) {
+        // The lookahead of the pattern may backtrack a long way over the digits of a malformed page
+        Matcher isbnMatcher = ISBN_PATTERN.matcher(ExtractionBudget.current().interruptible(pageText.getText()));
         while (isbnMatcher.find()) {
             String matchedText = isbnMatcher.group();
-            String isbn = matchedText.replaceAll("[\\s-]", "");
-            if (isbn.length() == 10 || isbn.length() == 13) {
+            if (Isbns.isValid(matchedText)) {
+                String isbn = Isbns.compact(matchedText);
                 LOGGER.debug("Found isbn {}", isbn);
 
-                String findIsbnElement = String.format("*:contains(%s)", matchedText);
-                Element isbnElement = productPage.select(findIsbnElement).last();
-
-                if (isbnElement.text().trim().equals(isbn))
+                Element isbnElement = pageText.findLastOwnerOf(matchedText);
+                if (isbnElement != null && isbnElement.text().trim().equals(isbn))
                     isbnElement = isbnElement.parent();
+                if (isbnElement == null)
+                    continue;
 
                 Elements keyValuePairs = isbnElement.siblingElements();
                 keyValuePairs.add(isbnElement);
+                return keyValuePairs;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * The hints at the fields of a book which are looked for in a page.
+     */
+    private enum Cue {
+        OG_TITLE, TITLE, TITLE_CLASS, AUTHOR_CLASS, PRICE, AVAILABILITY, DESCRIPTION, META_IMAGE, IMAGE_WITH_ALT
+    }
 
-                bookAttributes = BookAttributesCoercer.splitAttributes(keyValuePairs);
+    /**
+     * Chooses the value of each field from the cues found by a scan of the page.
+     * The fields decided by the attributes alone are extracted the same way as by the enclosing extractor.
+     */
+    private final class ScannedPage implements BookExtractor {
+        private final HeuristicPageScanner.Scan<Cue> scan;
+
+        private ScannedPage(HeuristicPageScanner.Scan<Cue> scan) {
+            this.scan = scan;
+        }
 
-                break;
+        @Override
+        public String extractTitle(Element htmlElement) {
+            Element ogTitle = scan.getFirstMatch(Cue.OG_TITLE);
+            if (ogTitle != null)
+                return ogTitle.attr("content");
+
+            Element title = scan.getFirstMatch(Cue.TITLE);
+            if (title != null)
+                return title.text();
+
+            Element titleElement = scan.getFirstMatch(Cue.TITLE_CLASS);
+            return (titleElement != null) ? titleElement.text() : null;
+        }
+
+        @Override
+        public String extractAuthors(Element htmlElement, Map<String, String> attributes) {
+            Element authorElement = scan.getFirstMatch(Cue.AUTHOR_CLASS);
+            String text = null;
+            if (authorElement != null) {
+                text = authorElement.text();
+            } else {
+                Optional<String> authorAttribute = attributes.keySet().stream()
+                        .filter(key -> lexicon.contains(WordClass.AUTHOR, key))
+                        .findFirst();
+                if (authorAttribute.isPresent())
+                    text = attributes.get(authorAttribute.get());
             }
+
+            return text;
         }
 
-        return bookAttributes;
+        @Override
+        public String extractIsbn(Element htmlElement, Map<String, String> attributes) {
+            return HeuristicalBookExtractor.this.extractIsbn(htmlElement, attributes);
+        }
+
+        @Override
+        public String extractFormat(Element htmlElement, Map<String, String> attributes) {
+            return HeuristicalBookExtractor.this.extractFormat(htmlElement, attributes);
+        }
+
+        @Override
+        public String extractPublisher(Element htmlElement, Map<String, String> attributes) {
+            return HeuristicalBookExtractor.this.extractPublisher(htmlElement, attributes);
+        }
+
+        @Override
+        public PricePoint extractPricePoint(Element productPage, Locale locale) {
+            PricePoint pricePoint = null;
+            try {
+                Element priceElement = scan.getFirstMatch(Cue.PRICE);
+                if (priceElement != null) {
+                    String priceTag = priceElement.text().replaceAll(".*:", "").trim();
+                    String url = HtmlUtil.getCanonicalUrl(productPage).orElse(productPage.baseUri());
+                    pricePoint = PricePoint.valueOf(priceTag, locale, Instant.now(), url);
+                    if (productPage instanceof Document)
+                        pricePoint.setPageTitle(((Document) productPage).title());
+                }
+            } catch (ParseException e) {
+                LOGGER.warn("Price tag was ill-formated {}, which resulted in {}", e);
+            } catch (MalformedURLException e) {
+                LOGGER.warn("Url was malformed {}", e);
+            }
+
+            return pricePoint;
+        }
+
+        @Override
+        public String extractAvailability(Document productPage) {
+            Element stockElement = scan.getFirstMatch(Cue.AVAILABILITY);
+            if (stockElement == null)
+                return null;
+
+            String text = stockElement.text().toLowerCase();
+            if (text.contains("in stoc") || text.contains("în stoc") || text.contains("limitat")) {
+                return "available";
+            } else if (text.contains("indisponibil") || text.contains("comanda")) {
+                return "unavailable";
+            } else {
+                return null;
+            }
+        }
+
+        @Override
+        public String extractDescription(Document productPage) {
+            Element descriptionElement = scan.getFirstMatch(Cue.DESCRIPTION);
+            return (descriptionElement != null) ? descriptionElement.text() : null;
+        }
+
+        @Override
+        public String extractImageUrl(Element htmlElement) {
+            Element ogImage = scan.getFirstMatch(Cue.META_IMAGE);
+            if (ogImage != null)
+                return ogImage.attr("content");
+
+            Element imageWithAlt = scan.getFirstMatch(Cue.IMAGE_WITH_ALT);
+            return (imageWithAlt != null) ? imageWithAlt.absUrl("src") : null;
+        }
+
+        @Override
+        public Set<String> extractKeywords(String... values) {
+            return HeuristicalBookExtractor.this.extractKeywords(values);
+        }
+
+        @Override
+        public Map<String, String> extractAttributes(Element productPage) {
+            return attributesOf(scan.getText());
+        }
+
+        /**
+         * @return The query of each field, by the name of its selector in a wrapper, which finds the same element
+         * the heuristics chose on this page.
+         */
+        private Map<String, String> generateWrapperQueries() {
+            Map<String, String> queries = new HashMap<>();
+            if (scan.getFirstMatch(Cue.OG_TITLE) != null) {
+                queries.put("title", "meta[property='og:title']");
+            } else if (scan.getFirstMatch(Cue.TITLE) != null) {
+                queries.put("title", "title");
+            } else {
+                putQueryFor(queries, "title", scan.getFirstMatch(Cue.TITLE_CLASS));
+            }
+
+            if (scan.getFirstMatch(Cue.META_IMAGE) != null) {
+                queries.put("image", "meta[property*='image']");
+            } else {
+                putQueryFor(queries, "image", scan.getFirstMatch(Cue.IMAGE_WITH_ALT));
+            }
+
+            putQueryFor(queries, "authors", scan.getFirstMatch(Cue.AUTHOR_CLASS));
+            putQueryFor(queries, "pricepoint", scan.getFirstMatch(Cue.PRICE));
+            putQueryFor(queries, "availability", scan.getFirstMatch(Cue.AVAILABILITY));
+            putQueryFor(queries, "description", scan.getFirstMatch(Cue.DESCRIPTION));
+
+            Elements attributeElements = locateAttributeElements(scan.getText());
+            if (attributeElements != null && !attributeElements.isEmpty())
+                queries.put("attributes", generateCssSelectorFor(attributeElements));
+            return queries;
+        }
+
+        private void putQueryFor(Map<String, String> queries, String field, Element element) {
+            if (element != null)
+                queries.put(field, generateCssSelectorFor(new Elements(element)));
+        }
     }
 
 
-    //TODO: refactor this
+    /**
+     * Proposes a query for each field whose element the heuristics find on the page, from a single scan of it.
+     */
     @Override
-    public Wrapper generateWrapper(Element productPage, Elements additionals) {
-        throw new UnsupportedOperationException("not implemented yet");
-		/*
-		WebWrapper wrapper = new WebWrapper();
-
-		String titleSelector = CssUtil.makeClassOrIdContains(BookAttributesCoercer.titleWordSet);
-		Element titleElement = productPage.select(titleSelector).select(String.format(":not(:has(%s))", titleSelector))
-				.first();
-		if (titleElement != null)
-			wrapper.setTitleSelector(generateCssSelectorFor(new Elements(titleElement)));
-
-		String authorsSelector = CssUtil.makeClassOrIdContains(BookAttributesCoercer.authorWordSet);
-		Element authorsElement = productPage.select(authorsSelector).first();
-		if (authorsElement != null)
-			wrapper.setAuthorsSelector(generateCssSelectorFor(new Elements(authorsElement)));
-		
-		String priceSelector = CssUtil.makeClassOrIdContains(BookAttributesCoercer.priceWordSet);
-		Element priceElement = productPage.selectFirst(priceSelector);
-		//TODO: handle currency
-		String priceRegexSelector = ":matchesOwn(lei)";
-		Element priceRegexElement = productPage.selectFirst(priceRegexSelector);
-		if (!priceRegexElement.equals(priceElement)) {
-			String priceHtml = priceElement.html();
-			String priceRegexHtml = priceRegexElement.html();
-
-			String str = productPage.outerHtml();
-			
-			int indexOfPrice = str.indexOf(priceHtml);
-			int indexOfRegex = str.indexOf(priceRegexHtml);
-			
-			//TODO: this may break
-			priceElement = (indexOfPrice <= indexOfRegex) ? priceElement : priceRegexElement;
-		}
-		
-		if (priceElement != null)
-			wrapper.setPriceSelector(generateCssSelectorFor(new Elements(priceElement)));
-
-		String isbnSelector = ":matchesOwn((?=[-\\d\\ xX]{10,})\\d+[-\\ ]?\\d+[-\\ ]?\\d+[-\\ ]?\\d*[-\\ ]?[\\dxX])";
-		Element isbnElement = productPage.select(isbnSelector).first();
-		Element parent = isbnElement.parent();
-
-		// TODO: refine this: If the book code element has no class then those are
-		// probably the whole thing
-		Elements attributeElements = null;
-		if (isbnElement.className().isEmpty()) {
-			attributeElements = isbnElement.siblingElements();
-			attributeElements.add(isbnElement);
-		} else {
-			attributeElements = parent.siblingElements();
-			attributeElements.add(parent);
-		}
-
-		wrapper.setAttributeSelector(generateCssSelectorFor(attributeElements));
-		wrapper.setImageLinkSelector("img[alt]:not(img[alt='']),meta[property*='image']");
-
-		String descriptionSelector = CssUtil.makeClassOrIdContains(BookAttributesCoercer.descriptionWordSet);
-		Element descriptionElement = productPage.select(descriptionSelector).first();
-		if (descriptionElement != null)
-			wrapper.setDescriptionSelector(generateCssSelectorFor(new Elements(descriptionElement)));
-
-		if (!additionals.isEmpty()) {
-			Elements bookCards = new Elements();
-			for (Element element : additionals) {
-				bookCards.addAll(element.select(PRODUCT_CARD_SELECTOR));
-			}
-			wrapper.setBookCardSelector(generateCssSelectorFor(bookCards));
-		}
-
-		return wrapper;*/
+    public Map<String, String> generateWrapperQueries(Element productPage) {
+        Preconditions.checkNotNull(productPage);
+        return scanWholePage(productPage).generateWrapperQueries();
     }
 
     //TODO: refactor this
@@ -284,6 +383,8 @@ public class HeuristicalBookExtractor implements BookExtractor, WrapperGenerator
                 selector = "#" + elem.id();
             else if (!elem.className().isEmpty())
                 selector = "." + String.join(".", elem.classNames());
+            else if (elem.parent() == null || elem.parent() instanceof Document)
+                selector = elem.tagName();
             else
                 selector = generateCssSelectorFor(new Elements(elem.parent())) + ">" + elem.tagName();
         } else {
@@ -316,10 +417,7 @@ public class HeuristicalBookExtractor implements BookExtractor, WrapperGenerator
                 // TODO: handle case when not all are the same, handle case when tag is not unique to the site
                 // Also this is probably breakable
                 Element parent = elements.first().parent();
-                if (!parent.id().isEmpty())
-                    selector = generateCssSelectorFor(new Elements(parent)) + ">" + tag;
-                else
-                    selector = generateCssSelectorFor(new Elements(parent));
+                selector = generateCssSelectorFor(new Elements(parent)) + ">" + tag;
             }
         }
 
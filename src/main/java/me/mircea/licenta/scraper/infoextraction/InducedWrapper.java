@@ -0,0 +1,61 @@
+package me.mircea.licenta.scraper.infoextraction;
+
+import com.google.common.base.Preconditions;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The queries of a wrapper induced from the pages of a domain, kept so that the next jobs on the domain only
+ * have to check them instead of inducing them again. Stored apart from the wrappers of the crawl database, which
+ * cannot be written from here.
+ */
+@Entity
+public class InducedWrapper {
+    @Id
+    private String domain;
+    private Map<String, String> queries;
+    private Instant inducedTime;
+
+    public InducedWrapper() {
+        this.queries = new HashMap<>();
+    }
+
+    public InducedWrapper(String domain, Map<String, String> queries, Instant inducedTime) {
+        Preconditions.checkNotNull(domain);
+        Preconditions.checkNotNull(queries);
+        Preconditions.checkNotNull(inducedTime);
+
+        this.domain = domain;
+        this.queries = new HashMap<>(queries);
+        this.inducedTime = inducedTime;
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    /**
+     * @return The CSS query of each field, by the name of its selector.
+     */
+    public Map<String, String> getQueries() {
+        return queries;
+    }
+
+    public Instant getInducedTime() {
+        return inducedTime;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("InducedWrapper [domain=").append(domain);
+        builder.append(", queries=").append(queries);
+        builder.append(", inducedTime=").append(inducedTime);
+        builder.append("]");
+        return builder.toString();
+    }
+}
@@ -0,0 +1,212 @@
+package me.mircea.licenta.scraper.infoextraction;
+
+import com.google.common.base.Preconditions;
+import org.jsoup.internal.StringUtil;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
+
+import java.util.*;
+
+/**
+ * The text of an element, normalised the same way as {@link Element#text()}, built in one traversal which also
+ * remembers where every text node starts. A match found in the text can then be traced back to the element owning
+ * it without searching the tree again.
+ */
+final class PageText {
+    private static final int MAX_PRESERVE_WHITESPACE_DEPTH = 6;
+
+    private final String text;
+    private final int[] segmentStarts;
+    private final TextNode[] segmentNodes;
+    private final Map<Element, Integer> preorderIndexes;
+    private String lowerCaseText;
+
+    private PageText(String text, int[] segmentStarts, TextNode[] segmentNodes, Map<Element, Integer> preorderIndexes) {
+        this.text = text;
+        this.segmentStarts = segmentStarts;
+        this.segmentNodes = segmentNodes;
+        this.preorderIndexes = preorderIndexes;
+    }
+
+    static PageText of(Element root) {
+        Preconditions.checkNotNull(root);
+
+        Builder builder = new Builder();
+        NodeTraversor.traverse(builder, root);
+        return builder.build();
+    }
+
+    String getText() {
+        return text;
+    }
+
+    /**
+     * @return The deepest element whose text holds the characters between start, inclusive, and end, exclusive.
+     */
+    Element getOwner(int start, int end) {
+        Preconditions.checkArgument(0 <= start && start < end && end <= text.length());
+
+        int first = findSegment(start);
+        int last = findSegment(end - 1);
+        Element owner = parentOf(segmentNodes[first]);
+        for (int i = first + 1; i <= last && owner != null; ++i) {
+            owner = commonAncestor(owner, parentOf(segmentNodes[i]));
+        }
+        return owner;
+    }
+
+    /**
+     * Finds the element a {@code *:contains(value)} query would have selected last: of the elements owning each
+     * occurrence of the value, ignoring case, the one coming last in document order. As with the query, the
+     * whitespace of the value is normalised but not that of preformatted text.
+     * @return The element, or null if the value does not occur in the text.
+     */
+    Element findLastOwnerOf(String value) {
+        Preconditions.checkNotNull(value);
+        if (value.isEmpty()) {
+            return null;
+        }
+        if (lowerCaseText == null) {
+            lowerCaseText = text.toLowerCase(Locale.ENGLISH);
+        }
+
+        String lowerCaseValue = StringUtil.normaliseWhitespace(value).toLowerCase(Locale.ENGLISH);
+        Element lastOwner = null;
+        for (int start = lowerCaseText.indexOf(lowerCaseValue); start >= 0;
+             start = lowerCaseText.indexOf(lowerCaseValue, start + 1)) {
+            Element owner = getOwner(start, start + lowerCaseValue.length());
+            if (owner != null && (lastOwner == null || preorderIndexes.get(owner) > preorderIndexes.get(lastOwner))) {
+                lastOwner = owner;
+            }
+        }
+        return lastOwner;
+    }
+
+    /**
+     * @return The index of the text node holding the character, or of the one before it if the character is a
+     * separator added between two nodes.
+     */
+    private int findSegment(int position) {
+        int index = Arrays.binarySearch(segmentStarts, position);
+        return (index >= 0) ? index : Math.max(0, -index - 2);
+    }
+
+    private Element parentOf(TextNode textNode) {
+        Node parent = textNode.parentNode();
+        return (parent instanceof Element && preorderIndexes.containsKey(parent)) ? (Element) parent : null;
+    }
+
+    private Element commonAncestor(Element first, Element second) {
+        if (second == null) {
+            return null;
+        }
+
+        Set<Element> ancestorsOfFirst = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Element element = first; element != null; element = element.parent()) {
+            ancestorsOfFirst.add(element);
+        }
+        for (Element element = second; element != null; element = element.parent()) {
+            if (ancestorsOfFirst.contains(element) && preorderIndexes.containsKey(element)) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gathers the text of the nodes it visits, so that it can share a traversal of the page with other visitors.
+     * The text may not grow longer than the extraction budget of the thread building it allows.
+     */
+    static final class Builder implements NodeVisitor {
+        private final ExtractionBudget budget = ExtractionBudget.current();
+        private final StringBuilder accum = new StringBuilder();
+        private final List<Integer> segmentStarts = new ArrayList<>();
+        private final List<TextNode> segmentNodes = new ArrayList<>();
+        private final Map<Element, Integer> preorderIndexes = new IdentityHashMap<>();
+
+        @Override
+        public void head(Node node, int depth) {
+            if (node instanceof TextNode) {
+                TextNode textNode = (TextNode) node;
+                int start = accum.length();
+                appendNormalisedText(accum, textNode);
+                budget.checkTextLength(accum.length());
+                if (accum.length() > start) {
+                    segmentStarts.add(start);
+                    segmentNodes.add(textNode);
+                }
+            } else if (node instanceof Element) {
+                Element element = (Element) node;
+                preorderIndexes.put(element, preorderIndexes.size());
+                if (accum.length() > 0 && (element.isBlock() || element.tagName().equals("br"))
+                        && !lastCharIsWhitespace(accum)) {
+                    accum.append(' ');
+                }
+            }
+        }
+
+        @Override
+        public void tail(Node node, int depth) {
+            // A block followed by text is separated from it, so <div>One</div>Two reads "One Two"
+            if (node instanceof Element && ((Element) node).isBlock()
+                    && node.nextSibling() instanceof TextNode && !lastCharIsWhitespace(accum)) {
+                accum.append(' ');
+            }
+        }
+
+        PageText build() {
+            int[] starts = new int[segmentStarts.size()];
+            for (int i = 0; i < starts.length; ++i) {
+                starts[i] = segmentStarts.get(i);
+            }
+            return new PageText(accum.toString(), starts, segmentNodes.toArray(new TextNode[0]), preorderIndexes);
+        }
+    }
+
+    private static void appendNormalisedText(StringBuilder accum, TextNode textNode) {
+        String wholeText = textNode.getWholeText();
+        if (preservesWhitespace(textNode.parentNode())) {
+            accum.append(wholeText);
+            return;
+        }
+
+        boolean lastWasWhitespace = lastCharIsWhitespace(accum);
+        for (int i = 0; i < wholeText.length(); ++i) {
+            char c = wholeText.charAt(i);
+            if (isWhitespace(c)) {
+                if (!lastWasWhitespace) {
+                    accum.append(' ');
+                    lastWasWhitespace = true;
+                }
+            } else if (!isInvisible(c)) {
+                accum.append(c);
+                lastWasWhitespace = false;
+            }
+        }
+    }
+
+    private static boolean preservesWhitespace(Node node) {
+        for (int depth = 0; node instanceof Element && depth < MAX_PRESERVE_WHITESPACE_DEPTH; ++depth) {
+            if (((Element) node).tag().preserveWhitespace()) {
+                return true;
+            }
+            node = node.parentNode();
+        }
+        return false;
+    }
+
+    private static boolean lastCharIsWhitespace(StringBuilder accum) {
+        return accum.length() != 0 && accum.charAt(accum.length() - 1) == ' ';
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r' || c == 160;
+    }
+
+    private static boolean isInvisible(char c) {
+        return c == 8203 || c == 173;
+    }
+}
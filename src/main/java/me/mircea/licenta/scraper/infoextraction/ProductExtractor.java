@@ -5,6 +5,7 @@ import me.mircea.licenta.products.db.model.Product;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 
+import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
@@ -12,6 +13,14 @@ import java.util.Set;
 public interface ProductExtractor {
     Product extract(Document productPage);
 
+    /**
+     * Extracts both the product of a page and its offer. Extractors which can share the work of finding the two
+     * should override it.
+     */
+    default SimpleImmutableEntry<Product, PricePoint> extractProductOffer(Document productPage, Locale locale) {
+        return new SimpleImmutableEntry<>(extract(productPage), extractPricePoint(productPage, locale));
+    }
+
     PricePoint extractPricePoint(Element productPage, Locale locale);
 
     Map<String, String> extractAttributes(Element productPage);
@@ -1,60 +1,140 @@
 package me.mircea.licenta.scraper.infoextraction;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import me.mircea.licenta.products.db.model.Availability;
 import me.mircea.licenta.products.db.model.Book;
 import me.mircea.licenta.products.db.model.PricePoint;
+import me.mircea.licenta.products.db.model.Product;
+import me.mircea.licenta.products.utils.Isbns;
+import me.mircea.licenta.products.utils.Prices;
+import me.mircea.licenta.scraper.utils.BookAttributesCoercer;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
+import org.jsoup.parser.Parser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.Locale;
-import java.util.Map;
-import java.util.Set;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.text.ParseException;
+import java.util.*;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.function.Supplier;
 
+/**
+ * Extracts books from the structured data shops embed in their pages for search engines: schema.org Book and
+ * Product items, written as JSON-LD or as microdata, and OpenGraph meta tags, in this order of preference.
+ * Finding it takes a single look over the tags of the page instead of the searches of the other extractors,
+ * so it is tried first on every page. A page whose structured data does not give both the isbn and the price
+ * of its book is extracted by the fallback extractor instead, as is any field the structured data lacks.
+ */
 public class SemanticBookExtractor implements BookExtractor {
+	private static final Logger LOGGER = LoggerFactory.getLogger(SemanticBookExtractor.class);
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+	private static final String STRUCTURED_DATA_QUERY = "script[type='application/ld+json'], [itemscope][itemtype], meta[property]";
+	private static final Set<String> BOOK_TYPES = ImmutableSet.of("book", "product");
+	private static final Set<String> OFFER_TYPES = ImmutableSet.of("offer", "aggregateoffer");
+
+	private final BookExtractor fallback;
+	private final BookAttributesCoercer coercer;
+
+	public SemanticBookExtractor() {
+		this(HeuristicalBookExtractor.instance);
+	}
+
+	/**
+	 * @param fallback The extractor of the pages, or of the fields, which have no structured data.
+	 */
+	public SemanticBookExtractor(BookExtractor fallback) {
+		Preconditions.checkNotNull(fallback);
+		this.fallback = fallback;
+		this.coercer = new BookAttributesCoercer();
+	}
+
+	/**
+	 * @return An extractor of the structured data alone, which finds nothing on the pages without it.
+	 */
+	public static SemanticBookExtractor withoutFallback() {
+		return new SemanticBookExtractor(NoBookExtractor.instance);
+	}
+
+	@Override
+	public Product extract(Document productPage) {
+		Preconditions.checkNotNull(productPage);
+
+		StructuredBook structuredBook = readStructuredData(productPage);
+		if (!structuredBook.isComplete())
+			return fallback.extract(productPage);
+
+		return new StructuredPage(structuredBook).extract(productPage);
+	}
+
+	@Override
+	public SimpleImmutableEntry<Product, PricePoint> extractProductOffer(Document productPage, Locale locale) {
+		Preconditions.checkNotNull(productPage);
+
+		StructuredBook structuredBook = readStructuredData(productPage);
+		if (!structuredBook.isComplete()) {
+			LOGGER.debug("Page has no structured data about its book {}", productPage.baseUri());
+			return fallback.extractProductOffer(productPage, locale);
+		}
+
+		StructuredPage structuredPage = new StructuredPage(structuredBook);
+		return new SimpleImmutableEntry<>(structuredPage.extract(productPage), structuredPage.extractPricePoint(productPage, locale));
+	}
 
 	@Override
 	public PricePoint extractPricePoint(Element productPage, Locale locale) {
-		throw new UnsupportedOperationException("Not implemented yet");
+		StructuredBook structuredBook = readStructuredData(productPage);
+		if (structuredBook.price == null)
+			return fallback.extractPricePoint(productPage, locale);
+
+		return new StructuredPage(structuredBook).extractPricePoint(productPage, locale);
 	}
 
 	@Override
 	public String extractAvailability(Document productPage) {
-		throw new UnsupportedOperationException("Not implemented yet");
+		return orElse(readStructuredData(productPage).availability, () -> fallback.extractAvailability(productPage));
 	}
 
 	@Override
 	public String extractDescription(Document productPage) {
-		throw new UnsupportedOperationException("Not implemented yet");
+		return orElse(readStructuredData(productPage).description, () -> fallback.extractDescription(productPage));
 	}
 
 	@Override
 	public Map<String, String> extractAttributes(Element productPage) {
-		throw new UnsupportedOperationException("Not implemented yet");
+		return fallback.extractAttributes(productPage);
 	}
 
 	@Override
 	public String extractPublisher(Element htmlElement, Map<String, String> attributes) {
-		throw new UnsupportedOperationException("Not implemented yet");
+		return orElse(readStructuredData(htmlElement).publisher, () -> fallback.extractPublisher(htmlElement, attributes));
 	}
-	
+
 	@Override
 	public String extractFormat(Element htmlElement, Map<String, String> attributes) {
-		throw new UnsupportedOperationException("Not implemented yet");
+		return orElse(readStructuredData(htmlElement).format, () -> fallback.extractFormat(htmlElement, attributes));
 	}
 
 	@Override
 	public String extractIsbn(Element htmlElement, Map<String, String> attributes) {
-		throw new UnsupportedOperationException("Not implemented yet");
+		return orElse(readStructuredData(htmlElement).isbn, () -> fallback.extractIsbn(htmlElement, attributes));
 	}
 
 	@Override
 	public String extractAuthors(Element htmlElement, Map<String, String> attributes) {
-		throw new UnsupportedOperationException("Not implemented yet");
+		return orElse(readStructuredData(htmlElement).authors, () -> fallback.extractAuthors(htmlElement, attributes));
 	}
 
 	@Override
 	public String extractImageUrl(Element htmlElement) {
-		throw new UnsupportedOperationException("Not implemented yet");
+		return orElse(readStructuredData(htmlElement).imageUrl, () -> fallback.extractImageUrl(htmlElement));
 	}
 
 	@Override
@@ -64,6 +144,507 @@ public class SemanticBookExtractor implements BookExtractor {
 
 	@Override
 	public String extractTitle(Element htmlElement) {
-		throw new UnsupportedOperationException("Not implemented yet");
+		return orElse(readStructuredData(htmlElement).title, () -> fallback.extractTitle(htmlElement));
+	}
+
+	private static String orElse(String value, Supplier<String> fallbackValue) {
+		return (value != null) ? value : fallbackValue.get();
+	}
+
+	/**
+	 * Finds every kind of structured data with a single search of the page, then reads them from the most
+	 * to the least preferred, each only filling the fields the ones before it left empty.
+	 */
+	private StructuredBook readStructuredData(Element page) {
+		Preconditions.checkNotNull(page);
+
+		List<Element> jsonLdScripts = new ArrayList<>();
+		List<Element> itemScopes = new ArrayList<>();
+		List<Element> metaTags = new ArrayList<>();
+		for (Element element : page.select(STRUCTURED_DATA_QUERY)) {
+			if (element.tagName().equals("script")) {
+				jsonLdScripts.add(element);
+			} else if (element.hasAttr("itemscope")) {
+				itemScopes.add(element);
+			} else {
+				metaTags.add(element);
+			}
+		}
+
+		StructuredBook structuredBook = new StructuredBook();
+		for (Element script : jsonLdScripts) {
+			readJsonLd(script, structuredBook);
+		}
+		for (Element itemScope : itemScopes) {
+			if (BOOK_TYPES.contains(typeName(itemScope.attr("itemtype"))))
+				readMicrodata(itemScope, structuredBook);
+		}
+		readOpenGraph(metaTags, structuredBook);
+		return structuredBook;
+	}
+
+	private void readJsonLd(Element script, StructuredBook structuredBook) {
+		try {
+			JsonNode root = OBJECT_MAPPER.readTree(script.data());
+			List<JsonNode> items = new ArrayList<>();
+			findJsonLdItems(root, BOOK_TYPES, items);
+			for (JsonNode item : items) {
+				readJsonLdItem(item, script.baseUri(), structuredBook);
+			}
+		} catch (IOException e) {
+			LOGGER.debug("Json-ld on page {} was ill-formed: {}", script.baseUri(), e);
+		}
+	}
+
+	private static void findJsonLdItems(JsonNode node, Set<String> types, List<JsonNode> items) {
+		if (node == null) {
+			return;
+		} else if (node.isArray()) {
+			node.forEach(element -> findJsonLdItems(element, types, items));
+		} else if (node.isObject()) {
+			findJsonLdItems(node.get("@graph"), types, items);
+			if (hasJsonLdType(node, types))
+				items.add(node);
+		}
+	}
+
+	private static boolean hasJsonLdType(JsonNode item, Set<String> types) {
+		JsonNode type = item.get("@type");
+		if (type == null) {
+			return false;
+		} else if (type.isArray()) {
+			for (JsonNode element : type) {
+				if (types.contains(typeName(element.asText())))
+					return true;
+			}
+			return false;
+		} else {
+			return types.contains(typeName(type.asText()));
+		}
+	}
+
+	private void readJsonLdItem(JsonNode item, String baseUri, StructuredBook structuredBook) {
+		structuredBook.setTitle(jsonText(item.get("name")));
+		structuredBook.setAuthors(jsonNames(item.get("author")));
+		structuredBook.setIsbn(jsonText(item.get("isbn")));
+		structuredBook.setIsbn(jsonText(item.get("gtin13")));
+		structuredBook.setFormat(coerceFormat(jsonText(item.get("bookFormat"))));
+		structuredBook.setPublisher(jsonNames(item.get("publisher")));
+		structuredBook.setImageUrl(resolve(baseUri, jsonUrl(item.get("image"))));
+		structuredBook.setDescription(jsonText(item.get("description")));
+
+		// The editions of a work may be described apart from it
+		List<JsonNode> editions = new ArrayList<>();
+		findJsonLdItems(item.get("workExample"), ImmutableSet.of("book"), editions);
+		for (JsonNode edition : editions) {
+			structuredBook.setIsbn(jsonText(edition.get("isbn")));
+			structuredBook.setFormat(coerceFormat(jsonText(edition.get("bookFormat"))));
+		}
+
+		List<JsonNode> offers = new ArrayList<>();
+		findJsonLdItems(item.get("offers"), OFFER_TYPES, offers);
+		if (offers.isEmpty() && item.has("offers"))
+			offers.add(item.get("offers").isArray() ? item.get("offers").get(0) : item.get("offers"));
+		for (JsonNode offer : offers) {
+			if (offer == null)
+				continue;
+			structuredBook.setPrice(jsonText(offer.has("price") ? offer.get("price") : offer.get("lowPrice")));
+			structuredBook.setCurrency(jsonText(offer.get("priceCurrency")));
+			structuredBook.setAvailability(jsonText(offer.get("availability")));
+		}
+	}
+
+	private static String jsonText(JsonNode node) {
+		if (node == null || node.isNull() || node.isContainerNode())
+			return null;
+
+		String text = Parser.unescapeEntities(node.asText(), false).trim();
+		return text.isEmpty() ? null : text;
+	}
+
+	/**
+	 * @return The names of the people or organisations, given either as text or as items with a name.
+	 */
+	private static String jsonNames(JsonNode node) {
+		if (node == null) {
+			return null;
+		} else if (node.isArray()) {
+			StringJoiner names = new StringJoiner(", ");
+			node.forEach(element -> {
+				String name = jsonNames(element);
+				if (name != null)
+					names.add(name);
+			});
+			return (names.length() > 0) ? names.toString() : null;
+		} else if (node.isObject()) {
+			return jsonText(node.get("name"));
+		} else {
+			return jsonText(node);
+		}
+	}
+
+	private static String jsonUrl(JsonNode node) {
+		if (node == null) {
+			return null;
+		} else if (node.isArray()) {
+			return (node.size() > 0) ? jsonUrl(node.get(0)) : null;
+		} else if (node.isObject()) {
+			return jsonText(node.has("url") ? node.get("url") : node.get("contentUrl"));
+		} else {
+			return jsonText(node);
+		}
+	}
+
+	private void readMicrodata(Element itemScope, StructuredBook structuredBook) {
+		for (Element property : itemScope.select("[itemprop]")) {
+			if (!belongsToBookOrOffer(property, itemScope))
+				continue;
+
+			String value = microdataValue(property);
+			switch (property.attr("itemprop")) {
+				case "name":
+					structuredBook.setTitle(value);
+					break;
+				case "author":
+					structuredBook.setAuthors(value);
+					break;
+				case "isbn":
+				case "gtin13":
+					structuredBook.setIsbn(value);
+					break;
+				case "bookFormat":
+					structuredBook.setFormat(coerceFormat(value));
+					break;
+				case "publisher":
+					structuredBook.setPublisher(value);
+					break;
+				case "image":
+					structuredBook.setImageUrl(value);
+					break;
+				case "description":
+					structuredBook.setDescription(value);
+					break;
+				case "price":
+				case "lowPrice":
+					structuredBook.setPrice(value);
+					break;
+				case "priceCurrency":
+					structuredBook.setCurrency(value);
+					break;
+				case "availability":
+					structuredBook.setAvailability(value);
+					break;
+				default:
+					break;
+			}
+		}
+	}
+
+	/**
+	 * @return Whether the property describes the book itself or its offer, rather than another item nested in it.
+	 */
+	private static boolean belongsToBookOrOffer(Element property, Element bookScope) {
+		Element owner = property.parent();
+		while (owner != null && owner != bookScope && !owner.hasAttr("itemscope")) {
+			owner = owner.parent();
+		}
+		return owner == bookScope || (owner != null && owner.attr("itemprop").equals("offers"));
+	}
+
+	private static String microdataValue(Element property) {
+		String value;
+		if (property.hasAttr("content")) {
+			value = property.attr("content");
+		} else if (property.tagName().equals("a") || property.tagName().equals("link")) {
+			value = property.absUrl("href");
+		} else if (property.tagName().equals("img")) {
+			value = property.absUrl("src");
+		} else {
+			value = property.text();
+		}
+		value = value.trim();
+		return value.isEmpty() ? null : value;
+	}
+
+	private void readOpenGraph(List<Element> metaTags, StructuredBook structuredBook) {
+		for (Element metaTag : metaTags) {
+			String value = metaTag.attr("content").trim();
+			if (value.isEmpty())
+				continue;
+
+			switch (metaTag.attr("property")) {
+				case "og:title":
+					structuredBook.setTitle(value);
+					break;
+				case "og:image":
+					structuredBook.setImageUrl(value);
+					break;
+				case "og:description":
+					structuredBook.setDescription(value);
+					break;
+				case "book:isbn":
+				case "books:isbn":
+					structuredBook.setIsbn(value);
+					break;
+				case "product:price:amount":
+				case "og:price:amount":
+					structuredBook.setPrice(value);
+					break;
+				case "product:price:currency":
+				case "og:price:currency":
+					structuredBook.setCurrency(value);
+					break;
+				case "product:availability":
+				case "og:availability":
+					structuredBook.setAvailability(value);
+					break;
+				default:
+					break;
+			}
+		}
+	}
+
+	/**
+	 * @return The name of a schema.org type or enumeration member given by its url, such as Paperback for
+	 * http://schema.org/Paperback, in lower case.
+	 */
+	private static String typeName(String type) {
+		if (type == null)
+			return "";
+		int start = Math.max(type.lastIndexOf('/'), type.lastIndexOf(':')) + 1;
+		return type.substring(start).trim().toLowerCase(Locale.ROOT);
+	}
+
+	private String coerceFormat(String bookFormat) {
+		return (bookFormat != null) ? coercer.getLexicon().getFormat(typeName(bookFormat)) : null;
+	}
+
+	private static String resolve(String baseUri, String url) {
+		if (url == null || baseUri == null || baseUri.isEmpty())
+			return url;
+
+		try {
+			return new URI(baseUri).resolve(url).toString();
+		} catch (URISyntaxException | IllegalArgumentException e) {
+			return url;
+		}
+	}
+
+	/**
+	 * The fields of a book found in the structured data of a page. Each field keeps the first value found for it.
+	 */
+	private static final class StructuredBook {
+		private String title;
+		private String authors;
+		private String isbn;
+		private String format;
+		private String publisher;
+		private String imageUrl;
+		private String description;
+		private String price;
+		private String currency;
+		private String availability;
+
+		/**
+		 * @return Whether the book and its offer can be extracted from the structured data alone.
+		 */
+		private boolean isComplete() {
+			return isbn != null && price != null;
+		}
+
+		private void setTitle(String title) {
+			this.title = (this.title != null) ? this.title : title;
+		}
+
+		private void setAuthors(String authors) {
+			this.authors = (this.authors != null) ? this.authors : authors;
+		}
+
+		private void setIsbn(String isbn) {
+			this.isbn = (this.isbn != null) ? this.isbn : Isbns.toIsbn13(isbn);
+		}
+
+		private void setFormat(String format) {
+			this.format = (this.format != null) ? this.format : format;
+		}
+
+		private void setPublisher(String publisher) {
+			this.publisher = (this.publisher != null) ? this.publisher : publisher;
+		}
+
+		private void setImageUrl(String imageUrl) {
+			this.imageUrl = (this.imageUrl != null) ? this.imageUrl : imageUrl;
+		}
+
+		private void setDescription(String description) {
+			this.description = (this.description != null) ? this.description : description;
+		}
+
+		private void setPrice(String price) {
+			this.price = (this.price != null) ? this.price : price;
+		}
+
+		private void setCurrency(String currency) {
+			this.currency = (this.currency != null) ? this.currency : currency;
+		}
+
+		private void setAvailability(String availability) {
+			this.availability = (this.availability != null) ? this.availability : availability;
+		}
+	}
+
+	/**
+	 * Extracts a book from its structured data, searching the page with the fallback extractor only for the
+	 * fields the structured data lacks or gives in a form that cannot be read.
+	 */
+	private final class StructuredPage implements BookExtractor {
+		private final StructuredBook structuredBook;
+
+		private StructuredPage(StructuredBook structuredBook) {
+			this.structuredBook = structuredBook;
+		}
+
+		@Override
+		public PricePoint extractPricePoint(Element productPage, Locale locale) {
+			try {
+				PricePoint pricePoint = PricePoint.valueOf(Prices.parseStructured(structuredBook.price, locale), locale, productPage);
+				pricePoint.setAvailability(Availability.fromSchemaOrg(structuredBook.availability));
+				if (structuredBook.currency != null)
+					pricePoint.setCurrency(Currency.getInstance(structuredBook.currency.toUpperCase(Locale.ROOT)));
+				return pricePoint;
+			} catch (ParseException e) {
+				LOGGER.warn("Price in structured data was ill-formated {}, which resulted in {}", structuredBook.price, e);
+			} catch (MalformedURLException e) {
+				LOGGER.warn("Url was malformed {}", e);
+			} catch (IllegalArgumentException e) {
+				LOGGER.warn("Currency in structured data was unknown {}: {}", structuredBook.currency, e);
+			}
+
+			// The price shown on the page is read instead
+			return fallback.extractPricePoint(productPage, locale);
+		}
+
+		@Override
+		public String extractAvailability(Document productPage) {
+			return orElse(structuredBook.availability, () -> fallback.extractAvailability(productPage));
+		}
+
+		@Override
+		public String extractDescription(Document productPage) {
+			return orElse(structuredBook.description, () -> fallback.extractDescription(productPage));
+		}
+
+		/**
+		 * Only searches the page if one of the fields read from the attributes is missing from the structured data.
+		 */
+		@Override
+		public Map<String, String> extractAttributes(Element productPage) {
+			if (structuredBook.authors != null && structuredBook.format != null && structuredBook.publisher != null)
+				return Collections.emptyMap();
+
+			return fallback.extractAttributes(productPage);
+		}
+
+		@Override
+		public String extractPublisher(Element htmlElement, Map<String, String> attributes) {
+			return orElse(structuredBook.publisher, () -> fallback.extractPublisher(htmlElement, attributes));
+		}
+
+		@Override
+		public String extractFormat(Element htmlElement, Map<String, String> attributes) {
+			return orElse(structuredBook.format, () -> fallback.extractFormat(htmlElement, attributes));
+		}
+
+		@Override
+		public String extractIsbn(Element htmlElement, Map<String, String> attributes) {
+			return structuredBook.isbn;
+		}
+
+		@Override
+		public String extractAuthors(Element htmlElement, Map<String, String> attributes) {
+			return orElse(structuredBook.authors, () -> fallback.extractAuthors(htmlElement, attributes));
+		}
+
+		@Override
+		public String extractImageUrl(Element htmlElement) {
+			return orElse(structuredBook.imageUrl, () -> fallback.extractImageUrl(htmlElement));
+		}
+
+		@Override
+		public Set<String> extractKeywords(String... values) {
+			return SemanticBookExtractor.this.extractKeywords(values);
+		}
+
+		@Override
+		public String extractTitle(Element htmlElement) {
+			return orElse(structuredBook.title, () -> fallback.extractTitle(htmlElement));
+		}
+	}
+
+	/**
+	 * Finds nothing on any page.
+	 */
+	private static final class NoBookExtractor implements BookExtractor {
+		private static final NoBookExtractor instance = new NoBookExtractor();
+
+		@Override
+		public Product extract(Document productPage) {
+			return new Book();
+		}
+
+		@Override
+		public PricePoint extractPricePoint(Element productPage, Locale locale) {
+			return null;
+		}
+
+		@Override
+		public String extractAvailability(Document productPage) {
+			return null;
+		}
+
+		@Override
+		public String extractDescription(Document productPage) {
+			return null;
+		}
+
+		@Override
+		public Map<String, String> extractAttributes(Element productPage) {
+			return Collections.emptyMap();
+		}
+
+		@Override
+		public String extractPublisher(Element htmlElement, Map<String, String> attributes) {
+			return null;
+		}
+
+		@Override
+		public String extractFormat(Element htmlElement, Map<String, String> attributes) {
+			return null;
+		}
+
+		@Override
+		public String extractIsbn(Element htmlElement, Map<String, String> attributes) {
+			return null;
+		}
+
+		@Override
+		public String extractAuthors(Element htmlElement, Map<String, String> attributes) {
+			return null;
+		}
+
+		@Override
+		public String extractImageUrl(Element htmlElement) {
+			return null;
+		}
+
+		@Override
+		public Set<String> extractKeywords(String... values) {
+			return Collections.emptySet();
+		}
+
+		@Override
+		public String extractTitle(Element htmlElement) {
+			return null;
+		}
 	}
 }
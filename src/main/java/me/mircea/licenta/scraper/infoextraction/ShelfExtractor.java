@@ -0,0 +1,291 @@
+package me.mircea.licenta.scraper.infoextraction;
+
+import com.google.common.base.Preconditions;
+import me.mircea.licenta.products.db.model.Availability;
+import me.mircea.licenta.products.db.model.Book;
+import me.mircea.licenta.products.db.model.PricePoint;
+import me.mircea.licenta.products.utils.Isbns;
+import me.mircea.licenta.products.utils.Prices;
+import me.mircea.licenta.scraper.utils.BookAttributesCoercer;
+import me.mircea.licenta.scraper.utils.BookLexicon;
+import me.mircea.licenta.scraper.utils.BookLexicon.WordClass;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.net.MalformedURLException;
+import java.text.ParseException;
+import java.time.Instant;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Extracts the offers of the cards of a listing page, such as a category grid or a page of search results, each
+ * card showing the title, authors, price and link of a book. Cards are found by their schema.org Product or Book
+ * microdata or, without any, as the repeated tiles holding both a price and a link.
+ * Cards seldom show an isbn, so the books extracted from them are mostly known by the link to their product page,
+ * which is the url of their price points.
+ * The extractor holds no state between pages, so the shared instance may be used by any number of threads.
+ */
+public class ShelfExtractor {
+    public static final ShelfExtractor instance = new ShelfExtractor();
+
+    /**
+     * The fewest cards a page must have to be a listing page, rather than a product page with a card of its own.
+     */
+    public static final int MIN_CARDS = 2;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShelfExtractor.class);
+    private static final String MICRODATA_CARD = "[itemscope][itemtype~=(?i)schema\\.org/(Product|Book)$]";
+
+    private final BookAttributesCoercer coercer;
+    private final String priceQuery;
+    private final String authorQuery;
+
+    public ShelfExtractor() {
+        this.coercer = new BookAttributesCoercer();
+        BookLexicon lexicon = this.coercer.getLexicon();
+        // TODO: be locale sensitive
+        this.priceQuery = ":matchesOwn((,|.)[0-9]{2} lei)," + lexicon.getClassOrIdSelector(WordClass.PRICE);
+        this.authorQuery = lexicon.getClassOrIdSelector(WordClass.AUTHOR) + ",a[href*='autor'],a[href*='author']";
+    }
+
+    /**
+     * @return The book and price point of every card with a link, a title and a price, in the order of the page.
+     */
+    public List<SimpleImmutableEntry<Book, PricePoint>> extractShelfOffers(Document listingPage, Locale locale) {
+        Preconditions.checkNotNull(listingPage);
+
+        List<SimpleImmutableEntry<Book, PricePoint>> offers = new ArrayList<>();
+        for (Element card : findCards(listingPage)) {
+            SimpleImmutableEntry<Book, PricePoint> offer = extractCardOffer(card, locale);
+            if (offer != null) {
+                offers.add(offer);
+            }
+        }
+        return offers;
+    }
+
+    /**
+     * @return The outermost cards with microdata or, if there are none, the repeated tiles around the prices.
+     */
+    public List<Element> findCards(Element root) {
+        Preconditions.checkNotNull(root);
+
+        List<Element> cards = new ArrayList<>();
+        for (Element card : root.select(MICRODATA_CARD)) {
+            // A Book card may nest in the Product card of the same book
+            if (!card.parents().is(MICRODATA_CARD)) {
+                cards.add(card);
+            }
+        }
+        if (!cards.isEmpty()) {
+            return cards;
+        }
+
+        for (Element priceElement : root.select(priceQuery)) {
+            Element tile = findEnclosingTile(priceElement, root);
+            if (tile != null && !cards.contains(tile)) {
+                cards.add(tile);
+            }
+        }
+        return cards;
+    }
+
+    /**
+     * @return The closest ancestor of the price with a link which repeats among its siblings, or null if none does.
+     */
+    private Element findEnclosingTile(Element priceElement, Element root) {
+        for (Element ancestor = priceElement.parent(); ancestor != null && ancestor != root; ancestor = ancestor.parent()) {
+            if (isRepeatedTile(ancestor) && !ancestor.select("a[href]").isEmpty()) {
+                return ancestor;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isRepeatedTile(Element element) {
+        Element parent = element.parent();
+        if (parent == null) {
+            return false;
+        }
+
+        int noSimilarSiblings = 0;
+        for (Element sibling : parent.children()) {
+            if (sibling.tagName().equals(element.tagName()) && sibling.className().equals(element.className())) {
+                ++noSimilarSiblings;
+            }
+        }
+        return noSimilarSiblings >= MIN_CARDS;
+    }
+
+    /**
+     * @return The book and price point of the card, or null if it lacks a link, a title or a price.
+     */
+    public SimpleImmutableEntry<Book, PricePoint> extractCardOffer(Element card, Locale locale) {
+        Preconditions.checkNotNull(card);
+
+        String url = extractUrl(card);
+        String title = extractTitle(card);
+        if (url == null || title == null) {
+            return null;
+        }
+
+        PricePoint pricePoint;
+        try {
+            BigDecimal price = extractPrice(card, locale);
+            if (price == null) {
+                return null;
+            }
+            pricePoint = new PricePoint(price, Currency.getInstance(locale), Instant.now(), url);
+        } catch (ParseException e) {
+            LOGGER.warn("Price tag was ill-formated {}, which resulted in {}", e);
+            return null;
+        } catch (MalformedURLException e) {
+            LOGGER.warn("Url was malformed {}", e);
+            return null;
+        }
+        pricePoint.setAvailability(extractAvailability(card));
+        Currency currency = extractCurrency(card);
+        if (currency != null) {
+            pricePoint.setCurrency(currency);
+        }
+
+        Book book = new Book();
+        book.setTitle(title);
+        book.setAuthors(extractAuthors(card));
+        book.setImageUrl(extractImageUrl(card));
+        book.setIsbn(extractIsbn(card));
+        return new SimpleImmutableEntry<>(book, pricePoint);
+    }
+
+    private static String extractUrl(Element card) {
+        Element urlElement = card.selectFirst("[itemprop=url]");
+        if (urlElement != null) {
+            String url = urlElement.hasAttr("href") ? urlElement.absUrl("href") : urlElement.absUrl("content");
+            if (!url.isEmpty()) {
+                return url;
+            }
+        }
+
+        Element link = card.is("a[href]") ? card : card.selectFirst("a[href]");
+        return (link != null && !link.absUrl("href").isEmpty()) ? link.absUrl("href") : null;
+    }
+
+    private static String extractTitle(Element card) {
+        String title = textOf(card.selectFirst("[itemprop=name]"));
+        if (title == null) {
+            Element titledLink = card.selectFirst("a[title]:not([title=''])");
+            title = (titledLink != null) ? titledLink.attr("title").trim() : null;
+        }
+        if (title == null) {
+            title = textOf(card.selectFirst("h1, h2, h3, h4, h5, h6"));
+        }
+        if (title == null) {
+            for (Element link : card.select("a[href]")) {
+                title = textOf(link);
+                if (title != null) {
+                    break;
+                }
+            }
+        }
+        return title;
+    }
+
+    /**
+     * The content of a microdata price is written for machines, so only the price tags shown on the card are read
+     * as such, with their last two digits taken as cents when they have no separator.
+     * @return The price of the card, or null if it shows none.
+     */
+    private BigDecimal extractPrice(Element card, Locale locale) throws ParseException {
+        Element priceElement = card.selectFirst("[itemprop=price]");
+        if (priceElement != null && priceElement.hasAttr("content")) {
+            return Prices.parseStructured(priceElement.attr("content"), locale);
+        }
+        if (priceElement != null && textOf(priceElement) != null) {
+            return Prices.parse(textOf(priceElement), locale);
+        }
+
+        for (Element element : card.select(priceQuery)) {
+            String priceTag = textOf(element);
+            if (priceTag != null && priceTag.matches(".*\\d.*")) {
+                return Prices.parse(priceTag.replaceAll(".*:", "").trim(), locale);
+            }
+        }
+        return null;
+    }
+
+    private String extractAuthors(Element card) {
+        Elements authorElements = card.select("[itemprop=author]");
+        if (authorElements.isEmpty()) {
+            authorElements = card.select(authorQuery);
+        }
+        return authorElements.isEmpty() ? null : authorElements.first().text().trim();
+    }
+
+    private static String extractImageUrl(Element card) {
+        Element image = card.selectFirst("[itemprop=image]");
+        if (image == null) {
+            image = card.selectFirst("img[src]");
+        }
+        if (image == null) {
+            return null;
+        }
+
+        String imageUrl = image.hasAttr("src") ? image.absUrl("src") : image.absUrl("content");
+        return imageUrl.isEmpty() ? null : imageUrl;
+    }
+
+    private static String extractIsbn(Element card) {
+        Element isbnElement = card.selectFirst("[itemprop=isbn], [itemprop=gtin13]");
+        if (isbnElement == null) {
+            return null;
+        }
+        return Isbns.toIsbn13(isbnElement.hasAttr("content") ? isbnElement.attr("content") : isbnElement.text());
+    }
+
+    private Availability extractAvailability(Element card) {
+        Element availabilityElement = card.selectFirst("[itemprop=availability]");
+        if (availabilityElement != null) {
+            return Availability.fromSchemaOrg(availabilityElement.hasAttr("href")
+                    ? availabilityElement.attr("href")
+                    : availabilityElement.attr("content"));
+        }
+
+        String stock = textOf(card.selectFirst("[class*='stoc'],[id*='stoc']"));
+        return (stock != null) ? coercer.coerceAvailability(stock) : null;
+    }
+
+    private static Currency extractCurrency(Element card) {
+        Element currencyElement = card.selectFirst("[itemprop=priceCurrency]");
+        if (currencyElement == null) {
+            return null;
+        }
+
+        try {
+            return Currency.getInstance(currencyElement.hasAttr("content")
+                    ? currencyElement.attr("content").trim()
+                    : currencyElement.text().trim());
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Unknown currency {}", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return The trimmed text of the element, or null if there is no element or it has no text.
+     */
+    private static String textOf(Element element) {
+        if (element == null) {
+            return null;
+        }
+        String text = element.text().trim();
+        return text.isEmpty() ? null : text;
+    }
+}
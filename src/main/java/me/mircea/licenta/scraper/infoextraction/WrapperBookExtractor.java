@@ -1,8 +1,9 @@
 package me.mircea.licenta.scraper.infoextraction;
 
-import me.mircea.licenta.core.crawl.db.model.Selector;
 import me.mircea.licenta.core.crawl.db.model.Wrapper;
 import me.mircea.licenta.scraper.utils.BookAttributesCoercer;
+import me.mircea.licenta.scraper.utils.BookLexicon;
+import me.mircea.licenta.scraper.utils.BookLexicon.WordClass;
 import me.mircea.licenta.products.db.model.Availability;
 import me.mircea.licenta.products.db.model.PricePoint;
 import org.jsoup.nodes.Document;
@@ -17,13 +18,30 @@ import java.util.*;
 
 public class WrapperBookExtractor implements BookExtractor {
 	private static final Logger LOGGER = LoggerFactory.getLogger(WrapperBookExtractor.class);
-	private final Wrapper wrapper;
+	private static final List<String> FIELDS = Arrays.asList("title", "authors", "isbn", "format", "pricepoint",
+			"attributes", "availability", "description", "image");
+
+	private final CompiledWrapper wrapper;
 	private final BookAttributesCoercer coercer;
+	private final BookLexicon lexicon;
 
 	public WrapperBookExtractor(Wrapper wrapper) {
+		this(new CompiledWrapper(wrapper, FIELDS));
+	}
+
+	/**
+	 * @param queriesByField The CSS query of each field, by the name of its selector, such as those of a wrapper
+	 *                       induced from the pages of a domain.
+	 */
+	public static WrapperBookExtractor fromQueries(Map<String, String> queriesByField) {
+		return new WrapperBookExtractor(new CompiledWrapper(queriesByField));
+	}
+
+	WrapperBookExtractor(CompiledWrapper wrapper) {
 		super();
 		this.wrapper = wrapper;
 		this.coercer = new BookAttributesCoercer();
+		this.lexicon = this.coercer.getLexicon();
 	}
 
 	@Override
@@ -35,15 +53,13 @@ public class WrapperBookExtractor implements BookExtractor {
 	@Override
 	public String extractAuthors(Element htmlElement, Map<String, String> attributes) {
 		String authors = null;
-		Optional<Selector> possibleSelector = wrapper.getSelectorByName("authors");
-		if (possibleSelector.isPresent()) {
-			Selector selector = possibleSelector.get();
-			Element element = htmlElement.selectFirst(selector.getQuery());
+		if (wrapper.hasField("authors")) {
+			Element element = wrapper.selectFirst("authors", htmlElement);
 			if (element != null)
 				authors = element.text();
 		} else {
 			Optional<String> authorAttribute = attributes.keySet().stream()
-					.filter(this.coercer.authorWordSet::contains)
+					.filter(key -> lexicon.contains(WordClass.AUTHOR, key))
 					.findFirst();
 			if (authorAttribute.isPresent())
 				authors = attributes.get(authorAttribute.get());
@@ -56,16 +72,14 @@ public class WrapperBookExtractor implements BookExtractor {
 	@Override
 	public String extractIsbn(Element htmlElement, Map<String, String> attributes) {
 		String isbn = null;
-		Optional<Selector> possibleSelector = wrapper.getSelectorByName("isbn");
-		if (possibleSelector.isPresent()) {
-			Selector selector = possibleSelector.get();
-			Element isbnElement = htmlElement.selectFirst(selector.getQuery());
+		if (wrapper.hasField("isbn")) {
+			Element isbnElement = wrapper.selectFirst("isbn", htmlElement);
 			if (isbnElement != null)
-				isbn = isbnElement.text();
+				isbn = coercer.coerceIsbn(isbnElement.text());
 		} else {
 			Optional<String> isbnAttribute = attributes.keySet()
 					.stream()
-					.filter(key -> !Collections.disjoint(this.coercer.codeWordSet, Arrays.asList(key.split("[\\s|,.;:]"))))
+					.filter(key -> Arrays.stream(key.split("[\\s|,.;:]")).anyMatch(word -> lexicon.contains(WordClass.CODE, word)))
 					.findFirst();
 			if (isbnAttribute.isPresent())
 				isbn = coercer.coerceIsbn(attributes.get(isbnAttribute.get()));
@@ -77,8 +91,7 @@ public class WrapperBookExtractor implements BookExtractor {
 	@Override
 	public String extractFormat(Element htmlElement, Map<String, String> attributes) {
 		String format = null;
-		Optional<Selector> possibleSelector = wrapper.getSelectorByName("format");
-		if (possibleSelector.isPresent()) {
+		if (wrapper.hasField("format")) {
 			//TODO: finish this
 		} else {
 			format = coercer.coerceFormat(attributes);
@@ -90,13 +103,12 @@ public class WrapperBookExtractor implements BookExtractor {
 	@Override
 	public String extractPublisher(Element htmlElement, Map<String, String> attributes) {
 		String publisher = null;
-		Optional<Selector> possibleSelector = wrapper.getSelectorByName("format");
-		if (possibleSelector.isPresent()) {
+		if (wrapper.hasField("format")) {
 			//TODO: finish this
 		} else {
 			Optional<Map.Entry<String, String>> publisherAttribute = attributes.entrySet()
 					.stream()
-					.filter(entry -> !Collections.disjoint(Arrays.asList(entry.getKey().split(BookAttributesCoercer.SEPARATORS)), this.coercer.publisherWordSet))
+					.filter(entry -> Arrays.stream(entry.getKey().split(BookAttributesCoercer.SEPARATORS)).anyMatch(word -> lexicon.contains(WordClass.PUBLISHER, word)))
 					.findFirst();
 
 			if (publisherAttribute.isPresent())
@@ -108,10 +120,8 @@ public class WrapperBookExtractor implements BookExtractor {
 	@Override
 	public PricePoint extractPricePoint(Element productPage, Locale locale) {
 		PricePoint price = null;
-		Optional<Selector> possibleSelector = wrapper.getSelectorByName("pricepoint");
-		if (possibleSelector.isPresent()) {
-			Selector selector = possibleSelector.get();
-			String priceTag = selector.selectFirstFromElement(productPage);
+		if (wrapper.hasField("pricepoint")) {
+			String priceTag = wrapper.selectFirstValue("pricepoint", productPage);
 
 			if (priceTag != null) {
 				try {
@@ -133,10 +143,8 @@ public class WrapperBookExtractor implements BookExtractor {
 	@Override
 	public Map<String, String> extractAttributes(Element productPage) {
 		Map<String, String> attributes = new HashMap<>();
-		Optional<Selector> possibleSelector = wrapper.getSelectorByName("attributes");
-		if (possibleSelector.isPresent()) {
-			Selector selector = possibleSelector.get();
-			Elements attributeElements = productPage.select(selector.getQuery());
+		if (wrapper.hasField("attributes")) {
+			Elements attributeElements = wrapper.select("attributes", productPage);
 
 			attributes = BookAttributesCoercer.splitAttributes(attributeElements);
 		}
@@ -167,10 +175,8 @@ public class WrapperBookExtractor implements BookExtractor {
 
 	private String extractSingleValueWithSelectorName(Element htmlElement, String selectorName) {
 		String result = null;
-		Optional<Selector> possibleSelector = wrapper.getSelectorByName(selectorName);
-		if (possibleSelector.isPresent()) {
-			Selector selector = possibleSelector.get();
-			result = selector.selectFirstFromElement(htmlElement);
+		if (wrapper.hasField(selectorName)) {
+			result = wrapper.selectFirstValue(selectorName, htmlElement);
 		}
 		return result;
 	}
@@ -1,16 +1,17 @@
 package me.mircea.licenta.scraper.infoextraction;
 
-import me.mircea.licenta.core.crawl.db.model.Wrapper;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
 
+import java.util.Map;
 
-public interface WrapperGenerator {
-    Wrapper generateWrapper(Element productPage, Elements additionals);
 
-    default Wrapper generateWrapper(Element bookPage) {
-        throw new UnsupportedOperationException("Not implemented yet");
-    }
+public interface WrapperGenerator {
+    /**
+     * @return The CSS query of each field of a wrapper for the pages like this one, by the name of its selector.
+     * Fields not found on the page have no query.
+     */
+    Map<String, String> generateWrapperQueries(Element productPage);
 
     String generateCssSelectorFor(Elements elements);
 }
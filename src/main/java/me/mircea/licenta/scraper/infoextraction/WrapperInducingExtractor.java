@@ -0,0 +1,282 @@
+package me.mircea.licenta.scraper.infoextraction;
+
+import com.google.common.base.Preconditions;
+import me.mircea.licenta.products.db.model.Book;
+import me.mircea.licenta.products.db.model.PricePoint;
+import me.mircea.licenta.products.db.model.Product;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Extracts the pages of a domain without a wrapper by heuristics only until it has induced a wrapper for them.
+ * The queries of the wrapper are proposed by the heuristics on the first {@link #TRAINING_PAGES} pages on which
+ * they find an offer, keeping for each field the query proposed most often. The wrapper is then checked against
+ * the next {@link #HELD_OUT_PAGES} such pages, and it replaces the heuristics if it extracts the same book and
+ * price as them on enough of those pages. Otherwise another wrapper is induced from the following pages, up to
+ * {@link #MAX_ATTEMPTS} times.
+ * <p>
+ * A wrapper induced by an earlier job on the domain is checked against the held-out pages first, so that it only
+ * has to be induced again if the pages of the domain changed since.
+ */
+public class WrapperInducingExtractor implements BookExtractor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(WrapperInducingExtractor.class);
+
+    static final int TRAINING_PAGES = 10;
+    static final int HELD_OUT_PAGES = 5;
+    static final int MIN_AGREEING_PAGES = 4;
+    static final int MAX_ATTEMPTS = 3;
+
+    private final String domain;
+    private final HeuristicalBookExtractor heuristics;
+    private final Predicate<SimpleImmutableEntry<Product, PricePoint>> isOffer;
+    private final Consumer<Map<String, String>> onInduced;
+
+    private final List<Map<String, String>> trainingQueries;
+    private Candidate candidate;
+    private int noAttempts;
+    private volatile WrapperBookExtractor inducedExtractor;
+
+    /**
+     * @param isOffer Whether a product and price point extracted from a page make up an offer worth keeping.
+     */
+    public WrapperInducingExtractor(String domain, HeuristicalBookExtractor heuristics,
+                                    Predicate<SimpleImmutableEntry<Product, PricePoint>> isOffer) {
+        this(domain, heuristics, isOffer, Collections.emptyMap(), queries -> {});
+    }
+
+    /**
+     * @param storedQueries The queries of the wrapper induced by an earlier job on the domain, if any.
+     * @param onInduced     Called with the queries of a newly induced wrapper, once it replaces the heuristics.
+     */
+    public WrapperInducingExtractor(String domain, HeuristicalBookExtractor heuristics,
+                                    Predicate<SimpleImmutableEntry<Product, PricePoint>> isOffer,
+                                    Map<String, String> storedQueries, Consumer<Map<String, String>> onInduced) {
+        Preconditions.checkNotNull(domain);
+        Preconditions.checkNotNull(heuristics);
+        Preconditions.checkNotNull(isOffer);
+        Preconditions.checkNotNull(storedQueries);
+        Preconditions.checkNotNull(onInduced);
+
+        this.domain = domain;
+        this.heuristics = heuristics;
+        this.isOffer = isOffer;
+        this.onInduced = onInduced;
+        this.trainingQueries = new ArrayList<>();
+        if (!storedQueries.isEmpty()) {
+            this.candidate = new Candidate(storedQueries, true);
+        }
+    }
+
+    @Override
+    public SimpleImmutableEntry<Product, PricePoint> extractProductOffer(Document productPage, Locale locale) {
+        Preconditions.checkNotNull(productPage);
+
+        WrapperBookExtractor wrapperExtractor = inducedExtractor;
+        if (wrapperExtractor != null) {
+            return wrapperExtractor.extractProductOffer(productPage, locale);
+        }
+
+        SimpleImmutableEntry<Product, PricePoint> productOffer = heuristics.extractProductOffer(productPage, locale);
+        if (isOffer.test(productOffer)) {
+            learnFrom(productPage, locale, productOffer);
+        }
+        return productOffer;
+    }
+
+    /**
+     * @return Whether the pages of the domain are now extracted by an induced wrapper.
+     */
+    public boolean hasInducedWrapper() {
+        return inducedExtractor != null;
+    }
+
+    private BookExtractor getCurrentExtractor() {
+        WrapperBookExtractor wrapperExtractor = inducedExtractor;
+        return (wrapperExtractor != null) ? wrapperExtractor : heuristics;
+    }
+
+    /**
+     * Either proposes queries from the page or checks the wrapper being verified against it. The page is
+     * searched outside of the lock, so that the workers only wait on each other to keep score.
+     */
+    private void learnFrom(Document productPage, Locale locale, SimpleImmutableEntry<Product, PricePoint> productOffer) {
+        Candidate currentCandidate;
+        synchronized (this) {
+            if (noAttempts >= MAX_ATTEMPTS) {
+                return;
+            }
+            currentCandidate = candidate;
+        }
+
+        if (currentCandidate == null) {
+            recordTrainingPage(heuristics.generateWrapperQueries(productPage));
+        } else {
+            SimpleImmutableEntry<Product, PricePoint> wrapperOffer = currentCandidate.extractor.extractProductOffer(productPage, locale);
+            boolean isAccepted = recordHeldOutPage(currentCandidate, isSameOffer(productOffer, wrapperOffer));
+            if (isAccepted && !currentCandidate.isStored) {
+                onInduced.accept(currentCandidate.queries);
+            }
+        }
+    }
+
+    private synchronized void recordTrainingPage(Map<String, String> queries) {
+        if (candidate != null || noAttempts >= MAX_ATTEMPTS) {
+            return;
+        }
+
+        trainingQueries.add(queries);
+        if (trainingQueries.size() >= TRAINING_PAGES) {
+            candidate = new Candidate(induceQueries(trainingQueries), false);
+            trainingQueries.clear();
+        }
+    }
+
+    /**
+     * @return Whether the candidate replaced the heuristics with this page.
+     */
+    private synchronized boolean recordHeldOutPage(Candidate checkedCandidate, boolean agrees) {
+        if (checkedCandidate != candidate) {
+            return false;
+        }
+
+        ++candidate.noPagesChecked;
+        if (agrees) {
+            ++candidate.noPagesAgreeing;
+        }
+        if (candidate.noPagesChecked < HELD_OUT_PAGES) {
+            return false;
+        }
+
+        boolean isAccepted = candidate.noPagesAgreeing >= MIN_AGREEING_PAGES;
+        if (isAccepted) {
+            LOGGER.info("Induced a wrapper for domain {} with queries {}", domain, candidate.queries);
+            inducedExtractor = candidate.extractor;
+        } else if (candidate.isStored) {
+            LOGGER.info("Stored wrapper for domain {} agreed with the heuristics on {} out of {} pages, inducing another one",
+                    domain, candidate.noPagesAgreeing, candidate.noPagesChecked);
+        } else {
+            ++noAttempts;
+            LOGGER.info("Induced wrapper for domain {} agreed with the heuristics on {} out of {} pages, attempt {} of {}",
+                    domain, candidate.noPagesAgreeing, candidate.noPagesChecked, noAttempts, MAX_ATTEMPTS);
+        }
+        candidate = null;
+        return isAccepted;
+    }
+
+    /**
+     * @return For each field, the query proposed on most pages, if it was proposed on at least half of them.
+     */
+    static Map<String, String> induceQueries(List<Map<String, String>> queriesOfPages) {
+        Map<String, Map<String, Long>> queryFrequencies = new HashMap<>();
+        for (Map<String, String> queries : queriesOfPages) {
+            queries.forEach((field, query) ->
+                    queryFrequencies.computeIfAbsent(field, f -> new HashMap<>()).merge(query, 1L, Long::sum));
+        }
+
+        Map<String, String> inducedQueries = new HashMap<>();
+        queryFrequencies.forEach((field, frequencies) -> {
+            Map.Entry<String, Long> mode = Collections.max(frequencies.entrySet(), Map.Entry.comparingByValue());
+            if (2 * mode.getValue() >= queriesOfPages.size())
+                inducedQueries.put(field, mode.getKey());
+        });
+        return inducedQueries;
+    }
+
+    private static boolean isSameOffer(SimpleImmutableEntry<Product, PricePoint> expected,
+                                       SimpleImmutableEntry<Product, PricePoint> actual) {
+        if (!(expected.getKey() instanceof Book) || !(actual.getKey() instanceof Book)
+                || expected.getValue() == null || actual.getValue() == null) {
+            return false;
+        }
+
+        Book expectedBook = (Book) expected.getKey();
+        Book actualBook = (Book) actual.getKey();
+        return Objects.equals(expectedBook.getIsbn(), actualBook.getIsbn())
+                && Objects.equals(expectedBook.getTitle(), actualBook.getTitle())
+                && expected.getValue().getNominalValue().compareTo(actual.getValue().getNominalValue()) == 0;
+    }
+
+    @Override
+    public Product extract(Document productPage) {
+        return getCurrentExtractor().extract(productPage);
+    }
+
+    @Override
+    public PricePoint extractPricePoint(Element productPage, Locale locale) {
+        return getCurrentExtractor().extractPricePoint(productPage, locale);
+    }
+
+    @Override
+    public Map<String, String> extractAttributes(Element productPage) {
+        return getCurrentExtractor().extractAttributes(productPage);
+    }
+
+    @Override
+    public String extractAvailability(Document productPage) {
+        return getCurrentExtractor().extractAvailability(productPage);
+    }
+
+    @Override
+    public String extractDescription(Document productPage) {
+        return getCurrentExtractor().extractDescription(productPage);
+    }
+
+    @Override
+    public String extractImageUrl(Element htmlElement) {
+        return getCurrentExtractor().extractImageUrl(htmlElement);
+    }
+
+    @Override
+    public Set<String> extractKeywords(String... values) {
+        return getCurrentExtractor().extractKeywords(values);
+    }
+
+    @Override
+    public String extractTitle(Element htmlElement) {
+        return getCurrentExtractor().extractTitle(htmlElement);
+    }
+
+    @Override
+    public String extractAuthors(Element htmlElement, Map<String, String> attributes) {
+        return getCurrentExtractor().extractAuthors(htmlElement, attributes);
+    }
+
+    @Override
+    public String extractIsbn(Element htmlElement, Map<String, String> attributes) {
+        return getCurrentExtractor().extractIsbn(htmlElement, attributes);
+    }
+
+    @Override
+    public String extractFormat(Element htmlElement, Map<String, String> attributes) {
+        return getCurrentExtractor().extractFormat(htmlElement, attributes);
+    }
+
+    @Override
+    public String extractPublisher(Element htmlElement, Map<String, String> attributes) {
+        return getCurrentExtractor().extractPublisher(htmlElement, attributes);
+    }
+
+    /**
+     * A wrapper induced from the training pages or by an earlier job, and its score on the held-out pages.
+     */
+    private static final class Candidate {
+        private final Map<String, String> queries;
+        private final boolean isStored;
+        private final WrapperBookExtractor extractor;
+        private int noPagesChecked;
+        private int noPagesAgreeing;
+
+        private Candidate(Map<String, String> queries, boolean isStored) {
+            this.queries = queries;
+            this.isStored = isStored;
+            this.extractor = new WrapperBookExtractor(new CompiledWrapper(queries));
+        }
+    }
+}
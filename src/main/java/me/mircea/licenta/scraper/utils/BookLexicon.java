@@ -0,0 +1,145 @@
+package me.mircea.licenta.scraper.utils;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import me.mircea.licenta.core.parser.utils.CssUtil;
+import me.mircea.licenta.products.db.model.Availability;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The words by which shops in a language name the fields of a book, its formats and its availabilities.
+ * A lexicon is built once per language and shared: it is immutable, and words are looked up ignoring case in
+ * constant time. The selectors of the elements whose class or id hint at a field are derived once, with the lexicon.
+ */
+public final class BookLexicon {
+    private static final String DEFAULT_LANGUAGE = "ro";
+    private static final Map<String, BookLexicon> LEXICONS = ImmutableMap.of(DEFAULT_LANGUAGE, buildRomanianLexicon());
+
+    private final Map<WordClass, Set<String>> words;
+    private final Map<WordClass, String> classOrIdSelectors;
+    private final Map<String, String> formats;
+    private final Map<String, Availability> availabilities;
+
+    private BookLexicon(Map<WordClass, Set<String>> words, Map<String, String> formats, Map<String, Availability> availabilities) {
+        this.words = ImmutableMap.copyOf(words);
+        this.formats = ImmutableMap.copyOf(formats);
+        this.availabilities = ImmutableMap.copyOf(availabilities);
+
+        Map<WordClass, String> classOrIdSelectors = new EnumMap<>(WordClass.class);
+        this.words.forEach((wordClass, wordsOfClass) ->
+                classOrIdSelectors.put(wordClass, CssUtil.makeClassOrIdContains(wordsOfClass)));
+        this.classOrIdSelectors = ImmutableMap.copyOf(classOrIdSelectors);
+    }
+
+    /**
+     * @return The lexicon of the language of the locale, or the default one if that language has none.
+     */
+    public static BookLexicon forLocale(Locale locale) {
+        Preconditions.checkNotNull(locale);
+        return LEXICONS.getOrDefault(locale.getLanguage(), LEXICONS.get(DEFAULT_LANGUAGE));
+    }
+
+    public boolean contains(WordClass wordClass, String word) {
+        return word != null && words.get(wordClass).contains(normalise(word));
+    }
+
+    /**
+     * @return The words of the class, in lower case.
+     */
+    public Set<String> getWords(WordClass wordClass) {
+        return words.get(wordClass);
+    }
+
+    /**
+     * @return A css query for the elements whose class or id contains one of the words of the class.
+     */
+    public String getClassOrIdSelector(WordClass wordClass) {
+        return classOrIdSelectors.get(wordClass);
+    }
+
+    /**
+     * @return The format the word stands for, or null if it names none.
+     */
+    public String getFormat(String word) {
+        return (word != null) ? formats.get(normalise(word)) : null;
+    }
+
+    /**
+     * @return The availability the phrase stands for, or null if it names none.
+     */
+    public Availability getAvailability(String phrase) {
+        return (phrase != null) ? availabilities.get(normalise(phrase)) : null;
+    }
+
+    private static String normalise(String word) {
+        return word.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The fields of a book which are recognised by the words naming them.
+     */
+    public enum WordClass {
+        TITLE, AUTHOR, PRICE, CODE, PUBLISHER, DESCRIPTION
+    }
+
+    private static BookLexicon buildRomanianLexicon() {
+        // The words are kept in alphabetical order, which is also the order of the queries derived from them
+        Map<WordClass, Set<String>> words = new EnumMap<>(WordClass.class);
+        words.put(WordClass.TITLE, ImmutableSet.of("name", "nume", "title", "titlu"));
+        words.put(WordClass.AUTHOR, ImmutableSet.of("author", "authors", "autor", "autori"));
+        words.put(WordClass.PRICE, ImmutableSet.of("pret", "price"));
+        words.put(WordClass.CODE, ImmutableSet.of("cod", "isbn"));
+        words.put(WordClass.PUBLISHER, ImmutableSet.of("editura", "publisher", "publishing"));
+        words.put(WordClass.DESCRIPTION, ImmutableSet.of("descriere", "description"));
+
+        Map<String, String> formats = new ImmutableMap.Builder<String, String>()
+                .put("hardcover", "hardcover")
+                .put("paperback", "paperback")
+                .put("pdf", "pdf")
+                .put("epub", "epub")
+                .put("mobi", "mobi")
+                .put("audiobook", "audiobook")
+                .put("audiobooks", "audiobook")
+                .put("cartonata", "hardcover")
+                .put("necartonata", "paperback")
+                .build();
+
+        // TODO: add rest of item availabilities
+        Map<String, Availability> availabilities = new ImmutableMap.Builder<String, Availability>()
+                // discontinued (sale?)
+                .put("indisponibil", Availability.DISCONTINUED)
+                .put("discontinued", Availability.DISCONTINUED)
+                // in stock
+                .put("in stoc", Availability.IN_STOCK)
+                .put("în stoc", Availability.IN_STOCK)
+                .put("disponibil", Availability.IN_STOCK)
+                .put("in_stock", Availability.IN_STOCK)
+                .put("instock", Availability.IN_STOCK)
+                // limited availability
+                .put("limitat", Availability.LIMITED_AVAILABILITY)
+                .put("stoc limitat", Availability.LIMITED_AVAILABILITY)
+                .put("limited", Availability.LIMITED_AVAILABILITY)
+                .put("limited_availability", Availability.LIMITED_AVAILABILITY)
+                .put("limitedavailability", Availability.LIMITED_AVAILABILITY)
+                // out of stock
+                .put("epuizat", Availability.OUT_OF_STOCK)
+                .put("la comandă", Availability.OUT_OF_STOCK)
+                .put("la comanda", Availability.OUT_OF_STOCK)
+                .put("comandă", Availability.OUT_OF_STOCK)
+                .put("comanda", Availability.OUT_OF_STOCK)
+                .put("out_of_stock", Availability.OUT_OF_STOCK)
+                .put("outofstock", Availability.OUT_OF_STOCK)
+                // preorder
+                .put("precomandă", Availability.PREORDER)
+                .put("precomanda", Availability.PREORDER)
+                .put("preoder", Availability.PREORDER)
+                .build();
+
+        return new BookLexicon(words, formats, availabilities);
+    }
+}
@@ -0,0 +1,58 @@
+package me.mircea.licenta.scraper.utils;
+
+import com.google.common.base.Preconditions;
+import me.mircea.licenta.products.db.model.Book;
+import org.jsoup.Jsoup;
+
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Sanitises the fields extracted from a page, rather than the whole page they come from: markup and invisible
+ * characters are stripped from the texts, and only web urls are kept.
+ */
+public final class FieldSanitizer {
+    private static final Pattern INVISIBLE_CHARACTERS = Pattern.compile("[\\p{Cc}\\p{Cf}&&[^\\s]]");
+    private static final Pattern WHITESPACE = Pattern.compile("[\\s\\u00A0]+");
+
+    private FieldSanitizer() {
+    }
+
+    public static void sanitize(Book book) {
+        Preconditions.checkNotNull(book);
+
+        book.setTitle(sanitizeText(book.getTitle()));
+        book.setAuthors(sanitizeText(book.getAuthors()));
+        book.setDescription(sanitizeText(book.getDescription()));
+        book.setPublisher(sanitizeText(book.getPublisher()));
+        book.setFormat(sanitizeText(book.getFormat()));
+        book.setImageUrl(sanitizeUrl(book.getImageUrl()));
+    }
+
+    /**
+     * @return The text without markup, invisible characters or runs of whitespace, or null if nothing is left.
+     */
+    public static String sanitizeText(String text) {
+        if (text == null) {
+            return null;
+        }
+
+        String plainText = (text.indexOf('<') >= 0) ? Jsoup.parseBodyFragment(text).text() : text;
+        plainText = INVISIBLE_CHARACTERS.matcher(plainText).replaceAll("");
+        plainText = WHITESPACE.matcher(plainText).replaceAll(" ").trim();
+        return plainText.isEmpty() ? null : plainText;
+    }
+
+    /**
+     * @return The url if it is an absolute http or https url, otherwise null.
+     */
+    public static String sanitizeUrl(String url) {
+        if (url == null) {
+            return null;
+        }
+
+        String trimmedUrl = url.trim();
+        String lowerCaseUrl = trimmedUrl.toLowerCase(Locale.ROOT);
+        return (lowerCaseUrl.startsWith("http://") || lowerCaseUrl.startsWith("https://")) ? trimmedUrl : null;
+    }
+}
@@ -0,0 +1,263 @@
+package me.mircea.licenta.scraper.utils;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Parses pages without the parts no extractor reads: comments, scripts other than structured data, styles, svg
+ * drawings and navigation menus. A single scan over the raw bytes prunes them before the tree is built, so they
+ * cost neither the parser nor the memory of the tree.
+ * An empty element is left in place of each one pruned, so that the positional queries of wrappers, such as
+ * {@code :nth-child}, still select the same elements as on the whole page.
+ * The markup is only read as ascii, which every charset of the pages of the shops is compatible with. Pages in
+ * UTF-16 or UTF-32 are parsed whole.
+ */
+public final class LeanHtmlParser {
+    private static final Set<String> PRUNED_RAW_TEXT_ELEMENTS = ImmutableSet.of("script", "style");
+    private static final Set<String> KEPT_RAW_TEXT_ELEMENTS = ImmutableSet.of("textarea", "title");
+    private static final Set<String> PRUNED_ELEMENTS = ImmutableSet.of("svg", "nav");
+    private static final byte[] COMMENT_START = "<!--".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] COMMENT_END = "-->".getBytes(StandardCharsets.US_ASCII);
+    private static final String STRUCTURED_DATA_TYPE = "ld+json";
+
+    private LeanHtmlParser() {
+    }
+
+    /**
+     * @param charset The charset declared by the server, or null if it should be detected from the body.
+     */
+    public static Document parse(byte[] body, String charset, String baseUri) throws IOException {
+        Preconditions.checkNotNull(body);
+
+        byte[] html = isAsciiCompatible(body, charset) ? prune(body) : body;
+        return Jsoup.parse(new ByteArrayInputStream(html), charset, baseUri);
+    }
+
+    /**
+     * @return The page without its comments and with the pruned elements emptied.
+     */
+    public static byte[] prune(byte[] html) {
+        Preconditions.checkNotNull(html);
+
+        ByteArrayOutputStream pruned = new ByteArrayOutputStream(html.length);
+        int copyFrom = 0;
+        String prunedElement = null;
+        int prunedDepth = 0;
+
+        int position = 0;
+        while (position < html.length) {
+            int start = indexOf(html, (byte) '<', position);
+            if (start < 0) {
+                break;
+            }
+
+            if (startsWith(html, start, COMMENT_START)) {
+                int end = indexOf(html, COMMENT_END, start + COMMENT_START.length);
+                end = (end < 0) ? html.length : end + COMMENT_END.length;
+                if (prunedElement == null) {
+                    pruned.write(html, copyFrom, start - copyFrom);
+                    copyFrom = end;
+                }
+                position = end;
+                continue;
+            }
+
+            Tag tag = Tag.read(html, start);
+            if (tag == null) {
+                position = start + 1;
+                continue;
+            }
+
+            if (!tag.isEnd && (PRUNED_RAW_TEXT_ELEMENTS.contains(tag.name) || KEPT_RAW_TEXT_ELEMENTS.contains(tag.name))) {
+                int closeStart = indexOfEndTag(html, tag.name, tag.end);
+                int closeEnd = (closeStart < 0) ? html.length : endOfTag(html, closeStart);
+                boolean isPruned = PRUNED_RAW_TEXT_ELEMENTS.contains(tag.name) && !tag.hasInAttributes(html, STRUCTURED_DATA_TYPE);
+                if (prunedElement == null && isPruned) {
+                    pruned.write(html, copyFrom, start - copyFrom);
+                    writeEmptyElement(pruned, tag.name);
+                    copyFrom = closeEnd;
+                }
+                position = closeEnd;
+                continue;
+            }
+
+            if (prunedElement == null) {
+                if (!tag.isEnd && !tag.isSelfClosing && PRUNED_ELEMENTS.contains(tag.name)) {
+                    pruned.write(html, copyFrom, start - copyFrom);
+                    copyFrom = start;
+                    prunedElement = tag.name;
+                    prunedDepth = 1;
+                }
+            } else if (tag.name.equals(prunedElement)) {
+                prunedDepth += tag.isEnd ? -1 : (tag.isSelfClosing ? 0 : 1);
+                if (prunedDepth == 0) {
+                    writeEmptyElement(pruned, prunedElement);
+                    prunedElement = null;
+                    copyFrom = tag.end;
+                }
+            }
+            position = tag.end;
+        }
+
+        // An element left open to the end of the page is kept, rather than dropping the rest of the page with it
+        pruned.write(html, copyFrom, html.length - copyFrom);
+        return pruned.toByteArray();
+    }
+
+    private static boolean isAsciiCompatible(byte[] body, String charset) {
+        if (charset != null && charset.toUpperCase(Locale.ROOT).matches("UTF-?(16|32).*")) {
+            return false;
+        }
+        // A byte order mark of UTF-16 or UTF-32, in either byte order
+        return !(body.length >= 2 && ((body[0] == (byte) 0xFE && body[1] == (byte) 0xFF)
+                || (body[0] == (byte) 0xFF && body[1] == (byte) 0xFE)
+                || (body[0] == 0 && body[1] == 0)));
+    }
+
+    private static void writeEmptyElement(ByteArrayOutputStream out, String name) {
+        byte[] element = ("<" + name + "></" + name + ">").getBytes(StandardCharsets.US_ASCII);
+        out.write(element, 0, element.length);
+    }
+
+    private static int indexOf(byte[] html, byte b, int from) {
+        for (int i = from; i < html.length; ++i) {
+            if (html[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(byte[] html, byte[] sequence, int from) {
+        for (int i = indexOf(html, sequence[0], from); i >= 0; i = indexOf(html, sequence[0], i + 1)) {
+            if (startsWith(html, i, sequence)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(byte[] html, int position, byte[] sequence) {
+        if (position + sequence.length > html.length) {
+            return false;
+        }
+        for (int i = 0; i < sequence.length; ++i) {
+            if (html[position + i] != sequence[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Where the end tag of the raw text element starts, or -1 if it has none.
+     */
+    private static int indexOfEndTag(byte[] html, String name, int from) {
+        for (int i = indexOf(html, (byte) '<', from); i >= 0; i = indexOf(html, (byte) '<', i + 1)) {
+            if (i + 1 < html.length && html[i + 1] == '/' && matchesName(html, i + 2, name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return Whether the name starts at the position, ignoring case, and is not the prefix of a longer one.
+     */
+    private static boolean matchesName(byte[] html, int position, String name) {
+        if (position + name.length() > html.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); ++i) {
+            if (Character.toLowerCase((char) html[position + i]) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return position + name.length() == html.length || !isNameChar(html[position + name.length()]);
+    }
+
+    /**
+     * @return The position after the closing bracket of the tag starting at the position, ignoring the brackets
+     * within quoted attribute values.
+     */
+    private static int endOfTag(byte[] html, int start) {
+        byte quote = 0;
+        for (int i = start + 1; i < html.length; ++i) {
+            byte b = html[i];
+            if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else if ((b == '"' || b == '\'') && html[i - 1] == '=') {
+                quote = b;
+            } else if (b == '>') {
+                return i + 1;
+            }
+        }
+        return html.length;
+    }
+
+    private static boolean isAsciiLetter(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+    }
+
+    private static boolean isNameChar(byte b) {
+        return isAsciiLetter(b) || (b >= '0' && b <= '9') || b == '-' || b == ':';
+    }
+
+    /**
+     * A start or end tag, read only as far as its name and its closing bracket.
+     */
+    private static final class Tag {
+        private final String name;
+        private final boolean isEnd;
+        private final boolean isSelfClosing;
+        private final int nameEnd;
+        private final int end;
+
+        private Tag(String name, boolean isEnd, boolean isSelfClosing, int nameEnd, int end) {
+            this.name = name;
+            this.isEnd = isEnd;
+            this.isSelfClosing = isSelfClosing;
+            this.nameEnd = nameEnd;
+            this.end = end;
+        }
+
+        /**
+         * @return The tag starting at the position, or null if the bracket there does not start a tag.
+         */
+        private static Tag read(byte[] html, int start) {
+            int nameStart = start + 1;
+            boolean isEnd = nameStart < html.length && html[nameStart] == '/';
+            if (isEnd) {
+                ++nameStart;
+            }
+            if (nameStart >= html.length || !isAsciiLetter(html[nameStart])) {
+                return null;
+            }
+
+            int nameEnd = nameStart;
+            while (nameEnd < html.length && isNameChar(html[nameEnd])) {
+                ++nameEnd;
+            }
+            String name = new String(html, nameStart, nameEnd - nameStart, StandardCharsets.US_ASCII).toLowerCase(Locale.ROOT);
+            int end = endOfTag(html, nameEnd - 1);
+            boolean isSelfClosing = end >= 2 && html[end - 1] == '>' && html[end - 2] == '/';
+            return new Tag(name, isEnd, isSelfClosing, nameEnd, end);
+        }
+
+        private boolean hasInAttributes(byte[] html, String value) {
+            String attributes = new String(html, nameEnd, end - nameEnd, StandardCharsets.US_ASCII);
+            return attributes.toLowerCase(Locale.ROOT).contains(value);
+        }
+    }
+}
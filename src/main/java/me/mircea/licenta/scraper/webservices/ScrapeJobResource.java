@@ -9,6 +9,10 @@ import me.mircea.licenta.core.crawl.db.model.JobActiveOnHost;
 import me.mircea.licenta.core.crawl.db.model.JobType;
 import me.mircea.licenta.core.parser.utils.HtmlUtil;
 import me.mircea.licenta.scraper.Scraper;
+import me.mircea.licenta.scraper.fetch.AsyncPageFetcher;
+import me.mircea.licenta.scraper.fetch.PageFetcher;
+import me.mircea.licenta.scraper.fetch.RecordingPageFetcher;
+import me.mircea.licenta.scraper.fetch.ReplayPageFetcher;
 import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,14 +24,18 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 @Path("/jobs")
 public class ScrapeJobResource {
-    private static final ExecutorService ASYNC_TASK_EXECUTOR = Executors.newCachedThreadPool();
+    private static final ExecutorService ASYNC_TASK_EXECUTOR = Executors.newFixedThreadPool(Scraper.MAX_CONCURRENT_JOBS);
     private static final Logger LOGGER = LoggerFactory.getLogger(ScrapeJobResource.class);
+    private static final String ARCHIVE_DIRECTORY_PROPERTY = "scraper.archive.directory";
+    private static final String DEFAULT_ARCHIVE_DIRECTORY = Paths.get(System.getProperty("java.io.tmpdir"), "scraper-archive").toString();
 
     @GET
     @Produces(MediaType.APPLICATION_JSON)
@@ -57,11 +65,39 @@ public class ScrapeJobResource {
             JsonNode homepageNode = scrapeRequest.get("homepage");
             domain = HtmlUtil.getDomainOfUrl(homepageNode.asText());
 
-            if (scrapeRequest.has("continue")) {
-                scraper = new Scraper(homepageNode.asText(),
-                        new ObjectId(scrapeRequest.get("continue").asText()));
-            } else {
-                scraper = new Scraper(homepageNode.asText());
+            int workers = Scraper.DEFAULT_NUMBER_OF_WORKERS;
+            if (scrapeRequest.has("workers")) {
+                if (!scrapeRequest.get("workers").canConvertToInt() || scrapeRequest.get("workers").asInt() <= 0) {
+                    throw new IllegalArgumentException("The number of workers must be a positive integer");
+                }
+                workers = scrapeRequest.get("workers").asInt();
+            }
+
+            PageFetcher fetcher = AsyncPageFetcher.instance;
+            if (scrapeRequest.has("archive")) {
+                // Qualified, as the name is taken by the annotation of the resource
+                java.nio.file.Path archiveDirectory = Paths.get(System.getProperty(ARCHIVE_DIRECTORY_PROPERTY, DEFAULT_ARCHIVE_DIRECTORY), domain);
+                String archiveMode = scrapeRequest.get("archive").asText();
+                if ("record".equals(archiveMode)) {
+                    fetcher = new RecordingPageFetcher(AsyncPageFetcher.instance, archiveDirectory);
+                } else if ("replay".equals(archiveMode)) {
+                    fetcher = new ReplayPageFetcher(archiveDirectory);
+                } else {
+                    throw new IllegalArgumentException("The archive mode must be either record or replay");
+                }
+            }
+
+            try {
+                if (scrapeRequest.has("continue")) {
+                    scraper = new Scraper(homepageNode.asText(),
+                            new ObjectId(scrapeRequest.get("continue").asText()), workers, fetcher);
+                } else {
+                    scraper = new Scraper(homepageNode.asText(), workers, fetcher);
+                }
+            } catch (IOException | RuntimeException e) {
+                // The job closes its fetcher once it finishes, but it never starts
+                fetcher.close();
+                throw e;
             }
 
             ASYNC_TASK_EXECUTOR.execute(scraper);
@@ -74,6 +110,9 @@ public class ScrapeJobResource {
             Job activeJob = CrawlDatabaseManager.instance.getActiveJobOnDomain(domain);
             String redirectUri = request.getRequestURI() + "/" + activeJob.getId().toString();
             return Response.status(409).header("Location", redirectUri).entity(activeJob).build();
+        } catch (NoSuchFileException e) {
+            LOGGER.warn("No archive to replay in {}", e.getFile());
+            return Response.status(404).build();
         } catch (IOException e) {
             LOGGER.warn("Could not read a configuration file {}", e);
             return Response.status(500).build();
@@ -0,0 +1,88 @@
+package me.mircea.licenta.core.products.utils;
+
+import me.mircea.licenta.products.utils.Isbns;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IsbnsTest {
+	@Test
+	public void shouldAcceptValidIsbn13() {
+		assertEquals("9789734676293", Isbns.toIsbn13("9789734676293"));
+		assertEquals("9789735059187", Isbns.toIsbn13("978-973-50-5918-7"));
+		assertEquals("9786068793153", Isbns.toIsbn13("978 606 8793 15 3"));
+	}
+
+	@Test
+	public void shouldCanonicaliseIsbn10() {
+		assertEquals("9780306406157", Isbns.toIsbn13("0-306-40615-2"));
+		assertEquals("9780804429573", Isbns.toIsbn13("080442957X"));
+		assertEquals("9780804429573", Isbns.toIsbn13("0-8044-2957-x"));
+	}
+
+	@Test
+	public void shouldSkipLabelsAroundIsbn() {
+		assertEquals("9789735059187", Isbns.toIsbn13("HUM978-973-50-5918-7"));
+		assertEquals("9789734676293", Isbns.toIsbn13("ISBN: 9789734676293."));
+	}
+
+	@Test
+	public void shouldSkipDigitsOfLabels() {
+		assertEquals("9789735059187", Isbns.toIsbn13("ISBN-13: 978-973-50-5918-7"));
+		assertEquals("9789735059187", Isbns.toIsbn13("ISBN 10: 973-50-5918-5"));
+		assertEquals("9789735059187", Isbns.toIsbn13("ISBN 13 9789735059187"));
+		assertEquals("9789735059187", Isbns.toIsbn13("ISBN-10 973-50-5918-5"));
+	}
+
+	@Test
+	public void shouldStopAtSpaceAfterWholeIsbn() {
+		assertEquals("9789735059187", Isbns.toIsbn13("ISBN 9789735059187 2019"));
+		assertEquals("9789735059187", Isbns.toIsbn13("ISBN 973-50-5918-5 2019"));
+		assertEquals("9789735059187", Isbns.toIsbn13("973 50 5918 5 12"));
+		assertEquals("9789735059187", Isbns.toIsbn13("978 9735 059 187"));
+		assertEquals("9789735059187", Isbns.toIsbn13("978 973 5059 187, 2019"));
+	}
+
+	@Test
+	public void shouldRejectWrongCheckDigits() {
+		assertNull(Isbns.toIsbn13("9789734676294"));
+		assertNull(Isbns.toIsbn13("0230 530 342"));
+		assertNull(Isbns.toIsbn13("1234567890123"));
+		assertFalse(Isbns.isValid("0-306-40615-3"));
+		assertTrue(Isbns.isValid("0-306-40615-2"));
+	}
+
+	@Test
+	public void shouldRejectWrongLengths() {
+		assertNull(Isbns.toIsbn13(null));
+		assertNull(Isbns.toIsbn13(""));
+		assertNull(Isbns.toIsbn13("Editura Polirom"));
+		assertNull(Isbns.toIsbn13("97897346762"));
+		assertNull(Isbns.toIsbn13("1770673153154766"));
+		assertNull(Isbns.toIsbn13("080442957X1"));
+	}
+
+	@Test
+	public void shouldConvertBackToIsbn10() {
+		assertEquals("0306406152", Isbns.toIsbn10("9780306406157"));
+		assertEquals("080442957X", Isbns.toIsbn10("9780804429573"));
+		assertNull(Isbns.toIsbn10("9791234567896"));
+	}
+
+	@Test
+	public void shouldListStoredFormsOfIsbn() {
+		assertEquals(Arrays.asList("9780306406157", "978030640615", "0306406152"), Isbns.storedForms("9780306406157"));
+		assertEquals(Arrays.asList("9791234567896", "979123456789"), Isbns.storedForms("9791234567896"));
+	}
+
+	@Test
+	public void shouldCompactSeparators() {
+		assertEquals("9781234109323", Isbns.compact("978 -1234-1093-23"));
+		assertNull(Isbns.compact(null));
+	}
+}
@@ -0,0 +1,96 @@
+package me.mircea.licenta.core.products.utils;
+
+import me.mircea.licenta.products.utils.Prices;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigDecimal;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.text.ParseException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares parsing price tags with a NumberFormat and regular expressions, the way PricePoint.valueOf used to,
+ * with scanning them with the parser which replaced it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class PriceParsingBenchmark {
+	private static final Locale LOCALE = Locale.forLanguageTag("ro-ro");
+	private static final String[] PRICE_TAGS = {
+			"1699lei",
+			"19.2lei 24lei",
+			"2,780.5 lei",
+			"1,260 lei",
+			"39,00 lei",
+			"32.55 Lei 35 Lei"
+	};
+
+	@Benchmark
+	public void parseWithNumberFormat(Blackhole blackhole) throws ParseException {
+		for (String priceTag : PRICE_TAGS) {
+			blackhole.consume(parseLikeBefore(priceTag, LOCALE));
+		}
+	}
+
+	@Benchmark
+	public void parseByScanning(Blackhole blackhole) throws ParseException {
+		for (String priceTag : PRICE_TAGS) {
+			blackhole.consume(Prices.parse(priceTag, LOCALE));
+		}
+	}
+
+	/**
+	 * The parsing done by PricePoint.valueOf before the price parser was written.
+	 */
+	private static BigDecimal parseLikeBefore(String price, Locale locale) throws ParseException {
+		DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+		String normalDecimalSeparator = String.valueOf(symbols.getDecimalSeparator());
+		String normalGroupingSeparator = String.valueOf(symbols.getGroupingSeparator());
+
+		final int decimalFirst = price.indexOf(normalDecimalSeparator);
+		final int groupingFirst = price.indexOf(normalGroupingSeparator);
+		if (decimalFirst == -1) {
+			price = price.replaceAll("[.,]", normalDecimalSeparator);
+		} else if (groupingFirst == -1) {
+			if (price.substring(decimalFirst + 1).matches("^\\d{3,}.*"))
+				price = price.replaceAll(normalDecimalSeparator, normalGroupingSeparator);
+		} else if (groupingFirst > decimalFirst) {
+			char[] chars = price.toCharArray();
+			for (int i = 0; i < chars.length; ++i) {
+				if (chars[i] == normalDecimalSeparator.charAt(0))
+					chars[i] = normalGroupingSeparator.charAt(0);
+				else if (chars[i] == normalGroupingSeparator.charAt(0))
+					chars[i] = normalDecimalSeparator.charAt(0);
+			}
+			price = String.valueOf(chars);
+		}
+
+		final NumberFormat noFormat = NumberFormat.getNumberInstance(locale);
+		if (noFormat instanceof DecimalFormat) {
+			((DecimalFormat) noFormat).setParseBigDecimal(true);
+		}
+
+		BigDecimal nominalValue = (BigDecimal) noFormat.parse(price);
+		if (!price.matches(".*[.,].*") && nominalValue.stripTrailingZeros().scale() <= 0
+				&& nominalValue.compareTo(BigDecimal.valueOf(100)) >= 1)
+			nominalValue = nominalValue.divide(BigDecimal.valueOf(100));
+		return nominalValue;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+				.include(PriceParsingBenchmark.class.getSimpleName())
+				.build()).run();
+	}
+}
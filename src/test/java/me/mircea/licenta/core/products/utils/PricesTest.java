@@ -0,0 +1,57 @@
+package me.mircea.licenta.core.products.utils;
+
+import me.mircea.licenta.products.utils.Prices;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+public class PricesTest {
+	private static final Locale ROMANIAN = Locale.forLanguageTag("ro-ro");
+
+	@Test
+	public void shouldReadSeparatorsOfLocale() throws ParseException {
+		assertEquals(new BigDecimal("41.95"), Prices.parse("41,95 Lei", ROMANIAN));
+		assertEquals(new BigDecimal("1234567.89"), Prices.parse("1.234.567,89 lei", ROMANIAN));
+		assertEquals(new BigDecimal("39.00"), Prices.parse("39,00 lei", ROMANIAN));
+	}
+
+	@Test
+	public void shouldReadSeparatorsAsMeantByShop() throws ParseException {
+		assertEquals(new BigDecimal("19.2"), Prices.parse("19.2lei 24lei", ROMANIAN));
+		assertEquals(new BigDecimal("2780.5"), Prices.parse("2,780.5 lei", ROMANIAN));
+		assertEquals(new BigDecimal("1260"), Prices.parse("1,260 lei", ROMANIAN));
+		assertEquals(new BigDecimal("32.55"), Prices.parse("32.55 Lei 35 Lei", ROMANIAN));
+	}
+
+	@Test
+	public void shouldReadLastTwoDigitsAsCentsWithoutSeparator() throws ParseException {
+		assertEquals(new BigDecimal("16.99"), Prices.parse("1699lei", ROMANIAN));
+		assertEquals(new BigDecimal("2017"), Prices.parse("201700lei", ROMANIAN));
+		assertEquals(new BigDecimal("28"), Prices.parse("28lei 35lei", ROMANIAN));
+		assertEquals(new BigDecimal("100"), Prices.parse("100 lei", ROMANIAN));
+	}
+
+	@Test
+	public void shouldReadOtherLocales() throws ParseException {
+		assertEquals(new BigDecimal("1234.5"), Prices.parse("1,234.5", Locale.US));
+		assertEquals(new BigDecimal("1260"), Prices.parse("1.260", Locale.US));
+		assertEquals(new BigDecimal("-12.5"), Prices.parse("-12.5 $", Locale.US));
+	}
+
+	@Test
+	public void shouldReadStructuredPricesAsWholeAmounts() throws ParseException {
+		assertEquals(new BigDecimal("1299"), Prices.parseStructured("1299", ROMANIAN));
+		assertEquals(new BigDecimal("32.55"), Prices.parseStructured("32.55", ROMANIAN));
+		assertEquals(new BigDecimal("24.50"), Prices.parseStructured(" 24,50", ROMANIAN));
+		assertEquals(new BigDecimal("41.95"), Prices.parseStructured("41,95 Lei", ROMANIAN));
+	}
+
+	@Test(expected = ParseException.class)
+	public void shouldRejectTagsNotStartingWithNumber() throws ParseException {
+		Prices.parse("lei 12", ROMANIAN);
+	}
+}
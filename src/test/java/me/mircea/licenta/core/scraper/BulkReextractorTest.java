@@ -0,0 +1,36 @@
+package me.mircea.licenta.core.scraper;
+
+import me.mircea.licenta.products.db.model.Book;
+import me.mircea.licenta.products.db.model.PricePoint;
+import me.mircea.licenta.scraper.BulkReextractor;
+import me.mircea.licenta.scraper.fetch.FetchedPage;
+import me.mircea.licenta.scraper.infoextraction.HeuristicalBookExtractor;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class BulkReextractorTest {
+	private static final ClassLoader classLoader = BulkReextractorTest.class.getClassLoader();
+
+	@Test
+	public void shouldDateOffersWhenPagesWereSaved() throws IOException, URISyntaxException {
+		Instant savedTime = Instant.parse("2019-01-15T10:00:00Z");
+		byte[] body = Files.readAllBytes(Paths.get(classLoader.getResource("bookPageCarturesti.html").toURI()));
+		FetchedPage savedPage = new FetchedPage("https://carturesti.ro/carte/baltagul", 200, Collections.emptyMap(),
+				body, "UTF-8", savedTime);
+
+		BulkReextractor reextractor = new BulkReextractor("carturesti.ro", HeuristicalBookExtractor.instance, 1);
+		SimpleImmutableEntry<Book, PricePoint> bookOfferPair = reextractor.extract(savedPage);
+
+		assertNotNull(bookOfferPair.getValue());
+		assertEquals(savedTime, bookOfferPair.getValue().getRetrievedTime());
+	}
+}
@@ -0,0 +1,136 @@
+package me.mircea.licenta.core.scraper.infoextraction;
+
+import me.mircea.licenta.products.db.model.PricePoint;
+import me.mircea.licenta.products.db.model.Product;
+import me.mircea.licenta.scraper.infoextraction.AdaptiveProductExtractor;
+import me.mircea.licenta.scraper.infoextraction.ProductExtractor;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.junit.Test;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveProductExtractorTest {
+	private static final Locale LOCALE = Locale.forLanguageTag("ro-ro");
+	private static final int MAX_SAMPLED_PAGES = 1_000;
+
+	private final Document page = Jsoup.parse("<html><body><h1>Baltagul</h1></body></html>", "https://carturesti.ro/");
+
+	@Test
+	public void shouldChooseCheapestStrategyFindingAsManyOffers() {
+		FakeExtractor cheap = new FakeExtractor(true, 0);
+		FakeExtractor expensive = new FakeExtractor(true, TimeUnit.MILLISECONDS.toNanos(1));
+		AdaptiveProductExtractor extractor = newExtractor(expensive, cheap);
+
+		sampleUntilChosen(extractor);
+		assertEquals("second", extractor.getChosenStrategy().get());
+
+		int expensiveCalls = expensive.calls;
+		for (int i = 0; i < 10; ++i) {
+			assertNotNull(extractor.extractProductOffer(page, LOCALE).getValue());
+		}
+		assertEquals(expensiveCalls, expensive.calls);
+	}
+
+	@Test
+	public void shouldChooseStrategyFindingMoreOffers() {
+		FakeExtractor cheap = new FakeExtractor(false, 0);
+		FakeExtractor thorough = new FakeExtractor(true, TimeUnit.MILLISECONDS.toNanos(1));
+		AdaptiveProductExtractor extractor = newExtractor(cheap, thorough);
+
+		// Sampled pages keep the offers of any strategy
+		assertNotNull(extractor.extractProductOffer(page, LOCALE).getValue());
+		sampleUntilChosen(extractor);
+		assertEquals("second", extractor.getChosenStrategy().get());
+	}
+
+	@Test
+	public void shouldKeepLastStrategyWithoutOffers() {
+		AdaptiveProductExtractor extractor = newExtractor(new FakeExtractor(false, 0), new FakeExtractor(false, 0));
+
+		sampleUntilChosen(extractor);
+		assertEquals("second", extractor.getChosenStrategy().get());
+	}
+
+	private static AdaptiveProductExtractor newExtractor(ProductExtractor first, ProductExtractor second) {
+		Map<String, ProductExtractor> strategies = new LinkedHashMap<>();
+		strategies.put("first", first);
+		strategies.put("second", second);
+		return new AdaptiveProductExtractor("carturesti.ro", strategies, productOffer -> productOffer.getValue() != null);
+	}
+
+	private void sampleUntilChosen(AdaptiveProductExtractor extractor) {
+		for (int i = 0; i < MAX_SAMPLED_PAGES && !extractor.getChosenStrategy().isPresent(); ++i) {
+			extractor.extractProductOffer(page, LOCALE);
+		}
+		assertTrue(extractor.getChosenStrategy().isPresent());
+	}
+
+	/**
+	 * Finds an offer on every page or on none, spending the given cpu time on each.
+	 */
+	private static class FakeExtractor implements ProductExtractor {
+		private final boolean findsOffers;
+		private final long cost;
+		private int calls;
+
+		private FakeExtractor(boolean findsOffers, long cost) {
+			this.findsOffers = findsOffers;
+			this.cost = cost;
+		}
+
+		@Override
+		public SimpleImmutableEntry<Product, PricePoint> extractProductOffer(Document productPage, Locale locale) {
+			++calls;
+			long start = System.nanoTime();
+			while (System.nanoTime() - start < cost) {
+				// Spends the cpu time of a costly extraction
+			}
+			return new SimpleImmutableEntry<>(null, findsOffers ? new PricePoint() : null);
+		}
+
+		@Override
+		public Product extract(Document productPage) {
+			return null;
+		}
+
+		@Override
+		public PricePoint extractPricePoint(Element productPage, Locale locale) {
+			return null;
+		}
+
+		@Override
+		public Map<String, String> extractAttributes(Element productPage) {
+			return Collections.emptyMap();
+		}
+
+		@Override
+		public String extractAvailability(Document productPage) {
+			return null;
+		}
+
+		@Override
+		public String extractDescription(Document productPage) {
+			return null;
+		}
+
+		@Override
+		public String extractImageUrl(Element htmlElement) {
+			return null;
+		}
+
+		@Override
+		public Set<String> extractKeywords(String... values) {
+			return Collections.emptySet();
+		}
+	}
+}
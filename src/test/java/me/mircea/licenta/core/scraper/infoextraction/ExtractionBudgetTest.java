@@ -0,0 +1,57 @@
+package me.mircea.licenta.core.scraper.infoextraction;
+
+import me.mircea.licenta.scraper.infoextraction.ExtractionBudget;
+import me.mircea.licenta.scraper.infoextraction.HeuristicalBookExtractor;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class ExtractionBudgetTest {
+	// Backtracks over every way of splitting the text into twelve parts before failing
+	private static final Pattern CATASTROPHIC_PATTERN = Pattern.compile("(.*a){12}b");
+	private static final String PATHOLOGICAL_TEXT = new String(new char[40]).replace('\0', 'a');
+
+	@Test(expected = ExtractionBudget.ExceededException.class)
+	public void shouldStopBacktrackingOnceTimeIsUp() {
+		ExtractionBudget.start(Duration.ofMillis(50), Integer.MAX_VALUE);
+		try {
+			CATASTROPHIC_PATTERN.matcher(ExtractionBudget.current().interruptible(PATHOLOGICAL_TEXT)).find();
+		} finally {
+			ExtractionBudget.stop();
+		}
+	}
+
+	@Test
+	public void shouldMatchWithinBudget() {
+		ExtractionBudget.start(Duration.ofSeconds(10), Integer.MAX_VALUE);
+		try {
+			assertTrue(CATASTROPHIC_PATTERN.matcher(ExtractionBudget.current().interruptible("aaaaaaaaaaaab")).find());
+		} finally {
+			ExtractionBudget.stop();
+		}
+	}
+
+	@Test
+	public void shouldNotLimitThreadWithoutBudget() {
+		String text = "aaab";
+		assertSame(text, ExtractionBudget.current().interruptible(text));
+		ExtractionBudget.current().checkTextLength(Integer.MAX_VALUE);
+	}
+
+	@Test(expected = ExtractionBudget.ExceededException.class)
+	public void shouldGiveUpOnTooMuchText() {
+		Document page = Jsoup.parse("<html><body><p>ISBN: 973-50-5918-5</p><p>Editura: Polirom</p></body></html>");
+
+		ExtractionBudget.start(Duration.ofSeconds(10), 10);
+		try {
+			HeuristicalBookExtractor.instance.extractAttributes(page);
+		} finally {
+			ExtractionBudget.stop();
+		}
+	}
+}
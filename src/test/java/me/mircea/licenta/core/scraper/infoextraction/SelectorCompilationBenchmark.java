@@ -0,0 +1,163 @@
+package me.mircea.licenta.core.scraper.infoextraction;
+
+import me.mircea.licenta.products.db.model.PricePoint;
+import me.mircea.licenta.products.db.model.Product;
+import me.mircea.licenta.scraper.infoextraction.BookExtractor;
+import me.mircea.licenta.scraper.infoextraction.WrapperBookExtractor;
+import me.mircea.licenta.scraper.utils.LeanHtmlParser;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares extracting a page with a wrapper whose queries were compiled once, the way the wrapper extractor is
+ * used by a job, with compiling them again for every page, and with the original path, which looked up the query
+ * of each field by name and ran it as a string on every page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class SelectorCompilationBenchmark {
+	private static final ClassLoader classLoader = SelectorCompilationBenchmark.class.getClassLoader();
+	private static final Map<String, String> QUERIES = new HashMap<>();
+	static {
+		QUERIES.put("title", "h2.titluProdus");
+		QUERIES.put("authors", "div.autorProdus a");
+		QUERIES.put("pricepoint", "div.pret");
+		QUERIES.put("description", "md-card.descriereProdus");
+		QUERIES.put("image", "meta[property='og:image']");
+		QUERIES.put("isbn", "div.productAttr:has(span.productAttrLabel:containsOwn(ISBN)) > div");
+	}
+
+	private Document carturestiPage;
+	private WrapperBookExtractor compiledExtractor;
+	private BookExtractor stringQueryExtractor;
+
+	@Setup
+	public void setUp() throws IOException {
+		File carturestiBookPageFile = new File(classLoader.getResource("bookPageCarturesti.html").getFile());
+		carturestiPage = LeanHtmlParser.parse(Files.readAllBytes(carturestiBookPageFile.toPath()), "UTF-8", "https://carturesti.ro/");
+		compiledExtractor = WrapperBookExtractor.fromQueries(QUERIES);
+		stringQueryExtractor = new StringQueryBookExtractor(QUERIES);
+	}
+
+	@Benchmark
+	public Product extractWithStringQueries() {
+		return stringQueryExtractor.extract(carturestiPage);
+	}
+
+	@Benchmark
+	public Product extractWithQueriesCompiledPerPage() {
+		return WrapperBookExtractor.fromQueries(QUERIES).extract(carturestiPage);
+	}
+
+	@Benchmark
+	public Product extractWithQueriesCompiledOnce() {
+		return compiledExtractor.extract(carturestiPage);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+				.include(SelectorCompilationBenchmark.class.getSimpleName())
+				.build()).run();
+	}
+
+	/**
+	 * The path of the wrapper extractor before its queries were compiled: the query of each field is looked up by
+	 * name and run with {@link Element#selectFirst(String)}, which parses it again on every page.
+	 */
+	private static class StringQueryBookExtractor implements BookExtractor {
+		private final Map<String, String> queries;
+
+		private StringQueryBookExtractor(Map<String, String> queries) {
+			this.queries = queries;
+		}
+
+		private String selectFirstValue(Element htmlElement, String field) {
+			String query = queries.get(field);
+			if (query == null)
+				return null;
+
+			Element element = htmlElement.selectFirst(query);
+			if (element == null)
+				return null;
+			else if (element.tagName().equals("meta"))
+				return element.attr("content");
+			else if (element.tagName().equals("img"))
+				return element.absUrl("src");
+			else
+				return element.text();
+		}
+
+		@Override
+		public PricePoint extractPricePoint(Element productPage, Locale locale) {
+			return null;
+		}
+
+		@Override
+		public Map<String, String> extractAttributes(Element productPage) {
+			return Collections.emptyMap();
+		}
+
+		@Override
+		public String extractAvailability(Document productPage) {
+			return selectFirstValue(productPage, "availability");
+		}
+
+		@Override
+		public String extractDescription(Document productPage) {
+			return selectFirstValue(productPage, "description");
+		}
+
+		@Override
+		public String extractImageUrl(Element htmlElement) {
+			return selectFirstValue(htmlElement, "image");
+		}
+
+		@Override
+		public Set<String> extractKeywords(String... values) {
+			return Collections.emptySet();
+		}
+
+		@Override
+		public String extractTitle(Element htmlElement) {
+			return selectFirstValue(htmlElement, "title");
+		}
+
+		@Override
+		public String extractAuthors(Element htmlElement, Map<String, String> attributes) {
+			return selectFirstValue(htmlElement, "authors");
+		}
+
+		@Override
+		public String extractIsbn(Element htmlElement, Map<String, String> attributes) {
+			return selectFirstValue(htmlElement, "isbn");
+		}
+
+		@Override
+		public String extractFormat(Element htmlElement, Map<String, String> attributes) {
+			return selectFirstValue(htmlElement, "format");
+		}
+
+		@Override
+		public String extractPublisher(Element htmlElement, Map<String, String> attributes) {
+			return selectFirstValue(htmlElement, "publisher");
+		}
+	}
+}
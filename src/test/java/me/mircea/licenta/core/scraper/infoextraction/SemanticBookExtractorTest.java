@@ -0,0 +1,213 @@
+package me.mircea.licenta.core.scraper.infoextraction;
+
+import me.mircea.licenta.products.db.model.Availability;
+import me.mircea.licenta.products.db.model.Book;
+import me.mircea.licenta.products.db.model.PricePoint;
+import me.mircea.licenta.products.db.model.Product;
+import me.mircea.licenta.scraper.infoextraction.BookExtractor;
+import me.mircea.licenta.scraper.infoextraction.SemanticBookExtractor;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.net.MalformedURLException;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class SemanticBookExtractorTest {
+	private static final Locale LOCALE = Locale.forLanguageTag("ro-ro");
+	private static final String URL = "https://www.libris.ro/carte";
+
+	private static final String JSON_LD_PAGE = "<html><head><title>Carte</title>"
+			+ "<script type=\"application/ld+json\">{\"@context\": \"http://schema.org\", \"@graph\": ["
+			+ "{\"@type\": \"WebSite\", \"name\": \"Libris\"},"
+			+ "{\"@type\": [\"Book\", \"Product\"], \"name\": \"Baltagul\","
+			+ " \"author\": [{\"@type\": \"Person\", \"name\": \"Mihail Sadoveanu\"}],"
+			+ " \"isbn\": \"973-50-5918-5\", \"bookFormat\": \"http://schema.org/Paperback\","
+			+ " \"publisher\": {\"@type\": \"Organization\", \"name\": \"Polirom\"},"
+			+ " \"image\": \"/img/baltagul.jpg\", \"description\": \"Un roman &#171;clasic&#187;\","
+			+ " \"offers\": {\"@type\": \"Offer\", \"price\": \"32.55\", \"priceCurrency\": \"RON\","
+			+ " \"availability\": \"http://schema.org/InStock\"}}]}"
+			+ "</script></head><body><h1>Baltagul - Libris</h1></body></html>";
+
+	private static final String MICRODATA_PAGE = "<html><head>"
+			+ "<meta property=\"og:title\" content=\"Baltagul | Carturesti\">"
+			+ "</head><body><div itemscope itemtype=\"http://schema.org/Product\">"
+			+ "<h1 itemprop=\"name\">Baltagul</h1>"
+			+ "<div itemprop=\"brand\" itemscope itemtype=\"http://schema.org/Brand\"><span itemprop=\"name\">Polirom</span></div>"
+			+ "<span itemprop=\"gtin13\">978-973-50-5918-7</span>"
+			+ "<div itemprop=\"offers\" itemscope itemtype=\"http://schema.org/Offer\">"
+			+ "<meta itemprop=\"price\" content=\"24,50\"><meta itemprop=\"priceCurrency\" content=\"RON\">"
+			+ "<link itemprop=\"availability\" href=\"http://schema.org/OutOfStock\">"
+			+ "</div></div></body></html>";
+
+	private static final String PLAIN_PAGE = "<html><head><title>Carte</title></head>"
+			+ "<body><h1>Baltagul</h1><span class=\"price\">32,55 lei</span></body></html>";
+
+	@Test
+	public void shouldExtractBookFromJsonLd() {
+		Document page = Jsoup.parse(JSON_LD_PAGE, URL);
+		SimpleImmutableEntry<Product, PricePoint> offer = new SemanticBookExtractor(new FixedBookExtractor())
+				.extractProductOffer(page, LOCALE);
+
+		Book book = (Book) offer.getKey();
+		assertEquals("Baltagul", book.getTitle());
+		assertEquals("Mihail Sadoveanu", book.getAuthors());
+		assertEquals("9789735059187", book.getIsbn());
+		assertEquals("paperback", book.getFormat());
+		assertEquals("Polirom", book.getPublisher());
+		assertEquals("https://www.libris.ro/img/baltagul.jpg", book.getImageUrl());
+		assertEquals("Un roman «clasic»", book.getDescription());
+
+		PricePoint pricePoint = offer.getValue();
+		assertEquals(new BigDecimal("32.55"), pricePoint.getNominalValue());
+		assertEquals(Currency.getInstance("RON"), pricePoint.getCurrency());
+		assertEquals(Availability.IN_STOCK, pricePoint.getAvailability());
+		assertEquals("Carte", pricePoint.getPageTitle());
+	}
+
+	@Test
+	public void shouldReadWholePriceOfJsonLd() {
+		String page = JSON_LD_PAGE.replace("\"price\": \"32.55\"", "\"price\": 1299");
+		SimpleImmutableEntry<Product, PricePoint> offer = new SemanticBookExtractor(new FixedBookExtractor())
+				.extractProductOffer(Jsoup.parse(page, URL), LOCALE);
+
+		assertEquals(new BigDecimal("1299"), offer.getValue().getNominalValue());
+	}
+
+	@Test
+	public void shouldExtractBookFromMicrodata() {
+		Document page = Jsoup.parse(MICRODATA_PAGE, URL);
+		SimpleImmutableEntry<Product, PricePoint> offer = new SemanticBookExtractor(new FixedBookExtractor())
+				.extractProductOffer(page, LOCALE);
+
+		Book book = (Book) offer.getKey();
+		assertEquals("Baltagul", book.getTitle());
+		assertEquals("9789735059187", book.getIsbn());
+
+		PricePoint pricePoint = offer.getValue();
+		assertEquals(new BigDecimal("24.50"), pricePoint.getNominalValue());
+		assertEquals(Availability.OUT_OF_STOCK, pricePoint.getAvailability());
+	}
+
+	@Test
+	public void shouldFallBackWithoutStructuredData() {
+		Document page = Jsoup.parse(PLAIN_PAGE, URL);
+		BookExtractor extractor = new SemanticBookExtractor(new FixedBookExtractor());
+
+		Book book = (Book) extractor.extract(page);
+		assertEquals(FixedBookExtractor.TITLE, book.getTitle());
+		assertEquals(FixedBookExtractor.TITLE, extractor.extractTitle(page));
+	}
+
+	@Test
+	public void shouldFallBackOnlyForMissingFields() {
+		Document page = Jsoup.parse(MICRODATA_PAGE, URL);
+		BookExtractor extractor = new SemanticBookExtractor(new FixedBookExtractor());
+
+		assertEquals("Baltagul", extractor.extractTitle(page));
+		assertEquals(FixedBookExtractor.TITLE, extractor.extractAuthors(page, Collections.emptyMap()));
+	}
+
+	@Test
+	public void shouldFallBackForFieldsMissingFromCompleteStructuredData() {
+		Document page = Jsoup.parse(MICRODATA_PAGE, URL);
+		Book book = (Book) new SemanticBookExtractor(new FixedBookExtractor()).extract(page);
+
+		assertEquals("Baltagul", book.getTitle());
+		assertEquals("9789735059187", book.getIsbn());
+		assertEquals(FixedBookExtractor.TITLE, book.getAuthors());
+		assertEquals(FixedBookExtractor.TITLE, book.getFormat());
+		assertEquals(FixedBookExtractor.TITLE, book.getImageUrl());
+		assertEquals(FixedBookExtractor.TITLE, book.getDescription());
+	}
+
+	@Test
+	public void shouldFallBackForUnreadableStructuredPrice() {
+		String unparseablePrice = JSON_LD_PAGE.replace("\"price\": \"32.55\"", "\"price\": \"la cerere\"");
+		SimpleImmutableEntry<Product, PricePoint> offer = new SemanticBookExtractor(new FixedBookExtractor())
+				.extractProductOffer(Jsoup.parse(unparseablePrice, URL), LOCALE);
+		assertEquals("Baltagul", ((Book) offer.getKey()).getTitle());
+		assertEquals(FixedBookExtractor.PRICE, offer.getValue().getNominalValue());
+
+		String unknownCurrency = JSON_LD_PAGE.replace("\"priceCurrency\": \"RON\"", "\"priceCurrency\": \"LEI\"");
+		offer = new SemanticBookExtractor(new FixedBookExtractor())
+				.extractProductOffer(Jsoup.parse(unknownCurrency, URL), LOCALE);
+		assertEquals(FixedBookExtractor.PRICE, offer.getValue().getNominalValue());
+	}
+
+	/**
+	 * Stands for the extractor of the pages without structured data, giving the same value for every field.
+	 */
+	private static class FixedBookExtractor implements BookExtractor {
+		private static final String TITLE = "fallback";
+		private static final BigDecimal PRICE = new BigDecimal("19.99");
+
+		@Override
+		public PricePoint extractPricePoint(Element productPage, Locale locale) {
+			try {
+				return PricePoint.valueOf(PRICE, locale, productPage);
+			} catch (MalformedURLException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		@Override
+		public Map<String, String> extractAttributes(Element productPage) {
+			return Collections.emptyMap();
+		}
+
+		@Override
+		public String extractAvailability(Document productPage) {
+			return TITLE;
+		}
+
+		@Override
+		public String extractDescription(Document productPage) {
+			return TITLE;
+		}
+
+		@Override
+		public String extractImageUrl(Element htmlElement) {
+			return TITLE;
+		}
+
+		@Override
+		public Set<String> extractKeywords(String... values) {
+			return Collections.emptySet();
+		}
+
+		@Override
+		public String extractTitle(Element htmlElement) {
+			return TITLE;
+		}
+
+		@Override
+		public String extractAuthors(Element htmlElement, Map<String, String> attributes) {
+			return TITLE;
+		}
+
+		@Override
+		public String extractIsbn(Element htmlElement, Map<String, String> attributes) {
+			return null;
+		}
+
+		@Override
+		public String extractFormat(Element htmlElement, Map<String, String> attributes) {
+			return TITLE;
+		}
+
+		@Override
+		public String extractPublisher(Element htmlElement, Map<String, String> attributes) {
+			return TITLE;
+		}
+	}
+}
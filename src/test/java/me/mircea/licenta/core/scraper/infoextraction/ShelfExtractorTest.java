@@ -0,0 +1,111 @@
+package me.mircea.licenta.core.scraper.infoextraction;
+
+import me.mircea.licenta.products.db.model.Availability;
+import me.mircea.licenta.products.db.model.Book;
+import me.mircea.licenta.products.db.model.PricePoint;
+import me.mircea.licenta.scraper.infoextraction.ShelfExtractor;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class ShelfExtractorTest {
+	private static final ClassLoader classLoader = ShelfExtractorTest.class.getClassLoader();
+	private static final Locale LOCALE = Locale.forLanguageTag("ro-ro");
+	private static final String URL = "https://carturesti.ro/raft/carte-109";
+	private static final int NO_TILES = 3;
+
+	@Test
+	public void shouldExtractCard() throws IOException {
+		Document page = parseResource("bookCardCarturesti.html");
+		List<Element> cards = ShelfExtractor.instance.findCards(page);
+		assertEquals(1, cards.size());
+
+		SimpleImmutableEntry<Book, PricePoint> offer = ShelfExtractor.instance.extractCardOffer(cards.get(0), LOCALE);
+		Book book = offer.getKey();
+		assertEquals("Trecute vieti de doamne si domnite", book.getTitle());
+		assertEquals("Constantin Gane", book.getAuthors());
+		assertEquals("https://cdn.cartu.ro/img/prod/240/82699986-0-240.jpeg", book.getImageUrl());
+		assertNull(book.getIsbn());
+
+		PricePoint pricePoint = offer.getValue();
+		assertEquals(0, new BigDecimal("69.00").compareTo(pricePoint.getNominalValue()));
+		assertEquals("https://carturesti.ro/carte/trecute-vieti-de-doamne-si-domnite-82699986?p=1", pricePoint.getUrl());
+	}
+
+	@Test
+	public void shouldExtractEveryCardOfGrid() throws IOException {
+		Document page = parseGrid();
+		List<SimpleImmutableEntry<Book, PricePoint>> offers = ShelfExtractor.instance.extractShelfOffers(page, LOCALE);
+
+		assertEquals(NO_TILES, offers.size());
+		for (SimpleImmutableEntry<Book, PricePoint> offer : offers) {
+			assertEquals("Pedaland prin viata", offer.getKey().getTitle());
+			assertEquals("Codrut Constantinescu", offer.getKey().getAuthors());
+			assertEquals(0, new BigDecimal("25.00").compareTo(offer.getValue().getNominalValue()));
+			assertEquals(Availability.LIMITED_AVAILABILITY, offer.getValue().getAvailability());
+			assertEquals("https://carturesti.ro/carte/pedaland-prin-viata-181658144?p=1", offer.getValue().getUrl());
+		}
+	}
+
+	@Test
+	public void shouldFindRepeatedTilesWithoutMicrodata() throws IOException {
+		Document page = parseGrid();
+		for (Element element : page.select("[itemscope], [itemprop]")) {
+			element.removeAttr("itemscope");
+			element.removeAttr("itemtype");
+			element.removeAttr("itemprop");
+		}
+
+		List<Element> cards = ShelfExtractor.instance.findCards(page);
+		assertEquals(NO_TILES, cards.size());
+		assertTrue(cards.get(0).hasClass("cartu-grid-tile"));
+
+		List<SimpleImmutableEntry<Book, PricePoint>> offers = ShelfExtractor.instance.extractShelfOffers(page, LOCALE);
+		assertEquals(NO_TILES, offers.size());
+		assertEquals("Pedaland prin viata", offers.get(0).getKey().getTitle());
+		assertEquals(0, new BigDecimal("25.00").compareTo(offers.get(0).getValue().getNominalValue()));
+	}
+
+	@Test
+	public void shouldReadMicrodataPriceAsWholeAmount() {
+		Element card = Jsoup.parse("<div itemscope itemtype=\"http://schema.org/Book\">"
+				+ "<a itemprop=\"url\" href=\"/carte/baltagul\"><span itemprop=\"name\">Baltagul</span></a>"
+				+ "<span itemprop=\"price\" content=\"149\">149 lei</span></div>", URL).selectFirst("[itemscope]");
+
+		SimpleImmutableEntry<Book, PricePoint> offer = ShelfExtractor.instance.extractCardOffer(card, LOCALE);
+		assertEquals(0, new BigDecimal("149").compareTo(offer.getValue().getNominalValue()));
+	}
+
+	@Test
+	public void shouldFindNoCardsOnPageWithoutPrices() {
+		Document page = Jsoup.parse("<html><body><ul><li><a href=\"/a\">A</a></li><li><a href=\"/b\">B</a></li></ul></body></html>", URL);
+		assertTrue(ShelfExtractor.instance.extractShelfOffers(page, LOCALE).isEmpty());
+	}
+
+	/**
+	 * @return The grid of the mock page, with its single tile repeated.
+	 */
+	private static Document parseGrid() throws IOException {
+		Document page = parseResource("heuristicGridMock.html");
+		Element tile = page.selectFirst(".cartu-grid-tile");
+		for (int i = 1; i < NO_TILES; ++i) {
+			tile.after(tile.outerHtml());
+		}
+		return page;
+	}
+
+	private static Document parseResource(String fileName) throws IOException {
+		File file = new File(classLoader.getResource(fileName).getFile());
+		return Jsoup.parse(file, "UTF-8", URL);
+	}
+}
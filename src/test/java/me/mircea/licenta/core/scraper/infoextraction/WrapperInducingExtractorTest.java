@@ -0,0 +1,113 @@
+package me.mircea.licenta.core.scraper.infoextraction;
+
+import me.mircea.licenta.products.db.model.Book;
+import me.mircea.licenta.products.db.model.PricePoint;
+import me.mircea.licenta.products.db.model.Product;
+import me.mircea.licenta.scraper.infoextraction.HeuristicalBookExtractor;
+import me.mircea.licenta.scraper.infoextraction.WrapperInducingExtractor;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class WrapperInducingExtractorTest {
+	private static final ClassLoader classLoader = WrapperInducingExtractorTest.class.getClassLoader();
+	private static final Locale LOCALE = Locale.forLanguageTag("ro-ro");
+	private static final int MAX_PAGES = 100;
+
+	@Test
+	public void shouldSwitchToInducedWrapperOnAlexandria() throws IOException {
+		assertWrapperInduced("bookPageAlexandria.html", "http://www.librariilealexandria.ro/");
+	}
+
+	@Test
+	public void shouldSwitchToInducedWrapperOnCarturesti() throws IOException {
+		assertWrapperInduced("bookPageCarturesti.html", "https://carturesti.ro/");
+	}
+
+	@Test
+	public void shouldKeepHeuristicsWithoutOffers() {
+		Document page = Jsoup.parse("<html><head><title>Carti</title></head><body><h1>Carti</h1></body></html>");
+		WrapperInducingExtractor extractor = newExtractor();
+
+		for (int i = 0; i < MAX_PAGES; ++i) {
+			extractor.extractProductOffer(page, LOCALE);
+		}
+		assertFalse(extractor.hasInducedWrapper());
+	}
+
+	@Test
+	public void shouldReportNewlyInducedWrapper() throws IOException {
+		Document page = parseResource("bookPageCarturesti.html", "https://carturesti.ro/");
+		List<Map<String, String>> inducedQueries = new ArrayList<>();
+		WrapperInducingExtractor extractor = new WrapperInducingExtractor("test", HeuristicalBookExtractor.instance,
+				WrapperInducingExtractorTest::isOffer, Collections.emptyMap(), inducedQueries::add);
+
+		for (int i = 0; i < MAX_PAGES && !extractor.hasInducedWrapper(); ++i) {
+			extractor.extractProductOffer(page, LOCALE);
+		}
+		assertTrue(extractor.hasInducedWrapper());
+		assertEquals(1, inducedQueries.size());
+		assertEquals(HeuristicalBookExtractor.instance.generateWrapperQueries(page), inducedQueries.get(0));
+	}
+
+	@Test
+	public void shouldConfirmStoredWrapperWithoutTraining() throws IOException {
+		Document page = parseResource("bookPageCarturesti.html", "https://carturesti.ro/");
+		Map<String, String> storedQueries = HeuristicalBookExtractor.instance.generateWrapperQueries(page);
+		List<Map<String, String>> inducedQueries = new ArrayList<>();
+		WrapperInducingExtractor extractor = new WrapperInducingExtractor("test", HeuristicalBookExtractor.instance,
+				WrapperInducingExtractorTest::isOffer, storedQueries, inducedQueries::add);
+
+		int noPages = 0;
+		while (noPages < MAX_PAGES && !extractor.hasInducedWrapper()) {
+			extractor.extractProductOffer(page, LOCALE);
+			++noPages;
+		}
+		assertTrue(extractor.hasInducedWrapper());
+		assertTrue(noPages < MAX_PAGES / 10);
+		assertTrue(inducedQueries.isEmpty());
+	}
+
+	private static Document parseResource(String fileName, String url) throws IOException {
+		File file = new File(classLoader.getResource(fileName).getFile());
+		return Jsoup.parse(file, "UTF-8", url);
+	}
+
+	private static void assertWrapperInduced(String fileName, String url) throws IOException {
+		Document page = parseResource(fileName, url);
+		SimpleImmutableEntry<Product, PricePoint> expected = HeuristicalBookExtractor.instance.extractProductOffer(page, LOCALE);
+
+		WrapperInducingExtractor extractor = newExtractor();
+		for (int i = 0; i < MAX_PAGES && !extractor.hasInducedWrapper(); ++i) {
+			extractor.extractProductOffer(page, LOCALE);
+		}
+		assertTrue(extractor.hasInducedWrapper());
+
+		SimpleImmutableEntry<Product, PricePoint> actual = extractor.extractProductOffer(page, LOCALE);
+		Book expectedBook = (Book) expected.getKey();
+		Book actualBook = (Book) actual.getKey();
+		assertEquals(expectedBook.getTitle(), actualBook.getTitle());
+		assertEquals(expectedBook.getIsbn(), actualBook.getIsbn());
+		assertEquals(expected.getValue().getNominalValue(), actual.getValue().getNominalValue());
+	}
+
+	private static WrapperInducingExtractor newExtractor() {
+		return new WrapperInducingExtractor("test", HeuristicalBookExtractor.instance, WrapperInducingExtractorTest::isOffer);
+	}
+
+	private static boolean isOffer(SimpleImmutableEntry<Product, PricePoint> productOffer) {
+		return productOffer.getKey() instanceof Book && ((Book) productOffer.getKey()).getIsbn() != null
+				&& productOffer.getValue() != null;
+	}
+}
@@ -0,0 +1,27 @@
+package me.mircea.licenta.core.scraper.utils;
+
+import me.mircea.licenta.products.db.model.Book;
+import me.mircea.licenta.scraper.utils.FieldSanitizer;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FieldSanitizerTest {
+	@Test
+	public void shouldStripMarkupAndInvisibleCharacters() {
+		assertEquals("Un roman clasic", FieldSanitizer.sanitizeText(" Un <b>roman</b>​\n\tclasic<script>alert(1)</script> "));
+		assertNull(FieldSanitizer.sanitizeText("   "));
+	}
+
+	@Test
+	public void shouldKeepOnlyWebUrls() {
+		Book book = new Book();
+		book.setTitle("Baltagul");
+		book.setImageUrl("javascript:alert(1)");
+		FieldSanitizer.sanitize(book);
+
+		assertEquals("Baltagul", book.getTitle());
+		assertNull(book.getImageUrl());
+		assertEquals("https://cdn.cartu.ro/img.jpeg", FieldSanitizer.sanitizeUrl(" https://cdn.cartu.ro/img.jpeg"));
+	}
+}
@@ -0,0 +1,125 @@
+package me.mircea.licenta.core.scraper.utils;
+
+import me.mircea.licenta.core.parser.utils.HtmlUtil;
+import me.mircea.licenta.products.db.model.Book;
+import me.mircea.licenta.products.db.model.PricePoint;
+import me.mircea.licenta.products.db.model.Product;
+import me.mircea.licenta.scraper.infoextraction.HeuristicalBookExtractor;
+import me.mircea.licenta.scraper.utils.LeanHtmlParser;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Comment;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class LeanHtmlParserTest {
+	private static final ClassLoader classLoader = LeanHtmlParserTest.class.getClassLoader();
+	private static final Locale LOCALE = Locale.forLanguageTag("ro-ro");
+	private static final String URL = "https://carturesti.ro/carte/baltagul";
+
+	private static final String PAGE = "<html><head><title>Baltagul</title>"
+			+ "<style>h1 { color: red; }</style>"
+			+ "<script>var s = '</div>'; if (a < b) {}</script>"
+			+ "<script type=\"application/ld+json\">{\"@type\": \"Book\", \"name\": \"Baltagul\"}</script>"
+			+ "</head><body>"
+			+ "<nav><ul><li><a href=\"/\">Acasa</a></li><li><nav><a href=\"/carti\">Carti</a></nav></li></ul></nav>"
+			+ "<!-- <div class=\"price\">10,00 lei</div> -->"
+			+ "<div class=\"product\"><h1>Baltagul</h1><svg viewBox=\"0 0 10 10\"><path d=\"M0 0\"/><g><circle r=\"1\"/></g></svg>"
+			+ "<span class=\"price\">32,55 lei</span></div>"
+			+ "<textarea><script>kept</script></textarea>"
+			+ "</body></html>";
+
+	@Test
+	public void shouldPruneWhatNoExtractorReads() throws IOException {
+		Document page = parse(PAGE);
+
+		Elements scripts = page.select("script");
+		assertEquals(2, scripts.size());
+		assertEquals("", scripts.get(0).data());
+		assertTrue(scripts.get(1).data().contains("Baltagul"));
+		assertEquals("", page.selectFirst("style").data());
+		assertEquals(0, page.selectFirst("svg").childrenSize());
+		assertEquals(1, page.select("nav").size());
+		assertEquals(0, page.selectFirst("nav").childrenSize());
+		assertEquals("<script>kept</script>", page.selectFirst("textarea").text());
+
+		for (Element element : page.getAllElements()) {
+			assertFalse(element.childNodes().stream().anyMatch(node -> node instanceof Comment));
+		}
+		assertEquals("32,55 lei", page.selectFirst(".price").text());
+	}
+
+	@Test
+	public void shouldKeepPositionsOfElements() throws IOException {
+		String query = "body > :nth-child(2) > :nth-child(3)";
+		assertEquals("32,55 lei", Jsoup.parse(PAGE, URL).selectFirst(query).text());
+		assertEquals("32,55 lei", parse(PAGE).selectFirst(query).text());
+	}
+
+	@Test
+	public void shouldKeepElementLeftOpen() throws IOException {
+		Document page = parse("<html><body><nav><a href=\"/\">Acasa</a><div class=\"price\">32,55 lei</div></body></html>");
+		assertEquals("32,55 lei", page.selectFirst(".price").text());
+	}
+
+	@Test
+	public void shouldParseUtf16PagesWhole() throws IOException {
+		Document page = LeanHtmlParser.parse(PAGE.getBytes(StandardCharsets.UTF_16), "UTF-16", URL);
+		assertTrue(page.selectFirst("script").data().contains("if (a < b)"));
+	}
+
+	@Test
+	public void shouldExtractSameOffersAsFromSanitizedWholePage() throws IOException, URISyntaxException {
+		assertSameOffers("bookPageAlexandria.html", "http://www.librariilealexandria.ro/");
+		assertSameOffers("bookPageCarturesti.html", "https://carturesti.ro/");
+		assertSameOffers("bookPageLibris.html", "https://www.libris.ro/");
+	}
+
+	private static void assertSameOffers(String fileName, String url) throws IOException, URISyntaxException {
+		File file = Paths.get(classLoader.getResource(fileName).toURI()).toFile();
+		SimpleImmutableEntry<Product, PricePoint> expected = HeuristicalBookExtractor.instance
+				.extractProductOffer(HtmlUtil.sanitizeHtml(Jsoup.parse(file, "UTF-8", url)), LOCALE);
+		SimpleImmutableEntry<Product, PricePoint> actual = HeuristicalBookExtractor.instance
+				.extractProductOffer(LeanHtmlParser.parse(Files.readAllBytes(file.toPath()), "UTF-8", url), LOCALE);
+
+		Book expectedBook = (Book) expected.getKey();
+		Book actualBook = (Book) actual.getKey();
+		assertEquals(expectedBook.getTitle(), actualBook.getTitle());
+		assertEquals(expectedBook.getAuthors(), actualBook.getAuthors());
+		assertEquals(expectedBook.getIsbn(), actualBook.getIsbn());
+		assertEquals(expectedBook.getDescription(), actualBook.getDescription());
+		assertEquals(expectedBook.getPublisher(), actualBook.getPublisher());
+		assertEquals(expectedBook.getFormat(), actualBook.getFormat());
+		assertEquals(expectedBook.getImageUrl(), actualBook.getImageUrl());
+		assertEquals(expectedBook.getKeywords(), actualBook.getKeywords());
+
+		PricePoint expectedPrice = expected.getValue();
+		PricePoint actualPrice = actual.getValue();
+		if (expectedPrice == null) {
+			assertNull(actualPrice);
+		} else {
+			assertEquals(expectedPrice.getNominalValue(), actualPrice.getNominalValue());
+			assertEquals(expectedPrice.getCurrency(), actualPrice.getCurrency());
+			assertEquals(expectedPrice.getUrl(), actualPrice.getUrl());
+			assertEquals(expectedPrice.getPageTitle(), actualPrice.getPageTitle());
+			assertEquals(expectedPrice.getAvailability(), actualPrice.getAvailability());
+			assertEquals(expectedPrice.getSite(), actualPrice.getSite());
+		}
+	}
+
+	private static Document parse(String html) throws IOException {
+		return LeanHtmlParser.parse(html.getBytes(StandardCharsets.UTF_8), "UTF-8", URL);
+	}
+}
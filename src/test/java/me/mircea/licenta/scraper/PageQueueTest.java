@@ -0,0 +1,149 @@
+package me.mircea.licenta.scraper;
+
+import me.mircea.licenta.core.crawl.db.model.Page;
+import me.mircea.licenta.scraper.fetch.FetchedPage;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class PageQueueTest {
+	private static final int BODY_LENGTH = 1000;
+	private static final long SEGMENT_SIZE = 2 * BODY_LENGTH;
+
+	private final Random random = new Random(42);
+
+	@Test
+	public void shouldReadSpilledPagesBackInOrder() throws InterruptedException {
+		PageQueue queue = new PageQueue(BODY_LENGTH, Long.MAX_VALUE, 100, SEGMENT_SIZE, new ScraperStatistics("test"));
+		try {
+			List<FetchedPage> fetchedPages = new ArrayList<>();
+			for (int i = 0; i < 10; ++i) {
+				FetchedPage fetchedPage = newFetchedPage("https://carturesti.ro/carte/" + i);
+				fetchedPages.add(fetchedPage);
+				queue.put(newPage(fetchedPage.getUrl()), fetchedPage);
+			}
+			queue.putEndOfQueue();
+
+			for (FetchedPage expected : fetchedPages) {
+				Map.Entry<Page, FetchedPage> taken = queue.take();
+				FetchedPage actual = taken.getValue();
+				assertEquals(expected.getUrl(), actual.getUrl());
+				assertArrayEquals(expected.getBody(), actual.getBody());
+				assertEquals(expected.getRetrievedTime(), actual.getRetrievedTime());
+				assertEquals("\"abc\"", actual.getHeaders().get("ETag"));
+				assertNull(actual.getHeaders().get("Content-Type"));
+			}
+			assertSame(PageQueue.END_OF_QUEUE, queue.take());
+			assertEquals(0, queue.getBytesInMemory());
+		} finally {
+			queue.close();
+		}
+	}
+
+	@Test
+	public void shouldKeepWithinMemoryBudgetUnderConcurrentPuts() throws InterruptedException {
+		int noPagesInMemory = 10;
+		int noThreads = 8;
+		int noPagesPerThread = 25;
+		PageQueue queue = new PageQueue(noPagesInMemory * BODY_LENGTH, Long.MAX_VALUE, 1000, 64 * BODY_LENGTH,
+				new ScraperStatistics("test"));
+		ExecutorService downloads = Executors.newFixedThreadPool(noThreads);
+		try {
+			CountDownLatch start = new CountDownLatch(1);
+			for (int i = 0; i < noThreads; ++i) {
+				downloads.execute(() -> {
+					try {
+						start.await();
+						for (int j = 0; j < noPagesPerThread; ++j) {
+							FetchedPage fetchedPage = newFetchedPage("https://carturesti.ro/carte/" + j);
+							queue.put(newPage(fetchedPage.getUrl()), fetchedPage);
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				});
+			}
+			start.countDown();
+			downloads.shutdown();
+			assertTrue(downloads.awaitTermination(1, TimeUnit.MINUTES));
+
+			assertEquals(noThreads * noPagesPerThread, queue.size());
+			assertEquals(noPagesInMemory * BODY_LENGTH, queue.getBytesInMemory());
+		} finally {
+			downloads.shutdownNow();
+			queue.close();
+		}
+	}
+
+	@Test
+	public void shouldCloseEverySegmentOnClose() throws IOException {
+		Path openFiles = Paths.get("/proc/self/fd");
+		assumeTrue(Files.isDirectory(openFiles));
+
+		long noOpenSegmentsBefore = countOpenSegments(openFiles);
+		PageQueue queue = new PageQueue(1, Long.MAX_VALUE, 100, SEGMENT_SIZE, new ScraperStatistics("test"));
+		for (int i = 0; i < 10; ++i) {
+			FetchedPage fetchedPage = newFetchedPage("https://carturesti.ro/carte/" + i);
+			queue.put(newPage(fetchedPage.getUrl()), fetchedPage);
+		}
+		assertTrue(countOpenSegments(openFiles) > noOpenSegmentsBefore + 1);
+
+		queue.close();
+		assertEquals(noOpenSegmentsBefore, countOpenSegments(openFiles));
+	}
+
+	/**
+	 * Only the descriptors of spilled segments are counted, since other threads of the JVM open and close files
+	 * while the test runs.
+	 */
+	private static long countOpenSegments(Path openFiles) throws IOException {
+		long noOpenSegments = 0;
+		try (DirectoryStream<Path> descriptors = Files.newDirectoryStream(openFiles)) {
+			for (Path descriptor : descriptors) {
+				try {
+					if (Files.readSymbolicLink(descriptor).toString().contains("scraper-spill-")) {
+						++noOpenSegments;
+					}
+				} catch (IOException e) {
+					// The descriptor was closed after being listed
+				}
+			}
+		}
+		return noOpenSegments;
+	}
+
+	private FetchedPage newFetchedPage(String url) {
+		byte[] body = new byte[BODY_LENGTH];
+		synchronized (random) {
+			random.nextBytes(body);
+		}
+
+		Map<String, String> headers = new HashMap<>();
+		headers.put("ETag", "\"abc\"");
+		headers.put("Content-Type", "text/html");
+		return new FetchedPage(url, 200, headers, body, "UTF-8", Instant.parse("2019-05-01T10:00:00Z"));
+	}
+
+	private static Page newPage(String url) {
+		Page page = new Page();
+		page.setUrl(url);
+		return page;
+	}
+}
@@ -0,0 +1,100 @@
+package me.mircea.licenta.scraper.infoextraction;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class PageTextTest {
+	private static final ClassLoader classLoader = PageTextTest.class.getClassLoader();
+
+	@Test
+	public void shouldReadPreformattedTextAsJsoup() {
+		assertSameAsJsoup("<div><pre>  Ion\n\tCreanga  </pre><p>Amintiri   din\ncopilarie</p></div>",
+				"Ion\n\tCreanga", "Ion", "din   copilarie");
+		assertSameAsJsoup("<pre><code>  978-973-50\n-5918-7 </code><b> ISBN </b></pre> Pret",
+				"973-50\n-5918", "ISBN", "Pret");
+		assertSameAsJsoup("<p>Inainte <pre>\n  pastrat\n</pre> dupa</p>", "pastrat", "dupa");
+	}
+
+	@Test
+	public void shouldStopPreservingWhitespaceDeepInPreformattedTextAsJsoup() {
+		StringBuilder html = new StringBuilder("<pre>");
+		for (int depth = 1; depth <= 8; ++depth) {
+			html.append("<span>  nivel  ").append(depth).append("  ");
+		}
+		for (int depth = 1; depth <= 8; ++depth) {
+			html.append("</span>");
+		}
+		html.append("</pre>");
+		assertSameAsJsoup(html.toString(), "nivel 5", "nivel 6", "nivel 7", "nivel  4");
+	}
+
+	@Test
+	public void shouldSeparateLineBreaksAsJsoup() {
+		assertSameAsJsoup("<p>Autor:<br>Mihai Eminescu<br/><br>Editura:<br>Humanitas</p>",
+				"Mihai Eminescu", "Autor: Mihai", "Editura: Humanitas", "Humanitas");
+		assertSameAsJsoup("<div>Pret<br> <br>  45,00 lei</div>", "Pret 45,00", "lei");
+	}
+
+	@Test
+	public void shouldJoinNestedInlineTextAsJsoup() {
+		assertSameAsJsoup("<p>Titlu: <b>Mara</b>, de <a href='#'><i>Ioan</i> <span>Slavici</span></a></p>",
+				"Ioan Slavici", "Slavici", "mara, de", "titlu: mara");
+		assertSameAsJsoup("<span>Pre<b>t</b>:</span><em> 29,<sup>99</sup> lei</em>",
+				"Pret:", "29,99", "99 lei");
+		assertSameAsJsoup("<p>Spatii   nedespartite si​caractere­invizibile</p>",
+				"Spatii nedespartite", "sicaractereinvizibile");
+	}
+
+	@Test
+	public void shouldSeparateBlocksAsJsoup() {
+		assertSameAsJsoup("<div><div>ISBN</div>9789735059187<p>Editura</p><ul><li>Polirom</li><li>Iasi</li></ul></div>",
+				"ISBN 9789735059187", "9789735059187 Editura", "Polirom Iasi", "Iasi");
+		assertSameAsJsoup("<table><tr><td>Autor</td><td>Liviu Rebreanu</td></tr><tr><th>An</th><td>2019</td></tr></table>",
+				"Autor Liviu", "Rebreanu", "Rebreanu An 2019");
+		assertSameAsJsoup("<div><h1>Ion</h1><span>roman</span><div><span>Liviu</span> Rebreanu</div></div>",
+				"Ion roman", "roman Liviu", "Liviu Rebreanu");
+	}
+
+	@Test
+	public void shouldFindNothingWhereJsoupFindsNothing() {
+		PageText text = PageText.of(Jsoup.parse("<p>Ion Creanga</p>").body());
+		assertNull(text.findLastOwnerOf("Eminescu"));
+		assertNull(text.findLastOwnerOf(""));
+	}
+
+	@Test
+	public void shouldReadFixturesAsJsoup() throws IOException {
+		assertSameAsJsoup(parseResource("bookPageCarturesti.html"), "ISBN", "Editura", "lei", "Autor");
+		assertSameAsJsoup(parseResource("bookPageLibris.html"), "ISBN", "Editura", "lei", "Autor");
+		assertSameAsJsoup(parseResource("bookPageAlexandria.html"), "ISBN", "Editura", "lei", "Autor");
+	}
+
+	private static void assertSameAsJsoup(String html, String... values) {
+		assertSameAsJsoup(Jsoup.parse(html), values);
+	}
+
+	private static void assertSameAsJsoup(Document doc, String... values) {
+		Element root = doc.body();
+		PageText text = PageText.of(root);
+		assertEquals(root.text(), text.getText().trim());
+
+		for (String value : values) {
+			Element expected = root.select("*:contains(" + value + ")").last();
+			assertSame("Owner of " + value, expected, text.findLastOwnerOf(value));
+		}
+	}
+
+	private static Document parseResource(String name) throws IOException {
+		File file = new File(classLoader.getResource(name).getFile());
+		return Jsoup.parse(file, "UTF-8");
+	}
+}